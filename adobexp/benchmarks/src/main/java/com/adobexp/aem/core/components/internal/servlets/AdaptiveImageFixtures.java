@@ -0,0 +1,264 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.apache.sling.commons.metrics.MetricsService;
+import org.apache.sling.commons.mime.MimeTypeService;
+import org.jetbrains.annotations.NotNull;
+import org.mockito.Mockito;
+
+import com.adobexp.aem.core.components.internal.services.AssetSnapshots;
+import com.adobexp.aem.core.components.internal.services.ContentPolicyCache;
+import com.day.cq.dam.api.Asset;
+import com.day.cq.dam.api.DamConstants;
+import com.day.cq.dam.api.Rendition;
+import com.day.cq.dam.api.handler.AssetHandler;
+import com.day.cq.dam.api.handler.store.AssetStore;
+
+/**
+ * Builds the in-memory repository and the {@link AdaptiveImageServlet} used by the benchmarks. The image corpus is generated with a
+ * fixed seed, so that every run transforms the same pixels: a photo-like JPEG, a PNG with an alpha channel and a palette GIF, each with
+ * the original, web and thumbnail renditions that DAM would create.
+ */
+final class AdaptiveImageFixtures {
+
+    static final String DAM_ROOT = "/content/dam/benchmarks";
+    static final int ORIGINAL_WIDTH = 2560;
+    static final int ORIGINAL_HEIGHT = 1707;
+
+    private static final long SEED = 0x5EEDL;
+    private static final int[][] RENDITION_SIZES = {{1280, 1280}, {319, 319}, {140, 100}, {48, 48}};
+
+    private final BenchmarkAemContext context = new BenchmarkAemContext();
+    private AdaptiveImageServlet servlet;
+    private AdaptiveImagePixelMemoryBudget pixelMemoryBudget;
+
+    /**
+     * Starts the AEM context, creates the assets and activates the servlet and the services it uses.
+     *
+     * @throws IOException if the fixtures cannot be encoded
+     */
+    void setUp() throws IOException {
+        setUp(AdaptiveImageEncoder.ENCODER_LAYER, false, 0);
+    }
+
+    /**
+     * Like {@link #setUp()}, with the given encoder settings.
+     *
+     * @param jpegEncoder the JPEG encoder; the ImageIO encoder writes progressive JPEGs with optimized Huffman tables
+     * @param palette     {@code true} to reduce PNG images to a palette
+     * @param targetSsim  the target of the JPEG quality search, {@code 0} to encode JPEG images with the requested quality
+     * @throws IOException if the fixtures cannot be encoded
+     */
+    void setUp(@NotNull String jpegEncoder, boolean palette, double targetSsim) throws IOException {
+        context.start();
+        context.registerService(MetricsService.class, MetricsService.NOOP);
+        AdaptiveImageServletMetrics metrics = context.registerInjectActivateService(new AdaptiveImageServletMetrics());
+        AdaptiveImageRenditionCache renditionCache = context.registerInjectActivateService(new AdaptiveImageRenditionCache(),
+                "enabled", false);
+        pixelMemoryBudget = context.registerInjectActivateService(new AdaptiveImagePixelMemoryBudget());
+        AdaptiveImageConditionalRequestIndex conditionalRequestIndex =
+                context.registerInjectActivateService(new AdaptiveImageConditionalRequestIndex());
+        AssetRenditionIndex renditionIndex = context.registerInjectActivateService(new AssetRenditionIndex(), "persist", false);
+        ContentPolicyCache policyCache = context.registerInjectActivateService(new ContentPolicyCache());
+        AssetSnapshots assetSnapshots = context.registerInjectActivateService(new AssetSnapshots());
+        AdaptiveImageEncoder encoder = new AdaptiveImageEncoder(jpegEncoder, true, true, AdaptiveImageEncoder.CHROMA_SUBSAMPLING_420,
+                false, palette ? new AdaptiveImagePaletteQuantizer(AdaptiveImagePaletteQuantizer.DEFAULT_MAX_COLORS,
+                AdaptiveImagePaletteQuantizer.DEFAULT_MAX_ERROR, metrics) : null);
+        AdaptiveImageQualitySearch qualitySearch = new AdaptiveImageQualitySearch(encoder, targetSsim,
+                AdaptiveImageQualitySearch.DEFAULT_MIN_QUALITY, AdaptiveImageQualitySearch.DEFAULT_MAX_QUALITY, metrics);
+        servlet = new AdaptiveImageServlet(context.getService(MimeTypeService.class), imageIOAssetStore(), metrics, renditionCache,
+                new AdaptiveImageTransformationCoalescer(metrics),
+                new AdaptiveImageTransformationLimiter(0, Integer.MAX_VALUE, Long.MAX_VALUE, 1, metrics),
+                new AdaptiveImageCachePolicy(-1, -1, 0, null), new AdaptiveImageClientHints(false), encoder, qualitySearch,
+                pixelMemoryBudget, conditionalRequestIndex, renditionIndex, policyCache, assetSnapshots,
+                AdaptiveImageServlet.DEFAULT_RESIZE_WIDTH, AdaptiveImageServlet.DEFAULT_MAX_SIZE, false);
+        for (Format format : Format.values()) {
+            createAsset(format);
+        }
+    }
+
+    void tearDown() {
+        context.stop();
+    }
+
+    @NotNull
+    BenchmarkAemContext getContext() {
+        return context;
+    }
+
+    @NotNull
+    AdaptiveImageServlet getServlet() {
+        return servlet;
+    }
+
+    @NotNull
+    AdaptiveImagePixelMemoryBudget getPixelMemoryBudget() {
+        return pixelMemoryBudget;
+    }
+
+    @NotNull
+    Asset getAsset(@NotNull Format format) {
+        Asset asset = context.resourceResolver().getResource(format.getPath()).adaptTo(Asset.class);
+        if (asset == null) {
+            throw new IllegalStateException("Missing fixture " + format.getPath());
+        }
+        return asset;
+    }
+
+    private void createAsset(@NotNull Format format) throws IOException {
+        Random random = new Random(SEED);
+        BufferedImage original = paint(ORIGINAL_WIDTH, ORIGINAL_HEIGHT, format.imageType, random);
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put(DamConstants.TIFF_IMAGEWIDTH, ORIGINAL_WIDTH);
+        metadata.put(DamConstants.TIFF_IMAGELENGTH, ORIGINAL_HEIGHT);
+        Asset asset = context.create().asset(format.getPath(), encode(original, format.extension), format.mimeType, metadata);
+        for (int[] size : RENDITION_SIZES) {
+            int width = size[0];
+            int height = Math.round(ORIGINAL_HEIGHT * (width / (float) ORIGINAL_WIDTH));
+            String name = (width == RENDITION_SIZES[0][0] ? "cq5dam.web." : "cq5dam.thumbnail.") + size[0] + "." + size[1] + "." +
+                    format.extension;
+            context.create().assetRendition(asset, name, encode(scale(original, width, height), format.extension), format.mimeType);
+        }
+    }
+
+    /**
+     * Paints a deterministic image with smooth gradients, hard edges and noise, so that neither the encoders nor the resampling
+     * filters get an unrealistically easy input.
+     */
+    @NotNull
+    private static BufferedImage paint(int width, int height, int imageType, @NotNull Random random) {
+        BufferedImage image = new BufferedImage(width, height, imageType);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.setPaint(new GradientPaint(0, 0, new Color(32, 84, 140), width, height, new Color(236, 180, 96)));
+            graphics.fillRect(0, 0, width, height);
+            for (int i = 0; i < 400; i++) {
+                graphics.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256), 64 + random.nextInt(192)));
+                int w = 16 + random.nextInt(width / 6);
+                int h = 16 + random.nextInt(height / 6);
+                if (random.nextBoolean()) {
+                    graphics.fillOval(random.nextInt(width), random.nextInt(height), w, h);
+                } else {
+                    graphics.fillRect(random.nextInt(width), random.nextInt(height), w, h);
+                }
+            }
+        } finally {
+            graphics.dispose();
+        }
+        for (int y = 0; y < height; y += 2) {
+            for (int x = random.nextInt(8); x < width; x += 1 + random.nextInt(8)) {
+                int rgb = image.getRGB(x, y);
+                int noise = random.nextInt(17) - 8;
+                image.setRGB(x, y, (rgb & 0xFF000000) | (clamp((rgb >> 16 & 0xFF) + noise) << 16) |
+                        (clamp((rgb >> 8 & 0xFF) + noise) << 8) | clamp((rgb & 0xFF) + noise));
+            }
+        }
+        return image;
+    }
+
+    @NotNull
+    private static BufferedImage scale(@NotNull BufferedImage source, int width, int height) {
+        BufferedImage scaled = new BufferedImage(width, height, source.getType());
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    @NotNull
+    private static InputStream encode(@NotNull BufferedImage image, @NotNull String extension) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, extension, out)) {
+            throw new IOException("No ImageIO writer for " + extension);
+        }
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    /**
+     * An asset store whose handlers decode the renditions with ImageIO, which is what the DAM handlers do for these formats.
+     */
+    @NotNull
+    private static AssetStore imageIOAssetStore() {
+        AssetHandler assetHandler = Mockito.mock(AssetHandler.class);
+        try {
+            Mockito.when(assetHandler.getImage(Mockito.any(Rendition.class))).thenAnswer(invocation -> {
+                Rendition rendition = invocation.getArgument(0);
+                try (InputStream is = rendition.getStream()) {
+                    return is == null ? null : ImageIO.read(is);
+                }
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        AssetStore assetStore = Mockito.mock(AssetStore.class);
+        Mockito.when(assetStore.getAssetHandler(Mockito.anyString())).thenReturn(assetHandler);
+        return assetStore;
+    }
+
+    /**
+     * The formats of the image corpus.
+     */
+    enum Format {
+        JPEG("image/jpeg", "jpg", BufferedImage.TYPE_INT_RGB),
+        PNG("image/png", "png", BufferedImage.TYPE_INT_ARGB),
+        GIF("image/gif", "gif", BufferedImage.TYPE_BYTE_INDEXED);
+
+        private final String mimeType;
+        private final String extension;
+        private final int imageType;
+
+        Format(String mimeType, String extension, int imageType) {
+            this.mimeType = mimeType;
+            this.extension = extension;
+            this.imageType = imageType;
+        }
+
+        @NotNull
+        String getMimeType() {
+            return mimeType;
+        }
+
+        @NotNull
+        String getPath() {
+            return DAM_ROOT + "/" + name().toLowerCase() + "." + extension;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.day.cq.dam.api.Asset;
+
+/**
+ * Measures how fast the {@link AdaptiveImageServlet} picks the rendition it transforms, once the renditions of the asset are indexed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class AdaptiveImageRenditionSelectionBenchmark {
+
+    @Param({"JPEG", "PNG"})
+    public String format;
+
+    @Param({"100", "320", "1280", "1920"})
+    public int width;
+
+    private AdaptiveImageFixtures fixtures;
+    private AdaptiveImageServlet servlet;
+    private String imageType;
+    private Asset asset;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fixtures = new AdaptiveImageFixtures();
+        fixtures.setUp();
+        servlet = fixtures.getServlet();
+        AdaptiveImageFixtures.Format fixture = AdaptiveImageFixtures.Format.valueOf(format);
+        imageType = fixture.getMimeType();
+        asset = fixtures.getAsset(fixture);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixtures.tearDown();
+    }
+
+    @Benchmark
+    public EnhancedRendition selectRendition() throws IOException {
+        return servlet.getBestRendition(asset, width, imageType);
+    }
+}
@@ -0,0 +1,123 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.day.cq.commons.ImageResource;
+import com.day.cq.dam.api.Asset;
+
+/**
+ * Measures the decode, crop / rotate, resize and encode pipeline of the {@link AdaptiveImageServlet}, for each format of the
+ * {@link AdaptiveImageFixtures corpus}, at the widths and qualities that are commonly requested and with both JPEG encoders (the
+ * ImageIO one writes progressive JPEGs with optimized Huffman tables). The rendition cache is disabled, so every invocation renders
+ * the image. Run with {@code -prof gc} to also report the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g", "-Djava.awt.headless=true"})
+public class AdaptiveImageTransformationBenchmark {
+
+    @Param({"JPEG", "PNG", "GIF"})
+    public String format;
+
+    @Param({"320", "640", "1024", "1280", "1920"})
+    public int width;
+
+    @Param({"60", "82"})
+    public int quality;
+
+    @Param({"none", "crop", "rotate"})
+    public String transformation;
+
+    @Param({AdaptiveImageEncoder.ENCODER_LAYER, AdaptiveImageEncoder.ENCODER_IMAGEIO})
+    public String encoder;
+
+    /**
+     * The target of the JPEG quality search; only the first invocation searches, as the chosen quality is remembered per image.
+     * Override with {@code -p targetSsim=0,0.99} to compare.
+     */
+    @Param({"0"})
+    public double targetSsim;
+
+    /**
+     * Whether PNG images are reduced to a palette. Override with {@code -p palette=false,true} to compare.
+     */
+    @Param({"false"})
+    public boolean palette;
+
+    private AdaptiveImageFixtures fixtures;
+    private AdaptiveImageServlet servlet;
+    private String imageType;
+    private Asset asset;
+    private ValueMap componentProperties;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fixtures = new AdaptiveImageFixtures();
+        fixtures.setUp(encoder, palette, targetSsim);
+        servlet = fixtures.getServlet();
+        AdaptiveImageFixtures.Format fixture = AdaptiveImageFixtures.Format.valueOf(format);
+        imageType = fixture.getMimeType();
+        asset = fixtures.getAsset(fixture);
+        Map<String, Object> properties = new HashMap<>();
+        if ("crop".equals(transformation)) {
+            // a centered 16:9 crop of the web rendition, as x1,y1,x2,y2
+            properties.put(ImageResource.PN_IMAGE_CROP, "160,130,1120,670");
+        } else if ("rotate".equals(transformation)) {
+            properties.put(ImageResource.PN_IMAGE_ROTATE, "90");
+        }
+        componentProperties = new ValueMapDecorator(properties);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixtures.tearDown();
+    }
+
+    @Benchmark
+    public void transform(Blackhole blackhole) throws IOException {
+        BufferingImageResponse response = new BufferingImageResponse(fixtures.getContext().response());
+        try (AdaptiveImagePixelMemoryBudget.Scope memory = fixtures.getPixelMemoryBudget().newScope()) {
+            servlet.transformAndStreamAsset(response, componentProperties, width, quality / 100.0d, null, asset, imageType,
+                    "image." + width, memory);
+        }
+        blackhole.consume(response.toCachedRendition());
+    }
+}
@@ -0,0 +1,148 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.api.resource.Resource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.adobexp.aem.core.components.internal.helper.image.AssetDeliveryHelper;
+import com.adobe.cq.wcm.spi.AssetDelivery;
+import com.day.cq.commons.DownloadResource;
+import com.day.cq.commons.ImageResource;
+
+/**
+ * Measures the per-image cost of building the Asset Delivery {@code src}, {@code srcset} and URI template of an image with a 6-width
+ * policy, resolving the asset and the transformation parameters for each URL or once for the image.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class AssetDeliverySrcSetBenchmark {
+
+    private static final int[] WIDTHS = {256, 512, 640, 1024, 1280, 1920};
+    private static final int JPEG_QUALITY = 82;
+    private static final String IMAGE_NAME = "benchmark";
+    private static final String EXTENSION = "jpg";
+    private static final String WIDTH_PLACEHOLDER = "{.width}";
+
+    @Param({"false", "true"})
+    public boolean crop;
+
+    private AdaptiveImageFixtures fixtures;
+    private AssetDelivery assetDelivery;
+    private AssetRenditionIndex renditionIndex;
+    private Resource component;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fixtures = new AdaptiveImageFixtures();
+        fixtures.setUp();
+        BenchmarkAemContext context = fixtures.getContext();
+        assetDelivery = new UrlBuildingAssetDelivery();
+        renditionIndex = context.getService(AssetRenditionIndex.class);
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(DownloadResource.PN_REFERENCE, AdaptiveImageFixtures.Format.JPEG.getPath());
+        if (crop) {
+            properties.put(ImageResource.PN_IMAGE_CROP, "100,50,900,650");
+        }
+        component = context.create().resource("/content/benchmarks/image", properties);
+        // index the renditions outside of the measurement
+        renditionIndex.getRenditions(fixtures.getAsset(AdaptiveImageFixtures.Format.JPEG));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixtures.tearDown();
+    }
+
+    /**
+     * Builds the URLs like the image model did, resolving the asset and the parameters for every width, for the {@code src} and for the
+     * URI template.
+     */
+    @Benchmark
+    public void perWidth(Blackhole blackhole) {
+        for (int width : WIDTHS) {
+            blackhole.consume(AssetDeliveryHelper.getSrc(assetDelivery, component, IMAGE_NAME, EXTENSION, width, JPEG_QUALITY,
+                    renditionIndex));
+        }
+        blackhole.consume(AssetDeliveryHelper.getSrc(assetDelivery, component, IMAGE_NAME, EXTENSION, null, JPEG_QUALITY,
+                renditionIndex));
+        blackhole.consume(AssetDeliveryHelper.getSrcUriTemplate(assetDelivery, component, IMAGE_NAME, EXTENSION, JPEG_QUALITY,
+                WIDTH_PLACEHOLDER, renditionIndex));
+        blackhole.consume(AssetDeliveryHelper.getSrcSet(assetDelivery, component, IMAGE_NAME, EXTENSION, WIDTHS, JPEG_QUALITY,
+                renditionIndex));
+    }
+
+    /**
+     * Builds the same URLs from a single resolution of the asset and of the parameters.
+     */
+    @Benchmark
+    public void resolvedOnce(Blackhole blackhole) {
+        AssetDeliveryHelper.DeliveryUrls urls = AssetDeliveryHelper.resolve(assetDelivery, component, IMAGE_NAME, EXTENSION,
+                JPEG_QUALITY, renditionIndex);
+        for (int width : WIDTHS) {
+            blackhole.consume(urls.getSrc(width));
+        }
+        blackhole.consume(urls.getSrc(null));
+        blackhole.consume(urls.getSrcUriTemplate(WIDTH_PLACEHOLDER));
+        blackhole.consume(urls.getSrcSet(WIDTHS));
+    }
+
+    /**
+     * An {@link AssetDelivery} that builds the URL from the parameters, like the actual service does, without signing it.
+     */
+    private static final class UrlBuildingAssetDelivery implements AssetDelivery {
+
+        @Override
+        public String getDeliveryURL(Resource resource, Map<String, Object> parameterMap) {
+            Map<String, Object> parameters = new TreeMap<>(parameterMap);
+            StringBuilder url = new StringBuilder("/adobe/dynamicmedia/deliver/")
+                    .append(Integer.toHexString(resource.getPath().hashCode()))
+                    .append('/')
+                    .append(parameters.remove("seoname"))
+                    .append('.')
+                    .append(parameters.remove("format"));
+            char separator = '?';
+            for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+                url.append(separator).append(parameter.getKey()).append('=').append(parameter.getValue());
+                separator = '&';
+            }
+            return url.toString();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+
+import io.wcm.testing.mock.aem.context.AemContextImpl;
+
+/**
+ * An AEM context whose lifecycle is driven by the JMH trial setup and teardown instead of a JUnit extension.
+ */
+class BenchmarkAemContext extends AemContextImpl {
+
+    BenchmarkAemContext() {
+        setResourceResolverType(ResourceResolverType.RESOURCERESOLVER_MOCK);
+    }
+
+    void start() {
+        setUp();
+    }
+
+    void stop() {
+        tearDown();
+    }
+}
@@ -15,15 +15,15 @@
  ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
 package com.adobexp.aem.core.components.internal.helper.image;
 
-import java.awt.image.BufferedImage;
-import java.io.IOException;
+import java.awt.Dimension;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
-import javax.imageio.ImageIO;
-
 import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ValueMap;
@@ -32,10 +32,14 @@ import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.adobexp.aem.core.components.internal.services.AssetSnapshots;
+import com.adobexp.aem.core.components.internal.servlets.AssetRenditionIndex;
+import com.adobexp.aem.core.components.internal.servlets.EnhancedRendition;
 import com.adobexp.aem.core.components.models.Image;
 import com.adobe.cq.wcm.spi.AssetDelivery;
 import com.day.cq.commons.DownloadResource;
 import com.day.cq.commons.ImageResource;
+import com.day.cq.commons.jcr.JcrConstants;
 import com.day.cq.dam.api.Asset;
 import com.day.cq.dam.api.Rendition;
 
@@ -58,43 +62,113 @@ public class AssetDeliveryHelper {
     private static String VERTICAL_FLIP = "VERTICAL";
     private static String HORIZONTAL_AND_VERTICAL_FLIP = "HORIZONTAL_AND_VERTICAL";
     private static int PSEUDO_WIDTH_PARAM = Integer.MAX_VALUE;
+    private static String PSEUDO_WIDTH = String.valueOf(PSEUDO_WIDTH_PARAM);
+    private static String WEB_RENDITION_PREFIX = "cq5dam.web";
+    private static final int MAX_CACHED_DIMENSIONS = 1000;
+
+    /**
+     * The dimensions of the web renditions read without a rendition index, keyed by rendition path and last modified date.
+     */
+    private static final LinkedHashMap<String, Dimension> DIMENSIONS = new LinkedHashMap<>(64, 0.75f, true);
 
 
     public static String getSrcSet(@NotNull AssetDelivery assetDelivery, @NotNull Resource imageComponentResource, @NotNull String imageName,
                                    @NotNull String extension, int[] smartSizes, int jpegQuality) {
+        return getSrcSet(assetDelivery, imageComponentResource, imageName, extension, smartSizes, jpegQuality, null);
+    }
+
+    public static String getSrcSet(@NotNull AssetDelivery assetDelivery, @NotNull Resource imageComponentResource, @NotNull String imageName,
+                                   @NotNull String extension, int[] smartSizes, int jpegQuality,
+                                   @Nullable AssetRenditionIndex renditionIndex) {
 
         if (smartSizes.length == 0) {
             return null;
         }
-        List<String> srcsetList = new ArrayList<String>();
-        for (int i = 0; i < smartSizes.length; i++) {
-            String src =  getSrc(assetDelivery, imageComponentResource,  imageName, extension, smartSizes[i], jpegQuality);
-            if (!StringUtils.isEmpty(src)) {
-                srcsetList.add(src + " " + smartSizes[i] + "w");
-            }
-        }
-
-        if (srcsetList.size() > 0) {
-            return StringUtils.join(srcsetList, COMMA);
-        }
-
-        return null;
+        DeliveryUrls urls = resolve(assetDelivery, imageComponentResource, imageName, extension, jpegQuality, renditionIndex);
+        return urls != null ? urls.getSrcSet(smartSizes) : null;
     }
 
     public static String getSrcUriTemplate(@NotNull AssetDelivery assetDelivery, @NotNull Resource imageComponentResource,
                                            @NotNull String imageName, @NotNull String extension,
                                            @Nullable Integer jpegQuality, @NotNull String widthPlaceholder) {
+        return getSrcUriTemplate(assetDelivery, imageComponentResource, imageName, extension, jpegQuality, widthPlaceholder, null);
+    }
 
-        String templateUrl = getSrc(assetDelivery, imageComponentResource, imageName, extension, PSEUDO_WIDTH_PARAM, jpegQuality);
-        if(!StringUtils.isEmpty(templateUrl)) {
-            templateUrl = templateUrl.replaceAll(String.valueOf(PSEUDO_WIDTH_PARAM), widthPlaceholder);
-        }
-        return templateUrl;
+    public static String getSrcUriTemplate(@NotNull AssetDelivery assetDelivery, @NotNull Resource imageComponentResource,
+                                           @NotNull String imageName, @NotNull String extension,
+                                           @Nullable Integer jpegQuality, @NotNull String widthPlaceholder,
+                                           @Nullable AssetRenditionIndex renditionIndex) {
+
+        DeliveryUrls urls = resolve(assetDelivery, imageComponentResource, imageName, extension, jpegQuality, renditionIndex);
+        return urls != null ? urls.getSrcUriTemplate(widthPlaceholder) : null;
     }
 
     public static  String getSrc(@NotNull AssetDelivery assetDelivery, @NotNull Resource imageComponentResource,
                                   @NotNull String imageName, @NotNull String extension,
                                   @Nullable Integer width, @Nullable Integer jpegQuality) {
+        return getSrc(assetDelivery, imageComponentResource, imageName, extension, width, jpegQuality, null);
+    }
+
+    /**
+     * Builds the Asset Delivery URL of an image.
+     *
+     * @param assetDelivery          the Asset Delivery service
+     * @param imageComponentResource the image component resource
+     * @param imageName              the SEO name of the image
+     * @param extension              the extension of the image
+     * @param width                  the width of the image, or {@code null}
+     * @param jpegQuality            the JPEG quality of the image, or {@code null}
+     * @param renditionIndex         the index the dimension of the web rendition is taken from, or {@code null} to read it from the
+     *                               rendition metadata or headers
+     * @return the URL or {@code null} if the image cannot be delivered by Asset Delivery
+     */
+    public static  String getSrc(@NotNull AssetDelivery assetDelivery, @NotNull Resource imageComponentResource,
+                                  @NotNull String imageName, @NotNull String extension,
+                                  @Nullable Integer width, @Nullable Integer jpegQuality,
+                                  @Nullable AssetRenditionIndex renditionIndex) {
+
+        DeliveryUrls urls = resolve(assetDelivery, imageComponentResource, imageName, extension, jpegQuality, renditionIndex);
+        return urls != null ? urls.getSrc(width) : null;
+    }
+
+    /**
+     * Resolves the asset and the transformation parameters of an image, so that its {@code src}, {@code srcset} and URI template can be
+     * built without reading the component properties and resolving the asset again for each of them.
+     *
+     * @param assetDelivery          the Asset Delivery service
+     * @param imageComponentResource the image component resource
+     * @param imageName              the SEO name of the image
+     * @param extension              the extension of the image
+     * @param jpegQuality            the JPEG quality of the image, or {@code null}
+     * @param renditionIndex         the index the dimension of the web rendition is taken from, or {@code null} to read it from the
+     *                               rendition metadata or headers
+     * @return the resolved URLs or {@code null} if the image cannot be delivered by Asset Delivery
+     */
+    @Nullable
+    public static DeliveryUrls resolve(@NotNull AssetDelivery assetDelivery, @NotNull Resource imageComponentResource,
+                                       @NotNull String imageName, @NotNull String extension, @Nullable Integer jpegQuality,
+                                       @Nullable AssetRenditionIndex renditionIndex) {
+        return resolve(assetDelivery, imageComponentResource, imageName, extension, jpegQuality, renditionIndex, null);
+    }
+
+    /**
+     * Like {@link #resolve(AssetDelivery, Resource, String, String, Integer, AssetRenditionIndex)}, but reads the referenced asset from
+     * the given snapshot, shared with the other models of the request, instead of resolving it again.
+     *
+     * @param assetDelivery          the Asset Delivery service
+     * @param imageComponentResource the image component resource
+     * @param imageName              the SEO name of the image
+     * @param extension              the extension of the image
+     * @param jpegQuality            the JPEG quality of the image, or {@code null}
+     * @param renditionIndex         the index the dimension of the web rendition is taken from, or {@code null} to read it from the
+     *                               rendition metadata or headers
+     * @param snapshot               the snapshot of the referenced asset, or {@code null} to resolve the asset
+     * @return the resolved URLs or {@code null} if the image cannot be delivered by Asset Delivery
+     */
+    @Nullable
+    public static DeliveryUrls resolve(@NotNull AssetDelivery assetDelivery, @NotNull Resource imageComponentResource,
+                                       @NotNull String imageName, @NotNull String extension, @Nullable Integer jpegQuality,
+                                       @Nullable AssetRenditionIndex renditionIndex, @Nullable AssetSnapshots.Snapshot snapshot) {
 
         Map<String, Object> params = new HashMap<>();
 
@@ -113,28 +187,14 @@ public class AssetDeliveryHelper {
 
         // we have to get the with and height of the web rendition to calculate relative crop parameter
         if (StringUtils.isNotEmpty(componentProperties.get(ImageResource.PN_IMAGE_CROP, String.class))) {
-            Asset asset = assetResource.adaptTo(Asset.class);
-            if (asset != null) {
-
-                Rendition assetRendition = asset.getRendition(asset1 -> {
-                    for (Rendition rendition : asset1.getRenditions()) {
-                        if (rendition.getName().startsWith("cq5dam.web")) {
-                            return rendition;
-                        }
-                    }
-                    return null;
-                });
-                if (assetRendition != null) {
-                    try {
-                        BufferedImage image = ImageIO.read(assetRendition.getStream());
-                        int imageHeight = image.getHeight();
-                        int imageWidth = image.getWidth();
-                        params.put("imageHeight", imageHeight);
-                        params.put("imageWidth", imageWidth);
-                    } catch (IOException e) {
-                        LOGGER.error(e.getMessage());
-                    }
-                }
+            if (snapshot != null && !assetPath.equals(snapshot.getPath())) {
+                snapshot = null;
+            }
+            Asset asset = snapshot != null ? snapshot.getAsset() : assetResource.adaptTo(Asset.class);
+            Dimension dimension = asset != null ? getWebRenditionDimension(asset, snapshot, renditionIndex) : null;
+            if (dimension != null) {
+                params.put("imageHeight", dimension.height);
+                params.put("imageWidth", dimension.width);
             }
         }
         params.put(PATH_PARAMETER, assetPath);
@@ -145,19 +205,68 @@ public class AssetDeliveryHelper {
         if (jpegQuality != null) {
             addQualityParameter(params, jpegQuality);
         }
-        if (width != null) {
-            addWidthParameter(params, width);
-        }
 
         addCropParameter(params, componentProperties);
         addRotationParameter(params, componentProperties);
         addFlipParameter(params, componentProperties);
 
-        String assetDeliveryURL = assetDelivery.getDeliveryURL(assetResource, params);
-        if (!StringUtils.isEmpty(assetDeliveryURL)) {
-            return  assetDeliveryURL;
+        return new DeliveryUrls(assetDelivery, assetResource, params);
+    }
+
+    /**
+     * Returns the dimension of the web rendition of the given asset, without decoding the rendition: the dimension is taken from the
+     * rendition index, from the rendition metadata or from the image headers. Without an index, the dimension read from the metadata or
+     * headers is remembered per rendition path and last modified date.
+     *
+     * @param asset          the asset
+     * @param snapshot       the snapshot of the asset, or {@code null}
+     * @param renditionIndex the rendition index, or {@code null}
+     * @return the dimension or {@code null} if the asset has no web rendition or its dimension cannot be determined
+     */
+    @Nullable
+    private static Dimension getWebRenditionDimension(@NotNull Asset asset, @Nullable AssetSnapshots.Snapshot snapshot,
+                                                      @Nullable AssetRenditionIndex renditionIndex) {
+        if (renditionIndex != null) {
+            for (AssetRenditionIndex.IndexedRendition rendition : renditionIndex.getRenditions(asset)) {
+                if (rendition.getName().startsWith(WEB_RENDITION_PREFIX)) {
+                    return rendition.getDimension();
+                }
+            }
+            return null;
         }
-        return StringUtils.EMPTY;
+        for (Rendition rendition : snapshot != null ? snapshot.getRenditions() : asset.getRenditions()) {
+            if (rendition.getName().startsWith(WEB_RENDITION_PREFIX)) {
+                return getDimension(rendition);
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private static Dimension getDimension(@NotNull Rendition rendition) {
+        Calendar lastModified = rendition.getProperties().get(JcrConstants.JCR_LASTMODIFIED, Calendar.class);
+        if (lastModified == null) {
+            return new EnhancedRendition(rendition).getDimension();
+        }
+        String key = rendition.getPath() + "@" + lastModified.getTimeInMillis();
+        synchronized (DIMENSIONS) {
+            Dimension dimension = DIMENSIONS.get(key);
+            if (dimension != null) {
+                return new Dimension(dimension);
+            }
+        }
+        Dimension dimension = new EnhancedRendition(rendition).getDimension();
+        if (dimension != null) {
+            synchronized (DIMENSIONS) {
+                DIMENSIONS.put(key, new Dimension(dimension));
+                Iterator<String> iterator = DIMENSIONS.keySet().iterator();
+                while (DIMENSIONS.size() > MAX_CACHED_DIMENSIONS && iterator.hasNext()) {
+                    iterator.next();
+                    iterator.remove();
+                }
+            }
+        }
+        return dimension;
     }
 
     private static void addQualityParameter(@NotNull Map<String, Object> params, @NotNull int quality) {
@@ -274,4 +383,101 @@ public class AssetDeliveryHelper {
         return StringUtils.EMPTY;
     }
 
+    /**
+     * The Asset Delivery URLs of an image whose asset and transformation parameters have been {@link #resolve resolved}. The URLs of the
+     * different widths are derived from a single URL requested with a pseudo width, which is substituted with the actual width; if the
+     * pseudo width cannot be located unambiguously in that URL, each width is requested from {@link AssetDelivery} instead.
+     */
+    public static final class DeliveryUrls {
+
+        private final AssetDelivery assetDelivery;
+        private final Resource assetResource;
+        private final Map<String, Object> params;
+        private String template;
+        private boolean templateResolved;
+
+        private DeliveryUrls(@NotNull AssetDelivery assetDelivery, @NotNull Resource assetResource, @NotNull Map<String, Object> params) {
+            this.assetDelivery = assetDelivery;
+            this.assetResource = assetResource;
+            this.params = params;
+        }
+
+        /**
+         * Returns the URL of the image.
+         *
+         * @param width the width of the image, or {@code null}
+         * @return the URL, or an empty string if Asset Delivery did not provide one
+         */
+        @NotNull
+        public String getSrc(@Nullable Integer width) {
+            if (width == null) {
+                return getDeliveryURL(new HashMap<>(params));
+            }
+            String template = getTemplate();
+            if (template != null) {
+                return StringUtils.replace(template, PSEUDO_WIDTH, String.valueOf(width));
+            }
+            Map<String, Object> widthParams = new HashMap<>(params);
+            addWidthParameter(widthParams, width);
+            return getDeliveryURL(widthParams);
+        }
+
+        /**
+         * Returns the {@code srcset} of the image.
+         *
+         * @param smartSizes the widths of the image
+         * @return the {@code srcset} or {@code null} if none of the widths has a URL
+         */
+        @Nullable
+        public String getSrcSet(int[] smartSizes) {
+            List<String> srcsetList = new ArrayList<String>();
+            for (int i = 0; i < smartSizes.length; i++) {
+                String src = getSrc(smartSizes[i]);
+                if (!StringUtils.isEmpty(src)) {
+                    srcsetList.add(src + " " + smartSizes[i] + "w");
+                }
+            }
+
+            if (srcsetList.size() > 0) {
+                return StringUtils.join(srcsetList, COMMA);
+            }
+
+            return null;
+        }
+
+        /**
+         * Returns the URI template of the image.
+         *
+         * @param widthPlaceholder the placeholder of the width in the template
+         * @return the URI template, or an empty string if Asset Delivery did not provide one
+         */
+        @NotNull
+        public String getSrcUriTemplate(@NotNull String widthPlaceholder) {
+            return StringUtils.replace(getSrc(PSEUDO_WIDTH_PARAM), PSEUDO_WIDTH, widthPlaceholder);
+        }
+
+        /**
+         * Returns the URL requested with the pseudo width, or {@code null} if the pseudo width does not occur exactly once in it.
+         */
+        @Nullable
+        private String getTemplate() {
+            if (!templateResolved) {
+                Map<String, Object> templateParams = new HashMap<>(params);
+                addWidthParameter(templateParams, PSEUDO_WIDTH_PARAM);
+                String url = getDeliveryURL(templateParams);
+                template = StringUtils.countMatches(url, PSEUDO_WIDTH) == 1 ? url : null;
+                templateResolved = true;
+            }
+            return template;
+        }
+
+        @NotNull
+        private String getDeliveryURL(@NotNull Map<String, Object> params) {
+            String assetDeliveryURL = assetDelivery.getDeliveryURL(assetResource, params);
+            if (!StringUtils.isEmpty(assetDeliveryURL)) {
+                return  assetDeliveryURL;
+            }
+            return StringUtils.EMPTY;
+        }
+    }
 }
@@ -33,6 +33,7 @@ import org.slf4j.LoggerFactory;
 
 import com.adobexp.aem.core.components.commons.link.Link;
 import com.adobexp.aem.core.components.commons.link.LinkBuilder;
+import com.adobexp.aem.core.components.internal.services.AssetSnapshots;
 import com.adobexp.aem.core.components.services.link.PathProcessor;
 import com.day.cq.dam.api.Asset;
 import com.day.cq.wcm.api.Page;
@@ -61,6 +62,7 @@ public class LinkBuilderImpl implements LinkBuilder {
     String linkUrlPropertyName = PN_LINK_URL;
     Page targetPage;
     Asset targetAsset;
+    AssetSnapshots assetSnapshots;
     String linkUrl;
     Map<String, String> linkAttributes = new HashMap<>();
     Object reference;
@@ -92,6 +94,18 @@ public class LinkBuilderImpl implements LinkBuilder {
         this.shadowingDisabled = shadowingDisabled;
     }
 
+    /**
+     * Resolves the linked assets through the snapshots of the request, shared with the other models.
+     *
+     * @param assetSnapshots the asset snapshots service, or {@code null} to resolve the assets directly
+     * @return this builder
+     */
+    @NotNull
+    LinkBuilderImpl withAssetSnapshots(@Nullable AssetSnapshots assetSnapshots) {
+        this.assetSnapshots = assetSnapshots;
+        return this;
+    }
+
     @Override
     public @NotNull LinkBuilder withLinkUrlPropertyName(@NotNull String name) {
         linkUrlPropertyName = name;
@@ -262,6 +276,10 @@ public class LinkBuilderImpl implements LinkBuilder {
      */
     @Nullable
     private Asset getAsset(@NotNull String path) {
+        if (assetSnapshots != null) {
+            AssetSnapshots.Snapshot snapshot = assetSnapshots.get(request, request.getResourceResolver(), path);
+            return snapshot != null ? snapshot.getAsset() : null;
+        }
         return Optional.ofNullable(request.getResourceResolver().getResource(path))
                 .map(assetRes -> assetRes.adaptTo(Asset.class))
                 .orElse(null);
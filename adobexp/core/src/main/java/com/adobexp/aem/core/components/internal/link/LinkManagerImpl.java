@@ -34,6 +34,7 @@ import org.jetbrains.annotations.NotNull;
 
 import com.adobexp.aem.core.components.commons.link.LinkBuilder;
 import com.adobexp.aem.core.components.commons.link.LinkManager;
+import com.adobexp.aem.core.components.internal.services.AssetSnapshots;
 import com.adobexp.aem.core.components.services.link.PathProcessor;
 import com.day.cq.dam.api.Asset;
 import com.day.cq.wcm.api.Page;
@@ -85,6 +86,12 @@ public class LinkManagerImpl implements LinkManager {
     @OSGiService
     private List<PathProcessor> pathProcessors;
 
+    /**
+     * Request-scoped snapshots of the linked assets, shared with the other models of the request.
+     */
+    @OSGiService(injectionStrategy = InjectionStrategy.OPTIONAL)
+    private AssetSnapshots assetSnapshots;
+
     /**
      * Variable that defines how to handle pages that redirect. Given pages PageA and PageB where PageA redirects to PageB,
      * when shadowing is disabled, the link will point to the original page (PageA).
@@ -104,7 +111,7 @@ public class LinkManagerImpl implements LinkManager {
 
     @Override
     public @NotNull LinkBuilder get(@NotNull Resource resource) {
-        return new LinkBuilderImpl(resource, request, pathProcessors, shadowingDisabled);
+        return new LinkBuilderImpl(resource, request, pathProcessors, shadowingDisabled).withAssetSnapshots(assetSnapshots);
     }
 
     @Override
@@ -119,7 +126,7 @@ public class LinkManagerImpl implements LinkManager {
 
     @Override
     public @NotNull LinkBuilder get(@NotNull String url) {
-        return new LinkBuilderImpl(url, request, pathProcessors, shadowingDisabled);
+        return new LinkBuilderImpl(url, request, pathProcessors, shadowingDisabled).withAssetSnapshots(assetSnapshots);
     }
 
     /**
@@ -24,22 +24,15 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 import javax.annotation.PostConstruct;
 import javax.json.Json;
-import javax.json.JsonException;
-import javax.json.JsonObject;
-import javax.json.JsonReader;
-import javax.json.JsonValue;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObjectBuilder;
 
-import org.apache.http.client.ResponseHandler;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.osgi.services.HttpClientBuilderFactory;
-
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -67,7 +60,12 @@ import com.adobexp.aem.core.components.commons.link.Link;
 import com.adobexp.aem.core.components.commons.link.LinkManager;
 import com.adobexp.aem.core.components.internal.helper.image.AssetDeliveryHelper;
 import com.adobexp.aem.core.components.internal.link.LinkUtil;
+import com.adobexp.aem.core.components.internal.services.AssetSnapshots;
+import com.adobexp.aem.core.components.internal.services.ContentPolicyCache;
+import com.adobexp.aem.core.components.internal.services.NextGenDMMetadataClient;
+import com.adobexp.aem.core.components.internal.services.RenderDataCache;
 import com.adobexp.aem.core.components.internal.servlets.AdaptiveImageServlet;
+import com.adobexp.aem.core.components.internal.servlets.AssetRenditionIndex;
 import com.adobexp.aem.core.components.internal.servlets.EnhancedRendition;
 import com.adobexp.aem.core.components.models.Image;
 import com.adobexp.aem.core.components.models.ImageArea;
@@ -91,8 +89,6 @@ import com.adobe.cq.ui.wcm.commons.config.NextGenDynamicMediaConfig;
 import java.util.Map;
 import java.util.Scanner;
 import java.awt.Dimension;
-import java.io.IOException;
-import java.io.StringReader;
 
 import static com.adobexp.aem.core.components.models.Teaser.PN_IMAGE_LINK_HIDDEN;
 import static com.adobexp.aem.core.components.internal.Utils.getWrappedImageResourceWithInheritance;
@@ -128,6 +124,18 @@ public class ImageImpl implements Image {
     @OSGiService(injectionStrategy = InjectionStrategy.OPTIONAL)
     protected AssetDelivery assetDelivery;
 
+    @OSGiService(injectionStrategy = InjectionStrategy.OPTIONAL)
+    protected AssetRenditionIndex renditionIndex;
+
+    @OSGiService(injectionStrategy = InjectionStrategy.OPTIONAL)
+    protected ContentPolicyCache policyCache;
+
+    @OSGiService(injectionStrategy = InjectionStrategy.OPTIONAL)
+    protected AssetSnapshots assetSnapshots;
+
+    @OSGiService(injectionStrategy = InjectionStrategy.OPTIONAL)
+    protected RenderDataCache renderDataCache;
+
     @Self
     protected LinkManager linkManager;
 
@@ -214,7 +222,7 @@ public class ImageImpl implements Image {
 
     @OSGiService
     @Optional
-    private HttpClientBuilderFactory clientBuilderFactory;
+    private NextGenDMMetadataClient ngdmMetadataClient;
 
     private boolean imageLinkHidden = false;
 
@@ -224,9 +232,14 @@ public class ImageImpl implements Image {
     private Dimension dimension;
 
     private boolean ngdmImage = false;
-    private CloseableHttpClient client;
     private static final String PATH_PLACEHOLDER_ASSET_ID = "{asset-id}";
     private String metadataDeliveryEndpoint;
+    private String placeholder;
+    private static final String DERIVED_SUPPORTED_RENDITION_WIDTHS = ImageImpl.class.getName() + ".supportedRenditionWidths";
+    private ContentPolicyCache.PolicyData stylePolicyData;
+    private boolean stylePolicyDataResolved;
+    private AssetDeliveryHelper.DeliveryUrls assetDeliveryUrls;
+    private boolean assetDeliveryUrlsResolved;
 
     public ImageImpl() {
         selector = AdaptiveImageServlet.CORE_DEFAULT_SELECTOR;
@@ -245,7 +258,19 @@ public class ImageImpl implements Image {
         initResource();
         initWrappedResourceFields();
 
-        Asset asset = resolveAssetOrInlineBinary();
+        AssetSnapshots.Snapshot asset = resolveAssetOrInlineBinary();
+
+        String renderDataKey = getRenderDataKey(asset);
+        RenderData renderData = renderDataKey != null ? renderDataCache.get(renderDataKey, RenderData.class) : null;
+        if (renderData != null) {
+            renderData.applyTo(this);
+            // links depend on the request, they are never cached
+            if (!isDecorative) {
+                link = linkManager.get(resource).build();
+            }
+            buildAreas();
+            return;
+        }
 
         if (hasContent && !initRasterizedImageModel(asset)) {
             return;
@@ -253,7 +278,73 @@ public class ImageImpl implements Image {
 
         applyDamMetadataAndUriTemplate(asset);
 
-        this.lazyThreshold = currentStyle.get(PN_DESIGN_LAZY_THRESHOLD, 0);
+        if (hasContent && asset != null && renditionIndex != null && isLazyEnabled()) {
+            placeholder = renditionIndex.getPlaceholder(asset.getAsset(), properties);
+        }
+
+        this.lazyThreshold = getStyleProperties().get(PN_DESIGN_LAZY_THRESHOLD, 0);
+
+        // the placeholder rendition is generated asynchronously, so a missing one must be looked up again on the next request
+        boolean placeholderPending = placeholder == null && hasContent && asset != null && renditionIndex != null && isLazyEnabled();
+        if (renderDataKey != null && !placeholderPending) {
+            renderData = new RenderData(this);
+            renderDataCache.put(renderDataKey, renderData, renderData.estimateSize(), resource.getPath(),
+                request.getResource().getPath(), asset.getPath(), currentStyle.getPath());
+        }
+    }
+
+    /**
+     * Returns the key of the render data of the image in the {@link RenderDataCache}, built from all the inputs the render data is
+     * derived from: the properties of the image resource, the last modification of the asset, the content policy, the page and its
+     * template, the host the URLs are mapped for and the request parameters and WCM mode the URLs depend on. Only DAM images rendered
+     * by this class, whose style is backed by a content policy, are cached; subclasses may derive their data differently.
+     *
+     * @param asset the asset of the image
+     * @return the key or {@code null} if the render data of the image is not cached
+     */
+    @Nullable
+    private String getRenderDataKey(@Nullable AssetSnapshots.Snapshot asset) {
+        if (renderDataCache == null || !renderDataCache.isEnabled() || getClass() != ImageImpl.class || ngdmImage || !hasContent ||
+            asset == null || getStylePolicyData() == null) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder();
+        appendRenderDataKey(key, resource.getPath());
+        appendRenderDataKey(key, properties);
+        appendRenderDataKey(key, asset.getPath());
+        appendRenderDataKey(key, asset.getLastModified());
+        appendRenderDataKey(key, currentStyle.getPath());
+        appendRenderDataKey(key, getStyleProperties());
+        appendRenderDataKey(key, currentPage.getPath());
+        appendRenderDataKey(key, currentPage.getProperties().get(NameConstants.PN_TEMPLATE, String.class));
+        appendRenderDataKey(key, request.getScheme() + "://" + request.getServerName() + ":" + request.getServerPort() +
+            request.getContextPath());
+        appendRenderDataKey(key, com.day.cq.wcm.api.WCMMode.fromRequest(request));
+        appendRenderDataKey(key, request.getParameter(CONTENT_POLICY_DELEGATE_PATH));
+        appendRenderDataKey(key, imageModifiers);
+        appendRenderDataKey(key, imagePreset);
+        appendRenderDataKey(key, smartCropRendition);
+        appendRenderDataKey(key, assetDelivery != null);
+        appendRenderDataKey(key, renditionIndex != null);
+        return DigestUtils.sha256Hex(key.toString());
+    }
+
+    private static void appendRenderDataKey(@NotNull StringBuilder key, @Nullable Object value) {
+        if (value instanceof Map) {
+            key.append('{');
+            for (Map.Entry<?, ?> entry : new TreeMap<>((Map<?, ?>) value).entrySet()) {
+                key.append(entry.getKey()).append('=');
+                appendRenderDataKey(key, entry.getValue());
+            }
+            key.append('}');
+        } else if (value instanceof Calendar) {
+            key.append(((Calendar) value).getTimeInMillis());
+        } else if (value instanceof Object[]) {
+            key.append(Arrays.deepToString((Object[]) value));
+        } else {
+            key.append(value);
+        }
+        key.append('\n');
     }
 
     private void initWrappedResourceFields() {
@@ -270,28 +361,25 @@ public class ImageImpl implements Image {
         }
 
         mimeType = MIME_TYPE_IMAGE_JPEG;
-        displayPopupTitle = properties.get(PN_DISPLAY_POPUP_TITLE, currentStyle.get(PN_DISPLAY_POPUP_TITLE, false));
-        isDecorative = properties.get(PN_IS_DECORATIVE, currentStyle.get(PN_IS_DECORATIVE, false));
-        useAssetDelivery = currentStyle.get(PN_DESIGN_ASSET_DELIVERY_ENABLED, false) && assetDelivery != null;
+        displayPopupTitle = properties.get(PN_DISPLAY_POPUP_TITLE, getStyleProperties().get(PN_DISPLAY_POPUP_TITLE, false));
+        isDecorative = properties.get(PN_IS_DECORATIVE, getStyleProperties().get(PN_IS_DECORATIVE, false));
+        useAssetDelivery = getStyleProperties().get(PN_DESIGN_ASSET_DELIVERY_ENABLED, false) && assetDelivery != null;
     }
 
     @Nullable
-    private Asset resolveAssetOrInlineBinary() {
-        Asset asset = null;
+    private AssetSnapshots.Snapshot resolveAssetOrInlineBinary() {
+        AssetSnapshots.Snapshot asset = null;
 
         if (StringUtils.isNotEmpty(fileReference)) {
             // the image is coming from DAM
-            final Resource assetResource = request.getResourceResolver().getResource(fileReference);
-            if (assetResource != null) {
-                asset = assetResource.adaptTo(Asset.class);
-                if (asset != null) {
-                    mimeType = PropertiesUtil.toString(asset.getMimeType(), MIME_TYPE_IMAGE_JPEG);
-                    imageName = getImageNameFromAsset(asset);
-                    hasContent = true;
-                } else {
-                    useAssetDelivery = false;
-                    LOGGER.error("Unable to adapt resource '{}' used by image '{}' to an asset.", fileReference, resource.getPath());
-                }
+            asset = getAssetSnapshot(fileReference);
+            if (asset != null) {
+                mimeType = PropertiesUtil.toString(asset.getMimeType(), MIME_TYPE_IMAGE_JPEG);
+                imageName = getImageNameFromAsset(asset.getAsset());
+                hasContent = true;
+            } else if (request.getResourceResolver().getResource(fileReference) != null) {
+                useAssetDelivery = false;
+                LOGGER.error("Unable to adapt resource '{}' used by image '{}' to an asset.", fileReference, resource.getPath());
             } else {
                 useAssetDelivery = false;
                 // handle the case where the image is not coming from DAM but from a different source (e.g. NGDM)
@@ -322,7 +410,7 @@ public class ImageImpl implements Image {
     /**
      * @return {@code true} if initialization should continue; {@code false} if the model should return early
      */
-    private boolean initRasterizedImageModel(@Nullable Asset asset) {
+    private boolean initRasterizedImageModel(@Nullable AssetSnapshots.Snapshot asset) {
         if (hasContent) {
             // validate if correct mime type (i.e. rasterized image)
             if (!mimeType.startsWith(MIME_TYPE_IMAGE_PREFIX)) {
@@ -351,8 +439,8 @@ public class ImageImpl implements Image {
             if (extension == null || extension.equalsIgnoreCase("tif") || extension.equalsIgnoreCase("tiff")) {
                 extension = DEFAULT_EXTENSION;
             }
-            disableLazyLoading = currentStyle.get(PN_DESIGN_LAZY_LOADING_ENABLED, false);
-            jpegQuality = currentStyle.get(PN_DESIGN_JPEG_QUALITY, AdaptiveImageServlet.DEFAULT_JPEG_QUALITY);
+            disableLazyLoading = getStyleProperties().get(PN_DESIGN_LAZY_LOADING_ENABLED, false);
+            jpegQuality = getStyleProperties().get(PN_DESIGN_JPEG_QUALITY, AdaptiveImageServlet.DEFAULT_JPEG_QUALITY);
             int index = 0;
             Template template = currentPage.getTemplate();
             if (template != null && resource.getPath().startsWith(template.getPath())) {
@@ -374,7 +462,8 @@ public class ImageImpl implements Image {
                 for (Integer width : supportedRenditionWidths) {
                     String smartImage = "";
                     if (useAssetDelivery) {
-                        smartImage = AssetDeliveryHelper.getSrc(assetDelivery, resource, imageName, extension, width, jpegQuality);
+                        AssetDeliveryHelper.DeliveryUrls assetDeliveryUrls = getAssetDeliveryUrls();
+                        smartImage = assetDeliveryUrls != null ? assetDeliveryUrls.getSrc(width) : null;
                     }
                     if (StringUtils.isEmpty(smartImage)) {
                         smartImage = baseResourcePath + DOT +
@@ -393,9 +482,10 @@ public class ImageImpl implements Image {
             }
 
             if (useAssetDelivery) {
-                src = AssetDeliveryHelper.getSrc(assetDelivery, resource, imageName, extension,
-                    ArrayUtils.isNotEmpty(smartSizes) && smartSizes.length == 1 ? smartSizes[0] : null,
-                    jpegQuality);
+                AssetDeliveryHelper.DeliveryUrls assetDeliveryUrls = getAssetDeliveryUrls();
+                if (assetDeliveryUrls != null) {
+                    src = assetDeliveryUrls.getSrc(ArrayUtils.isNotEmpty(smartSizes) && smartSizes.length == 1 ? smartSizes[0] : null);
+                }
             }
 
             if (StringUtils.isEmpty(src)) {
@@ -422,90 +512,77 @@ public class ImageImpl implements Image {
         return true;
     }
 
-    private void applyDamMetadataAndUriTemplate(@Nullable Asset asset) {
-        boolean altValueFromDAM = properties.get(PN_ALT_VALUE_FROM_DAM, currentStyle.get(PN_ALT_VALUE_FROM_DAM, true));
-        boolean titleValueFromDAM = properties.get(PN_TITLE_VALUE_FROM_DAM, currentStyle.get(PN_TITLE_VALUE_FROM_DAM, true));
-        boolean isDmFeaturesEnabled = currentStyle.get(PN_DESIGN_DYNAMIC_MEDIA_ENABLED, false);
-        displayPopupTitle = properties.get(PN_DISPLAY_POPUP_TITLE, currentStyle.get(PN_DISPLAY_POPUP_TITLE, true));
-        boolean uuidDisabled = currentStyle.get(PN_UUID_DISABLED, false);
+    private void applyDamMetadataAndUriTemplate(@Nullable AssetSnapshots.Snapshot asset) {
+        boolean altValueFromDAM = properties.get(PN_ALT_VALUE_FROM_DAM, getStyleProperties().get(PN_ALT_VALUE_FROM_DAM, true));
+        boolean titleValueFromDAM = properties.get(PN_TITLE_VALUE_FROM_DAM, getStyleProperties().get(PN_TITLE_VALUE_FROM_DAM, true));
+        boolean isDmFeaturesEnabled = getStyleProperties().get(PN_DESIGN_DYNAMIC_MEDIA_ENABLED, false);
+        displayPopupTitle = properties.get(PN_DISPLAY_POPUP_TITLE, getStyleProperties().get(PN_DISPLAY_POPUP_TITLE, true));
+        boolean uuidDisabled = getStyleProperties().get(PN_UUID_DISABLED, false);
         // if content policy delegate path is provided pass it to the image Uri
         String policyDelegatePath = request.getParameter(CONTENT_POLICY_DELEGATE_PATH);
         String dmImageUrl = null;
-        if (StringUtils.isNotEmpty(fileReference)) {
-            // the image is coming from DAM
-            final Resource assetResource = request.getResourceResolver().getResource(fileReference);
-            if (assetResource != null) {
-                asset = assetResource.adaptTo(Asset.class);
-                if (asset != null) {
-                    if (!uuidDisabled) {
-                        uuid = asset.getID();
-                    } else {
-                        uuid = null;
-                    }
-                    if (!isDecorative && altValueFromDAM) {
-                        String damDescription = asset.getMetadataValue(DamConstants.DC_DESCRIPTION);
-                        if(StringUtils.isEmpty(damDescription)) {
-                            damDescription = asset.getMetadataValue(DamConstants.DC_TITLE);
-                        }
-                        if (StringUtils.isNotEmpty(damDescription)) {
-                            alt = damDescription;
-                        }
-                    }
-                    if (titleValueFromDAM) {
-                        title = StringUtils.trimToNull(asset.getMetadataValue(DamConstants.DC_TITLE));
-                    }
-
-                    //check "Enable DM features" checkbox
-                    //check DM asset - check for "dam:scene7File" metadata value
-                    String dmAssetName = asset.getMetadataValue(Scene7Constants.PN_S7_FILE);
-                    if(isDmFeaturesEnabled && (!StringUtils.isEmpty(dmAssetName))){
-                        dmAssetName = LinkUtil.escapeFragment(dmAssetName);
-                        //image is DM
-                        dmImage = true;
-                        useAssetDelivery = false;
-                        //check for publish side
-                        boolean isWCMDisabled =  (com.day.cq.wcm.api.WCMMode.fromRequest(request) == com.day.cq.wcm.api.WCMMode.DISABLED);
-                        //sets to '/is/image/ or '/is/content' based on dam:scene7Type property
-                        String dmServerPath;
-                        // '/is/image' DM url is for optimized image delivery supporting run time transformations.
-                        //  Use '/is/image' url if dam:scene7Type is explicitly set to 'Image' or DM processor does not set dam:scene7Type
-                        if (asset.getMetadataValue(Scene7Constants.PN_S7_TYPE).equals(Scene7AssetType.IMAGE.getValue())
-                            || asset.getMetadataValue(Scene7Constants.PN_S7_TYPE).equals(StringUtils.EMPTY)) {
-                            dmServerPath = DM_IMAGE_SERVER_PATH;
-                        } else {
-                        // All other file types should be loaded as content via '/is/content'
-                            dmServerPath = DM_CONTENT_SERVER_PATH;
-                        }
-                        String dmServerUrl;
-                        // for Author
-                        if (!isWCMDisabled) {
-                            dmServerUrl = dmServerPath;
-                        } else {
-                            // for Publish
-                            dmServerUrl = asset.getMetadataValue(Scene7Constants.PN_S7_DOMAIN) + dmServerPath.substring(1);
-                        }
-                        dmImageUrl = dmServerUrl + dmAssetName;
-                    }
-                    useAssetDelivery = useAssetDelivery && StringUtils.isEmpty(policyDelegatePath);
+        // the image is coming from DAM; the asset was resolved, and the failures logged, by resolveAssetOrInlineBinary
+        if (asset != null) {
+            if (!uuidDisabled) {
+                uuid = asset.getID();
+            } else {
+                uuid = null;
+            }
+            if (!isDecorative && altValueFromDAM) {
+                String damDescription = asset.getMetadataValue(DamConstants.DC_DESCRIPTION);
+                if(StringUtils.isEmpty(damDescription)) {
+                    damDescription = asset.getMetadataValue(DamConstants.DC_TITLE);
+                }
+                if (StringUtils.isNotEmpty(damDescription)) {
+                    alt = damDescription;
+                }
+            }
+            if (titleValueFromDAM) {
+                title = StringUtils.trimToNull(asset.getMetadataValue(DamConstants.DC_TITLE));
+            }
 
+            //check "Enable DM features" checkbox
+            //check DM asset - check for "dam:scene7File" metadata value
+            String dmAssetName = asset.getMetadataValue(Scene7Constants.PN_S7_FILE);
+            if(isDmFeaturesEnabled && (!StringUtils.isEmpty(dmAssetName))){
+                dmAssetName = LinkUtil.escapeFragment(dmAssetName);
+                //image is DM
+                dmImage = true;
+                useAssetDelivery = false;
+                //check for publish side
+                boolean isWCMDisabled =  (com.day.cq.wcm.api.WCMMode.fromRequest(request) == com.day.cq.wcm.api.WCMMode.DISABLED);
+                //sets to '/is/image/ or '/is/content' based on dam:scene7Type property
+                String dmServerPath;
+                // '/is/image' DM url is for optimized image delivery supporting run time transformations.
+                //  Use '/is/image' url if dam:scene7Type is explicitly set to 'Image' or DM processor does not set dam:scene7Type
+                if (asset.getMetadataValue(Scene7Constants.PN_S7_TYPE).equals(Scene7AssetType.IMAGE.getValue())
+                    || asset.getMetadataValue(Scene7Constants.PN_S7_TYPE).equals(StringUtils.EMPTY)) {
+                    dmServerPath = DM_IMAGE_SERVER_PATH;
                 } else {
-                    LOGGER.error("Unable to adapt resource '{}' used by image '{}' to an asset.", fileReference,
-                        request.getResource().getPath());
+                // All other file types should be loaded as content via '/is/content'
+                    dmServerPath = DM_CONTENT_SERVER_PATH;
                 }
-            } else {
-                // handle the case where the image is not coming from DAM but from a different source (e.g. NGDM)
-                if (!hasContent) {
-                    LOGGER.error("Unable to find resource '{}' used by image '{}'.", fileReference, request.getResource().getPath());
+                String dmServerUrl;
+                // for Author
+                if (!isWCMDisabled) {
+                    dmServerUrl = dmServerPath;
+                } else {
+                    // for Publish
+                    dmServerUrl = asset.getMetadataValue(Scene7Constants.PN_S7_DOMAIN) + dmServerPath.substring(1);
                 }
+                dmImageUrl = dmServerUrl + dmAssetName;
             }
+            useAssetDelivery = useAssetDelivery && StringUtils.isEmpty(policyDelegatePath);
         }
         if (hasContent) {
-            disableLazyLoading = currentStyle.get(PN_DESIGN_LAZY_LOADING_ENABLED, true);
+            disableLazyLoading = getStyleProperties().get(PN_DESIGN_LAZY_LOADING_ENABLED, true);
 
             if (dmImageUrl == null){
                 if (useAssetDelivery) {
-                    srcUriTemplate = AssetDeliveryHelper.getSrcUriTemplate(assetDelivery, resource, imageName, extension,
-                        jpegQuality, SRC_URI_TEMPLATE_WIDTH_VAR_ASSET_DELIVERY);
+                    AssetDeliveryHelper.DeliveryUrls assetDeliveryUrls = getAssetDeliveryUrls();
+                    if (assetDeliveryUrls != null) {
+                        srcUriTemplate = assetDeliveryUrls.getSrcUriTemplate(SRC_URI_TEMPLATE_WIDTH_VAR_ASSET_DELIVERY);
+                    }
                 }
 
                 if (StringUtils.isEmpty(srcUriTemplate)) {
@@ -586,10 +663,10 @@ public class ImageImpl implements Image {
             buildAreas();
             buildJson();
 
-            disableLazyLoading = currentStyle.get(PN_DESIGN_LAZY_LOADING_ENABLED, false);
+            disableLazyLoading = getStyleProperties().get(PN_DESIGN_LAZY_LOADING_ENABLED, false);
             imageLinkHidden = properties.get(PN_IMAGE_LINK_HIDDEN, imageLinkHidden);
-            sizes = String.join((", "), currentStyle.get(PN_DESIGN_SIZES, new String[0]));
-            disableLazyLoading = properties.get(PN_DESIGN_LAZY_LOADING_ENABLED, currentStyle.get(PN_DESIGN_LAZY_LOADING_ENABLED, false));
+            sizes = String.join((", "), getStyleProperties().get(PN_DESIGN_SIZES, new String[0]));
+            disableLazyLoading = properties.get(PN_DESIGN_LAZY_LOADING_ENABLED, getStyleProperties().get(PN_DESIGN_LAZY_LOADING_ENABLED, false));
         }
     }
 
@@ -683,8 +760,16 @@ public class ImageImpl implements Image {
     }
 
     private Set<Integer> getSupportedRenditionWidths() {
+        ContentPolicyCache.PolicyData policyData = getStylePolicyData();
+        if (policyData != null) {
+            return policyData.get(DERIVED_SUPPORTED_RENDITION_WIDTHS, ImageImpl::parseSupportedRenditionWidths);
+        }
+        return parseSupportedRenditionWidths(currentStyle);
+    }
+
+    private static Set<Integer> parseSupportedRenditionWidths(@NotNull ValueMap style) {
         Set<Integer> allowedRenditionWidths = new TreeSet<>();
-        String[] supportedWidthsConfig = currentStyle.get(PN_DESIGN_ALLOWED_RENDITION_WIDTHS, new String[0]);
+        String[] supportedWidthsConfig = style.get(PN_DESIGN_ALLOWED_RENDITION_WIDTHS, new String[0]);
         for (String width : supportedWidthsConfig) {
             try {
                 allowedRenditionWidths.add(Integer.parseInt(width));
@@ -692,7 +777,53 @@ public class ImageImpl implements Image {
                 LOGGER.error(String.format("Invalid width detected (%s) for content policy configuration.", width), e);
             }
         }
-        return allowedRenditionWidths;
+        return Collections.unmodifiableSet(allowedRenditionWidths);
+    }
+
+    /**
+     * Returns the properties of the current style, shared with other requests through the {@link ContentPolicyCache} when the style is
+     * backed by a content policy.
+     */
+    @NotNull
+    private ValueMap getStyleProperties() {
+        ContentPolicyCache.PolicyData policyData = getStylePolicyData();
+        return policyData != null ? policyData.getProperties() : currentStyle;
+    }
+
+    @Nullable
+    private ContentPolicyCache.PolicyData getStylePolicyData() {
+        if (!stylePolicyDataResolved) {
+            stylePolicyData = policyCache != null ? policyCache.get(currentStyle) : null;
+            stylePolicyDataResolved = true;
+        }
+        return stylePolicyData;
+    }
+
+    /**
+     * Returns the snapshot of the asset at the given path, shared with the other models of the request when the {@link AssetSnapshots}
+     * service is available.
+     */
+    @Nullable
+    private AssetSnapshots.Snapshot getAssetSnapshot(@NotNull String path) {
+        if (assetSnapshots != null) {
+            return assetSnapshots.get(request, request.getResourceResolver(), path);
+        }
+        Resource assetResource = request.getResourceResolver().getResource(path);
+        Asset asset = assetResource != null ? assetResource.adaptTo(Asset.class) : null;
+        return asset != null ? AssetSnapshots.of(asset) : null;
+    }
+
+    /**
+     * Returns the Asset Delivery URLs of the image, resolving the asset and the transformation parameters only once per model.
+     */
+    @Nullable
+    private AssetDeliveryHelper.DeliveryUrls getAssetDeliveryUrls() {
+        if (!assetDeliveryUrlsResolved) {
+            assetDeliveryUrls = AssetDeliveryHelper.resolve(assetDelivery, resource, imageName, extension, jpegQuality, renditionIndex,
+                    StringUtils.isNotEmpty(fileReference) ? getAssetSnapshot(fileReference) : null);
+            assetDeliveryUrlsResolved = true;
+        }
+        return assetDeliveryUrls;
     }
 
     private boolean smartSizesSupported() {
@@ -787,8 +918,8 @@ public class ImageImpl implements Image {
         }
 
         if (useAssetDelivery) {
-            srcSet = AssetDeliveryHelper.getSrcSet(assetDelivery, resource, imageName, extension, smartSizes,
-                jpegQuality);
+            AssetDeliveryHelper.DeliveryUrls assetDeliveryUrls = getAssetDeliveryUrls();
+            srcSet = assetDeliveryUrls != null && smartSizes.length > 0 ? assetDeliveryUrls.getSrcSet(smartSizes) : null;
             if (!StringUtils.isEmpty(srcSet)) {
                 return srcSet;
             }
@@ -798,7 +929,7 @@ public class ImageImpl implements Image {
         String srcUritemplate = getSrcUriTemplate();
 
         // handle srcset creation for auto smartcrop of remote assets
-        if (ngdmImage && StringUtils.equals(smartCropRendition, SMART_CROP_AUTO) && client != null
+        if (ngdmImage && StringUtils.equals(smartCropRendition, SMART_CROP_AUTO) && ngdmMetadataClient != null
             && srcUritemplate != null) {
             srcUritemplate = StringUtils.replace(srcUriTemplate, URI_WIDTH_PLACEHOLDER_ENCODED, URI_WIDTH_PLACEHOLDER);
             getRemoteAssetSrcset(srcUritemplate);
@@ -883,6 +1014,11 @@ public class ImageImpl implements Image {
         return !disableLazyLoading;
     }
 
+    @Override
+    public String getPlaceholder() {
+        return placeholder;
+    }
+
 
     private Dimension getOriginalDimension() {
         if (this.dimension == null) {
@@ -893,57 +1029,44 @@ public class ImageImpl implements Image {
 
     private void getRemoteAssetSrcset(String srcUritemplate) {
         String endPointUrl = "https://" + nextGenDynamicMediaConfig.getRepositoryId() + metadataDeliveryEndpoint;
-        HttpGet get = new HttpGet(endPointUrl);
-        get.setHeader("X-Adobe-Accept-Experimental", "1");
-        ResponseHandler<String> responseHandler = new NextGenDMSrcsetBuilderResponseHandler();
-        try {
-            String response = client.execute(get, responseHandler);
-            if (!StringUtils.isEmpty(response)) {
-                JsonReader jsonReader = Json.createReader(new StringReader(response));
-                JsonObject metadata = jsonReader.readObject();
-                jsonReader.close();
-                JsonObject repositoryMetadata = metadata.getJsonObject("repositoryMetadata");
-                JsonObject smartCrops = repositoryMetadata.getJsonObject("smartcrops");
-                String[] ngdmSrcsetArray = new String[smartCrops.size()];
-                int i = 0;
-                for (Map.Entry<String, JsonValue> entry : smartCrops.entrySet()) {
-                    String namedSmartCrop = entry.getKey();
-                    if (srcUritemplate.contains("=" + URI_WIDTH_PLACEHOLDER)) {
-                        JsonValue smartCropWidth = smartCrops.getJsonObject(namedSmartCrop).get("width");
-                        ngdmSrcsetArray[i] =
-                            srcUritemplate.replace("width={.width}", String.format("smartcrop=%s", namedSmartCrop)) + " " + smartCropWidth.toString().replaceAll("\"", "") + "w";
-                        i++;
-                    }
-                }
-                srcSet = StringUtils.join(ngdmSrcsetArray, ',');
-            }
-        } catch (IOException | JsonException e) {
-            LOGGER.warn("Couldn't generate srcset for remote asset");
+        Map<String, String> smartCrops = ngdmMetadataClient.getSmartCrops(request, endPointUrl);
+        if (smartCrops == null) {
+            // the metadata is not available in time, the srcset is generated client side from the URI template
+            LOGGER.debug("Couldn't generate srcset for remote asset {}", endPointUrl);
+            return;
+        }
+        if (!srcUritemplate.contains("=" + URI_WIDTH_PLACEHOLDER)) {
+            return;
+        }
+        List<String> ngdmSrcset = new ArrayList<>(smartCrops.size());
+        for (Map.Entry<String, String> smartCrop : smartCrops.entrySet()) {
+            ngdmSrcset.add(srcUritemplate.replace("width={.width}", String.format("smartcrop=%s", smartCrop.getKey())) + " " +
+                smartCrop.getValue() + "w");
         }
+        srcSet = StringUtils.join(ngdmSrcset, ',');
     }
 
     private Dimension getOriginalDimensionInternal() {
         ValueMap inheritedResourceProperties = resource.getValueMap();
         String inheritedFileReference = inheritedResourceProperties.get(DownloadResource.PN_REFERENCE, String.class);
-        Asset asset;
-        String resizeWidth = currentStyle.get(PN_DESIGN_RESIZE_WIDTH, String.class);
+        String resizeWidth = getStyleProperties().get(PN_DESIGN_RESIZE_WIDTH, String.class);
         if (StringUtils.isNotEmpty(inheritedFileReference)) {
-            final Resource assetResource = request.getResourceResolver().getResource(inheritedFileReference);
-            if (assetResource != null) {
-                asset = assetResource.adaptTo(Asset.class);
-                EnhancedRendition original = null;
-                if (asset != null) {
-                    original = new EnhancedRendition(asset.getOriginal());
+            AssetSnapshots.Snapshot snapshot = getAssetSnapshot(inheritedFileReference);
+            if (snapshot != null) {
+                Asset asset = snapshot.getAsset();
+                Dimension dimension = null;
+                AssetRenditionIndex.IndexedRendition indexedOriginal = renditionIndex != null ? renditionIndex.getOriginal(asset) : null;
+                if (indexedOriginal != null) {
+                    dimension = indexedOriginal.getDimension();
+                } else if (asset.getOriginal() != null) {
+                    dimension = new EnhancedRendition(asset.getOriginal()).getDimension();
                 }
-                if (original != null) {
-                    Dimension dimension = original.getDimension();
-                    if (dimension != null) {
-                        if (resizeWidth != null && Integer.parseInt(resizeWidth) > 0 && Integer.parseInt(resizeWidth) < dimension.getWidth()) {
-                            int calculatedHeight = (int) Math.round(Integer.parseInt(resizeWidth) * (dimension.getHeight() / (float) dimension.getWidth()));
-                            return new Dimension(Integer.parseInt(resizeWidth), calculatedHeight);
-                        }
-                        return dimension;
+                if (dimension != null) {
+                    if (resizeWidth != null && Integer.parseInt(resizeWidth) > 0 && Integer.parseInt(resizeWidth) < dimension.getWidth()) {
+                        int calculatedHeight = (int) Math.round(Integer.parseInt(resizeWidth) * (dimension.getHeight() / (float) dimension.getWidth()));
+                        return new Dimension(Integer.parseInt(resizeWidth), calculatedHeight);
                     }
+                    return dimension;
                 }
             }
         }
@@ -962,7 +1085,7 @@ public class ImageImpl implements Image {
         String smartCrop = properties.get("smartCropRendition", String.class);
         String modifiers = properties.get("imageModifiers", String.class);
         if (isNgdmImageReference(fileReference)) {
-            int width = currentStyle.get(PN_DESIGN_RESIZE_WIDTH, DEFAULT_NGDM_ASSET_WIDTH);
+            int width = getStyleProperties().get(PN_DESIGN_RESIZE_WIDTH, DEFAULT_NGDM_ASSET_WIDTH);
             NextGenDMImageURIBuilder builder = new NextGenDMImageURIBuilder(nextGenDynamicMediaConfig, fileReference)
                 .withPreferWebp(true)
                 .withWidth(width);
@@ -975,9 +1098,6 @@ public class ImageImpl implements Image {
             src = builder.build();
             ngdmImage = true;
             hasContent = true;
-            if (clientBuilderFactory != null) {
-                client = clientBuilderFactory.newBuilder().build();
-            }
             metadataDeliveryEndpoint = nextGenDynamicMediaConfig.getAssetMetadataPath();
             @SuppressWarnings("resource")
             Scanner scanner = new Scanner(fileReference);
@@ -999,4 +1119,114 @@ public class ImageImpl implements Image {
         return StringUtils.isNotBlank(fileReference) && fileReference.startsWith("/urn:");
     }
 
+    /**
+     * The immutable data computed by {@link #initModel()} to render a DAM image, shared across requests through the
+     * {@link RenderDataCache}.
+     */
+    private static final class RenderData {
+
+        private final String mimeType;
+        private final String extension;
+        private final String imageName;
+        private final long lastModifiedDate;
+        private final boolean inTemplate;
+        private final String baseResourcePath;
+        private final String templateRelativePath;
+        private final boolean disableLazyLoading;
+        private final int jpegQuality;
+        private final String[] smartImages;
+        private final int[] smartSizes;
+        private final String src;
+        private final String srcUriTemplate;
+        private final String srcSet;
+        private final String json;
+        private final String uuid;
+        private final String alt;
+        private final String title;
+        private final boolean displayPopupTitle;
+        private final boolean dmImage;
+        private final boolean useAssetDelivery;
+        private final boolean imageLinkHidden;
+        private final String sizes;
+        private final String placeholder;
+        private final int lazyThreshold;
+        private final Dimension dimension;
+
+        private RenderData(@NotNull ImageImpl image) {
+            mimeType = image.mimeType;
+            extension = image.extension;
+            imageName = image.imageName;
+            lastModifiedDate = image.lastModifiedDate;
+            inTemplate = image.inTemplate;
+            baseResourcePath = image.baseResourcePath;
+            templateRelativePath = image.templateRelativePath;
+            disableLazyLoading = image.disableLazyLoading;
+            jpegQuality = image.jpegQuality;
+            smartImages = image.smartImages.clone();
+            smartSizes = image.smartSizes.clone();
+            src = image.src;
+            srcUriTemplate = image.srcUriTemplate;
+            srcSet = image.getSrcset();
+            json = image.json;
+            uuid = image.uuid;
+            alt = image.alt;
+            title = image.title;
+            displayPopupTitle = image.displayPopupTitle;
+            dmImage = image.dmImage;
+            useAssetDelivery = image.useAssetDelivery;
+            imageLinkHidden = image.imageLinkHidden;
+            sizes = image.sizes;
+            placeholder = image.placeholder;
+            lazyThreshold = image.lazyThreshold;
+            dimension = new Dimension(image.getOriginalDimension());
+        }
+
+        private void applyTo(@NotNull ImageImpl image) {
+            image.mimeType = mimeType;
+            image.extension = extension;
+            image.imageName = imageName;
+            image.lastModifiedDate = lastModifiedDate;
+            image.inTemplate = inTemplate;
+            image.baseResourcePath = baseResourcePath;
+            image.templateRelativePath = templateRelativePath;
+            image.disableLazyLoading = disableLazyLoading;
+            image.jpegQuality = jpegQuality;
+            image.smartImages = smartImages.clone();
+            image.smartSizes = smartSizes.clone();
+            image.src = src;
+            image.srcUriTemplate = srcUriTemplate;
+            image.srcSet = srcSet != null ? srcSet : StringUtils.EMPTY;
+            image.json = json;
+            image.uuid = uuid;
+            image.alt = alt;
+            image.title = title;
+            image.displayPopupTitle = displayPopupTitle;
+            image.dmImage = dmImage;
+            image.useAssetDelivery = useAssetDelivery;
+            image.imageLinkHidden = imageLinkHidden;
+            image.sizes = sizes;
+            image.placeholder = placeholder;
+            image.lazyThreshold = lazyThreshold;
+            image.dimension = new Dimension(dimension);
+        }
+
+        /**
+         * @return the estimated heap size of the render data, in bytes
+         */
+        private long estimateSize() {
+            long size = 256 + 4L * smartSizes.length;
+            for (String value : smartImages) {
+                size += estimateSize(value);
+            }
+            for (String value : new String[]{mimeType, extension, imageName, baseResourcePath, templateRelativePath, src, srcUriTemplate,
+                srcSet, json, uuid, alt, title, sizes, placeholder}) {
+                size += estimateSize(value);
+            }
+            return size;
+        }
+
+        private static long estimateSize(@Nullable String value) {
+            return value != null ? 40 + 2L * value.length() : 0;
+        }
+    }
 }
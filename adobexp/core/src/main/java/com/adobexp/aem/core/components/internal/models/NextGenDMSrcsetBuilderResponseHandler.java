@@ -1,43 +0,0 @@
-/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
- ~ Copyright 2024 Adobe
- ~
- ~ Licensed under the Apache License, Version 2.0 (the "License");
- ~ you may not use this file except in compliance with the License.
- ~ You may obtain a copy of the License at
- ~
- ~     http://www.apache.org/licenses/LICENSE-2.0
- ~
- ~ Unless required by applicable law or agreed to in writing, software
- ~ distributed under the License is distributed on an "AS IS" BASIS,
- ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- ~ See the License for the specific language governing permissions and
- ~ limitations under the License.
- ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
-
-package com.adobexp.aem.core.components.internal.models;
-
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.HttpStatus;
-import org.apache.http.client.ResponseHandler;
-import org.apache.http.util.EntityUtils;
-import org.jetbrains.annotations.NotNull;
-
-import java.io.IOException;
-
-public class NextGenDMSrcsetBuilderResponseHandler implements ResponseHandler<String> {
-
-    @Override
-    public String handleResponse(final @NotNull HttpResponse response) throws IOException {
-        //Get the status of the response
-        String responseEntity = "";
-        int status = response.getStatusLine().getStatusCode();
-        if (status == HttpStatus.SC_OK) {
-            HttpEntity entity = response.getEntity();
-            if (entity != null) {
-                responseEntity = EntityUtils.toString(entity);
-            }
-        }
-        return responseEntity;
-    }
-}
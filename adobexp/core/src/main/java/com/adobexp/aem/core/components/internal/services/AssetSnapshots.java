@@ -0,0 +1,242 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.ServletRequest;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.commons.metrics.Counter;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import com.day.cq.dam.api.Asset;
+import com.day.cq.dam.api.Rendition;
+
+/**
+ * Request-scoped snapshots of the DAM assets referenced by the components rendered in a request. The first lookup of an asset resolves
+ * it and reads its identifier, mime type and last modification date; its metadata values and renditions are read the first time they are
+ * needed. All the models of the request (images, teasers, page thumbnails, ...) then share the same snapshot instead of resolving and
+ * reading the asset again. Snapshots are stored in a request attribute and are discarded with the request; they are only shared by the
+ * lookups made with the same resource resolver, since they hold what that resolver is allowed to read.
+ */
+@Component(service = AssetSnapshots.class)
+public class AssetSnapshots {
+
+    private static final String BASENAME = "com.adobexp.aem.core.components.internal.services.AssetSnapshots:";
+    static final String ATTR_SNAPSHOTS = AssetSnapshots.class.getName() + ".snapshots";
+
+    // marks the paths that do not resolve to an asset
+    private static final Snapshot MISSING = new Snapshot(null, null);
+
+    @Reference
+    private MetricsService metricsService;
+
+    // how many assets were resolved and loaded into a snapshot
+    private Counter loads;
+    // how often an asset resolution was saved by reusing the snapshot of the request
+    private Counter hits;
+    // how often a metadata or rendition read was saved by reusing the values of a snapshot
+    private Counter valueHits;
+
+    @Activate
+    protected void activate() {
+        loads = metricsService.counter(BASENAME + "loads");
+        hits = metricsService.counter(BASENAME + "hits");
+        valueHits = metricsService.counter(BASENAME + "value-hits");
+    }
+
+    /**
+     * Returns the snapshot of the asset at the given path.
+     *
+     * @param request  the request the snapshot is scoped to
+     * @param resolver the resource resolver used to resolve the asset
+     * @param path     the path of the asset
+     * @return the snapshot or {@code null} if the path does not resolve to an asset
+     */
+    @Nullable
+    public Snapshot get(@NotNull ServletRequest request, @NotNull ResourceResolver resolver, @Nullable String path) {
+        if (StringUtils.isEmpty(path)) {
+            return null;
+        }
+        Map<String, Snapshot> snapshots = getSnapshots(request, resolver);
+        Snapshot snapshot = snapshots.get(path);
+        if (snapshot == null) {
+            Resource assetResource = resolver.getResource(path);
+            snapshot = load(assetResource != null ? assetResource.adaptTo(Asset.class) : null);
+            snapshots.put(path, snapshot);
+        } else {
+            hits.increment();
+        }
+        return snapshot != MISSING ? snapshot : null;
+    }
+
+    /**
+     * Returns the snapshot of the asset backed by the given resource.
+     *
+     * @param request       the request the snapshot is scoped to
+     * @param assetResource the resource of the asset
+     * @return the snapshot or {@code null} if the resource cannot be adapted to an asset
+     */
+    @Nullable
+    public Snapshot get(@NotNull ServletRequest request, @NotNull Resource assetResource) {
+        Map<String, Snapshot> snapshots = getSnapshots(request, assetResource.getResourceResolver());
+        Snapshot snapshot = snapshots.get(assetResource.getPath());
+        if (snapshot == null) {
+            snapshot = load(assetResource.adaptTo(Asset.class));
+            snapshots.put(assetResource.getPath(), snapshot);
+        } else {
+            hits.increment();
+        }
+        return snapshot != MISSING ? snapshot : null;
+    }
+
+    /**
+     * Returns a snapshot of the given asset that is not shared with the other models of the request, for callers that cannot use the
+     * service.
+     *
+     * @param asset the asset
+     * @return the snapshot
+     */
+    @NotNull
+    public static Snapshot of(@NotNull Asset asset) {
+        return new Snapshot(asset, null);
+    }
+
+    @NotNull
+    private Snapshot load(@Nullable Asset asset) {
+        if (asset == null) {
+            return MISSING;
+        }
+        loads.increment();
+        return new Snapshot(asset, valueHits);
+    }
+
+    @NotNull
+    @SuppressWarnings("unchecked")
+    private static Map<String, Snapshot> getSnapshots(@NotNull ServletRequest request, @NotNull ResourceResolver resolver) {
+        Object snapshots = request.getAttribute(ATTR_SNAPSHOTS);
+        if (!(snapshots instanceof Map)) {
+            snapshots = new IdentityHashMap<ResourceResolver, Map<String, Snapshot>>();
+            request.setAttribute(ATTR_SNAPSHOTS, snapshots);
+        }
+        return ((Map<ResourceResolver, Map<String, Snapshot>>) snapshots).computeIfAbsent(resolver, key -> new HashMap<>());
+    }
+
+    /**
+     * A read-only view of an asset, loaded once per request.
+     */
+    public static final class Snapshot {
+
+        private final Asset asset;
+        private final Counter valueHits;
+        private final String id;
+        private final String mimeType;
+        private final long lastModified;
+        private final ConcurrentMap<String, String> metadataValues = new ConcurrentHashMap<>();
+        private volatile List<Rendition> renditions;
+
+        private Snapshot(@Nullable Asset asset, @Nullable Counter valueHits) {
+            this.asset = asset;
+            this.valueHits = valueHits;
+            this.id = asset != null ? asset.getID() : null;
+            this.mimeType = asset != null ? asset.getMimeType() : null;
+            this.lastModified = asset != null ? asset.getLastModified() : 0;
+        }
+
+        /**
+         * Returns the asset, for the APIs that need it; its values should be read through the snapshot.
+         *
+         * @return the asset
+         */
+        @NotNull
+        public Asset getAsset() {
+            return asset;
+        }
+
+        @NotNull
+        public String getPath() {
+            return asset.getPath();
+        }
+
+        @Nullable
+        public String getID() {
+            return id;
+        }
+
+        @Nullable
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Returns a metadata value of the asset, like {@link Asset#getMetadataValue(String)}.
+         *
+         * @param name the name of the metadata property
+         * @return the value, or an empty string if the asset does not have it
+         */
+        @NotNull
+        public String getMetadataValue(@NotNull String name) {
+            String value = metadataValues.get(name);
+            if (value != null) {
+                markValueHit();
+                return value;
+            }
+            return metadataValues.computeIfAbsent(name, key -> StringUtils.defaultString(asset.getMetadataValue(key)));
+        }
+
+        /**
+         * Returns the renditions of the asset.
+         *
+         * @return the renditions, as an unmodifiable list
+         */
+        @NotNull
+        public List<Rendition> getRenditions() {
+            List<Rendition> renditions = this.renditions;
+            if (renditions != null) {
+                markValueHit();
+                return renditions;
+            }
+            renditions = Collections.unmodifiableList(new ArrayList<>(asset.getRenditions()));
+            this.renditions = renditions;
+            return renditions;
+        }
+
+        private void markValueHit() {
+            if (valueHits != null) {
+                valueHits.increment();
+            }
+        }
+    }
+}
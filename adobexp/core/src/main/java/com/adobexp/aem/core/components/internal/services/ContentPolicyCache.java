@@ -0,0 +1,237 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.services;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+import com.day.cq.wcm.api.designer.Style;
+import com.day.cq.wcm.api.policies.ContentPolicy;
+
+/**
+ * Shared cache of the data read from content policies, keyed by policy path. Resolving which policy applies to a component still
+ * happens per request, since it depends on the page and its template, but the properties of the resolved policy and the values
+ * derived from them (parsed widths, allowed elements, ...) are only read once. Entries are removed when the policy, or anything
+ * below or above it, changes under {@code /conf} or {@code /apps}.
+ */
+@Designate(ocd = ContentPolicyCache.Config.class)
+@Component(
+        service = {ContentPolicyCache.class, ResourceChangeListener.class},
+        property = {
+                ResourceChangeListener.PATHS + "=/conf",
+                ResourceChangeListener.PATHS + "=/apps"
+        }
+)
+public class ContentPolicyCache implements ResourceChangeListener {
+
+    @ObjectClassDefinition(
+            name = "AEM Core WCM Components Content Policy Cache",
+            description = "Caches the properties of content policies, and the values derived from them, across requests."
+    )
+    @interface Config {
+
+        @AttributeDefinition(
+                name = "Enabled",
+                description = "Enable the content policy cache."
+        )
+        boolean enabled() default true;
+
+        @AttributeDefinition(
+                name = "Maximum entries",
+                description = "Maximum number of cached policies. The least recently used policies are removed when the limit is reached."
+        )
+        int maxEntries() default 1000;
+    }
+
+    private static final String POLICIES_PATH_SEGMENT = "/settings/wcm/policies/";
+
+    private final Object lock = new Object();
+    private final LinkedHashMap<String, PolicyData> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+    // incremented on every invalidation, so that data read before a change is not cached after it
+    private long generation;
+
+    private volatile boolean enabled;
+    private volatile int maxEntries;
+
+    @Activate
+    @Modified
+    protected void activate(Config config) {
+        clear();
+        enabled = config.enabled();
+        maxEntries = Math.max(0, config.maxEntries());
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        enabled = false;
+        clear();
+    }
+
+    /**
+     * Returns the data of the given content policy.
+     *
+     * @param policy the content policy
+     * @return the data of the policy or {@code null} if the policy is {@code null}
+     */
+    @Nullable
+    public PolicyData get(@Nullable ContentPolicy policy) {
+        if (policy == null) {
+            return null;
+        }
+        String path = policy.getPath();
+        if (!isCacheable(path)) {
+            return new PolicyData(policy.getProperties());
+        }
+        return getOrLoad(path, policy::getProperties);
+    }
+
+    /**
+     * Returns the data of the content policy backing the given style. Styles that are not backed by a content policy (e.g. the ones of
+     * static templates, which inherit their values from the design cells) are not cached.
+     *
+     * @param style the style
+     * @return the data of the policy or {@code null} if the style is not backed by a content policy
+     */
+    @Nullable
+    public PolicyData get(@NotNull Style style) {
+        String path = style.getPath();
+        if (!isCacheable(path) || !path.contains(POLICIES_PATH_SEGMENT)) {
+            return null;
+        }
+        return getOrLoad(path, () -> style);
+    }
+
+    /**
+     * Removes the data of the policies that are affected by a change of the given path: the policy at that path, the policy it belongs
+     * to and the policies below it.
+     *
+     * @param path the changed path
+     */
+    void invalidate(@NotNull String path) {
+        synchronized (lock) {
+            generation++;
+            entries.keySet().removeIf(policyPath -> policyPath.equals(path) || path.startsWith(policyPath + "/") ||
+                    policyPath.startsWith(path + "/"));
+        }
+    }
+
+    @Override
+    public void onChange(@NotNull List<ResourceChange> changes) {
+        if (!enabled) {
+            return;
+        }
+        for (ResourceChange change : changes) {
+            invalidate(change.getPath());
+        }
+    }
+
+    private boolean isCacheable(@Nullable String path) {
+        return enabled && maxEntries > 0 && path != null && (path.startsWith("/conf/") || path.startsWith("/apps/"));
+    }
+
+    @NotNull
+    private PolicyData getOrLoad(@NotNull String path, @NotNull Supplier<Map<String, Object>> properties) {
+        long expectedGeneration;
+        synchronized (lock) {
+            PolicyData data = entries.get(path);
+            if (data != null) {
+                return data;
+            }
+            expectedGeneration = generation;
+        }
+        PolicyData data = new PolicyData(properties.get());
+        synchronized (lock) {
+            if (generation == expectedGeneration) {
+                entries.put(path, data);
+                Iterator<String> iterator = entries.keySet().iterator();
+                while (entries.size() > maxEntries && iterator.hasNext()) {
+                    iterator.next();
+                    iterator.remove();
+                }
+            }
+        }
+        return data;
+    }
+
+    private void clear() {
+        synchronized (lock) {
+            generation++;
+            entries.clear();
+        }
+    }
+
+    /**
+     * An immutable snapshot of the properties of a content policy, along with the values derived from them.
+     */
+    public static final class PolicyData {
+
+        private final ValueMap properties;
+        private final ConcurrentMap<String, Object> derivedValues = new ConcurrentHashMap<>();
+
+        private PolicyData(@Nullable Map<String, Object> properties) {
+            this.properties = new ValueMapDecorator(properties == null ? Collections.emptyMap() :
+                    Collections.unmodifiableMap(new HashMap<>(properties)));
+        }
+
+        /**
+         * Returns the properties of the policy.
+         *
+         * @return the properties; the map cannot be modified
+         */
+        @NotNull
+        public ValueMap getProperties() {
+            return properties;
+        }
+
+        /**
+         * Returns a value derived from the properties of the policy, computing it on first access. The derived value is shared by all
+         * requests, so it must not be modified.
+         *
+         * @param key      the key of the derived value; callers use distinct keys for distinct derivations
+         * @param function the function deriving the value from the properties of the policy; it must not return {@code null}
+         * @param <T>      the type of the derived value
+         * @return the derived value
+         */
+        @NotNull
+        @SuppressWarnings("unchecked")
+        public <T> T get(@NotNull String key, @NotNull Function<ValueMap, T> function) {
+            return (T) derivedValues.computeIfAbsent(key, k -> function.apply(properties));
+        }
+    }
+}
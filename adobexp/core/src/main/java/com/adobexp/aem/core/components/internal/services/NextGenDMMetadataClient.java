@@ -0,0 +1,380 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.services;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.osgi.services.HttpClientBuilderFactory;
+import org.apache.http.util.EntityUtils;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared client of the Next-Gen Dynamic Media asset metadata endpoint, used to build the {@code srcset} of images with automatic smart
+ * crops. All the image models share one pooled HTTP client, and the smart crops of an asset are cached for a limited time, keyed by the
+ * metadata URL (which identifies the repository and the asset).
+ * <p>
+ * The time a request spends waiting for metadata is bounded by a deadline that starts with the first lookup of the request: once it
+ * has passed, lookups fail fast and the images are rendered with their URI template only. After repeated failures of the endpoint the
+ * client stops calling it for a while, letting a single request probe it before resuming. Calls that time out because the deadline of
+ * their request was about to pass are not counted as failures.
+ */
+@Designate(ocd = NextGenDMMetadataClient.Config.class)
+@Component(service = NextGenDMMetadataClient.class)
+public class NextGenDMMetadataClient {
+
+    @ObjectClassDefinition(
+            name = "AEM Core WCM Components Next-Gen Dynamic Media Metadata Client",
+            description = "Fetches and caches the smart crops of Next-Gen Dynamic Media assets."
+    )
+    @interface Config {
+
+        @AttributeDefinition(
+                name = "Maximum connections",
+                description = "Maximum number of pooled connections to the metadata endpoints."
+        )
+        int maxConnections() default 20;
+
+        @AttributeDefinition(
+                name = "Maximum connections per route",
+                description = "Maximum number of pooled connections to a single metadata endpoint."
+        )
+        int maxConnectionsPerRoute() default 10;
+
+        @AttributeDefinition(
+                name = "Render deadline",
+                description = "Maximum time, in milliseconds, a request may spend waiting for asset metadata. Images whose metadata is " +
+                        "not available in time are rendered without the smart crop srcset."
+        )
+        int renderDeadline() default 500;
+
+        @AttributeDefinition(
+                name = "Call timeout",
+                description = "Maximum time, in milliseconds, of a single call to a metadata endpoint. Calls that are cut short by the " +
+                        "render deadline of the request do not count as failures of the endpoint for the circuit breaker."
+        )
+        int callTimeout() default 300;
+
+        @AttributeDefinition(
+                name = "Cache time to live",
+                description = "Time, in seconds, the smart crops of an asset are cached. 0 disables the cache."
+        )
+        int cacheTtl() default 300;
+
+        @AttributeDefinition(
+                name = "Maximum cache entries",
+                description = "Maximum number of cached assets. The least recently used assets are removed when the limit is reached."
+        )
+        int maxEntries() default 1000;
+
+        @AttributeDefinition(
+                name = "Circuit breaker failure threshold",
+                description = "Number of consecutive failures after which the metadata endpoints are no longer called. 0 disables the " +
+                        "circuit breaker."
+        )
+        int circuitBreakerFailureThreshold() default 5;
+
+        @AttributeDefinition(
+                name = "Circuit breaker open time",
+                description = "Time, in milliseconds, the metadata endpoints are no longer called after the failure threshold is reached."
+        )
+        int circuitBreakerOpenTime() default 30000;
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(NextGenDMMetadataClient.class);
+
+    static final String ATTR_DEADLINE = NextGenDMMetadataClient.class.getName() + ".deadline";
+    private static final long CLOSED = Long.MIN_VALUE;
+
+    @Reference
+    private HttpClientBuilderFactory clientBuilderFactory;
+
+    private final Object lock = new Object();
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong openUntil = new AtomicLong(CLOSED);
+
+    private CloseableHttpClient client;
+    private ScheduledThreadPoolExecutor aborter;
+    private long renderDeadlineNanos;
+    private long callTimeoutNanos;
+    private long cacheTtlNanos;
+    private int maxEntries;
+    private int failureThreshold;
+    private long openTimeNanos;
+
+    @Activate
+    protected void activate(Config config) {
+        renderDeadlineNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, config.renderDeadline()));
+        callTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, config.callTimeout()));
+        cacheTtlNanos = TimeUnit.SECONDS.toNanos(Math.max(0, config.cacheTtl()));
+        maxEntries = Math.max(0, config.maxEntries());
+        failureThreshold = Math.max(0, config.circuitBreakerFailureThreshold());
+        openTimeNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, config.circuitBreakerOpenTime()));
+        client = clientBuilderFactory.newBuilder()
+                .setMaxConnTotal(Math.max(1, config.maxConnections()))
+                .setMaxConnPerRoute(Math.max(1, config.maxConnectionsPerRoute()))
+                .build();
+        aborter = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, NextGenDMMetadataClient.class.getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        aborter.setRemoveOnCancelPolicy(true);
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        if (aborter != null) {
+            aborter.shutdownNow();
+            aborter = null;
+        }
+        if (client != null) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                LOG.debug("Unable to close the metadata client.", e);
+            }
+            client = null;
+        }
+        synchronized (lock) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Returns the smart crops of an asset.
+     *
+     * @param request     the request the asset is rendered for; its deadline bounds the time spent waiting for the metadata
+     * @param metadataUrl the URL of the asset metadata
+     * @return the widths of the smart crops of the asset, keyed by smart crop name, or {@code null} if the metadata is not available in
+     * time
+     */
+    @Nullable
+    public Map<String, String> getSmartCrops(@NotNull SlingHttpServletRequest request, @NotNull String metadataUrl) {
+        CacheEntry entry = getCached(metadataUrl);
+        if (entry != null) {
+            return entry.smartCrops;
+        }
+        long remaining = getRemainingTime(request);
+        if (remaining <= 0) {
+            LOG.debug("The metadata deadline of the request has passed, skipping {}.", metadataUrl);
+            return null;
+        }
+        if (!allowRequest()) {
+            LOG.debug("The metadata endpoints are unavailable, skipping {}.", metadataUrl);
+            return null;
+        }
+        Map<String, String> smartCrops = fetch(metadataUrl, Math.min(remaining, callTimeoutNanos), remaining < callTimeoutNanos);
+        if (smartCrops != null) {
+            cache(metadataUrl, smartCrops);
+        }
+        return smartCrops;
+    }
+
+    /**
+     * Fetches the smart crops of an asset.
+     *
+     * @param metadataUrl  the URL of the asset metadata
+     * @param timeoutNanos the maximum duration of the call
+     * @param cutShort     {@code true} if the duration of the call is limited by the deadline of the request rather than by the call
+     *                     timeout; such calls that time out are not counted as failures of the endpoint
+     * @return the smart crops or {@code null} if they could not be fetched
+     */
+    @Nullable
+    private Map<String, String> fetch(@NotNull String metadataUrl, long timeoutNanos, boolean cutShort) {
+        int timeout = (int) Math.max(1, Math.min(Integer.MAX_VALUE, TimeUnit.NANOSECONDS.toMillis(timeoutNanos)));
+        HttpGet get = new HttpGet(metadataUrl);
+        get.setHeader("X-Adobe-Accept-Experimental", "1");
+        get.setConfig(RequestConfig.custom()
+                .setConnectionRequestTimeout(timeout)
+                .setConnectTimeout(timeout)
+                .setSocketTimeout(timeout)
+                .build());
+        // the timeouts above only bound each phase of the call, aborting it bounds the whole call
+        ScheduledFuture<?> abort = aborter.schedule(get::abort, timeout, TimeUnit.MILLISECONDS);
+        try (CloseableHttpResponse response = client.execute(get)) {
+            int status = response.getStatusLine().getStatusCode();
+            if (status == HttpStatus.SC_NOT_FOUND) {
+                onSuccess();
+                return Collections.emptyMap();
+            }
+            if (status != HttpStatus.SC_OK) {
+                onFailure();
+                LOG.warn("Unable to fetch the metadata from {}: status {}.", metadataUrl, status);
+                return null;
+            }
+            HttpEntity entity = response.getEntity();
+            String body = entity != null ? EntityUtils.toString(entity) : "";
+            onSuccess();
+            return parseSmartCrops(body);
+        } catch (InterruptedIOException e) {
+            // timeouts and aborts; when the request's deadline cut the call short, they say nothing about the endpoint
+            if (cutShort) {
+                LOG.debug("The metadata deadline of the request passed while fetching {}.", metadataUrl);
+            } else {
+                onFailure();
+                LOG.warn("Timed out fetching the metadata from {}: {}", metadataUrl, e.getMessage());
+            }
+            return null;
+        } catch (IOException e) {
+            onFailure();
+            LOG.warn("Unable to fetch the metadata from {}: {}", metadataUrl, e.getMessage());
+            return null;
+        } catch (JsonException | ClassCastException e) {
+            LOG.warn("Invalid metadata returned by {}.", metadataUrl, e);
+            return null;
+        } finally {
+            abort.cancel(false);
+        }
+    }
+
+    @NotNull
+    private static Map<String, String> parseSmartCrops(@NotNull String body) {
+        if (body.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        JsonObject metadata;
+        try (JsonReader jsonReader = Json.createReader(new StringReader(body))) {
+            metadata = jsonReader.readObject();
+        }
+        JsonObject repositoryMetadata = metadata.getJsonObject("repositoryMetadata");
+        JsonObject smartCrops = repositoryMetadata != null ? repositoryMetadata.getJsonObject("smartcrops") : null;
+        if (smartCrops == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> widths = new LinkedHashMap<>();
+        for (Map.Entry<String, JsonValue> smartCrop : smartCrops.entrySet()) {
+            JsonValue width = smartCrops.getJsonObject(smartCrop.getKey()).get("width");
+            if (width != null) {
+                widths.put(smartCrop.getKey(), width.toString().replaceAll("\"", ""));
+            }
+        }
+        return Collections.unmodifiableMap(widths);
+    }
+
+    /**
+     * Returns the time left before the deadline of the given request, starting the deadline on the first call.
+     */
+    private long getRemainingTime(@NotNull SlingHttpServletRequest request) {
+        long now = System.nanoTime();
+        Object deadline = request.getAttribute(ATTR_DEADLINE);
+        if (!(deadline instanceof Long)) {
+            deadline = now + renderDeadlineNanos;
+            request.setAttribute(ATTR_DEADLINE, deadline);
+        }
+        return (Long) deadline - now;
+    }
+
+    private boolean allowRequest() {
+        long until = openUntil.get();
+        if (until == CLOSED) {
+            return true;
+        }
+        long now = System.nanoTime();
+        if (now - until < 0) {
+            return false;
+        }
+        // half open: a single request probes the endpoints, the others keep failing fast until it completes
+        return openUntil.compareAndSet(until, now + openTimeNanos);
+    }
+
+    private void onSuccess() {
+        consecutiveFailures.set(0);
+        if (openUntil.getAndSet(CLOSED) != CLOSED) {
+            LOG.info("The metadata endpoints are available again.");
+        }
+    }
+
+    private void onFailure() {
+        if (failureThreshold > 0 && consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            if (openUntil.getAndSet(System.nanoTime() + openTimeNanos) == CLOSED) {
+                LOG.warn("The metadata endpoints failed {} times in a row, they are not called for the next {} ms.",
+                        failureThreshold, TimeUnit.NANOSECONDS.toMillis(openTimeNanos));
+            }
+        }
+    }
+
+    @Nullable
+    private CacheEntry getCached(@NotNull String metadataUrl) {
+        synchronized (lock) {
+            CacheEntry entry = entries.get(metadataUrl);
+            if (entry != null && System.nanoTime() - entry.expires >= 0) {
+                entries.remove(metadataUrl);
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    private void cache(@NotNull String metadataUrl, @NotNull Map<String, String> smartCrops) {
+        if (cacheTtlNanos == 0 || maxEntries == 0) {
+            return;
+        }
+        synchronized (lock) {
+            entries.put(metadataUrl, new CacheEntry(smartCrops, System.nanoTime() + cacheTtlNanos));
+            Iterator<String> iterator = entries.keySet().iterator();
+            while (entries.size() > maxEntries && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+    }
+
+    private static final class CacheEntry {
+
+        private final Map<String, String> smartCrops;
+        private final long expires;
+
+        private CacheEntry(@NotNull Map<String, String> smartCrops, long expires) {
+            this.smartCrops = smartCrops;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.services;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.apache.sling.commons.metrics.Counter;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+/**
+ * Cache of the immutable data that models compute to render a component, shared across requests. Callers build the key from all the
+ * inputs the data is derived from, so that a changed input never hits a stale entry; each entry also lists the paths it was read from,
+ * and is removed when one of them, or one of their ancestors, changes. The whole cache is cleared when the resource resolver mappings
+ * change.
+ */
+@Designate(ocd = RenderDataCache.Config.class)
+@Component(
+        service = {RenderDataCache.class, ResourceChangeListener.class},
+        property = {
+                ResourceChangeListener.PATHS + "=/content",
+                ResourceChangeListener.PATHS + "=/conf",
+                ResourceChangeListener.PATHS + "=/apps",
+                ResourceChangeListener.PATHS + "=/etc/map"
+        }
+)
+public class RenderDataCache implements ResourceChangeListener {
+
+    @ObjectClassDefinition(
+            name = "AEM Core WCM Components Render Data Cache",
+            description = "Caches the data computed by component models to render them, across requests."
+    )
+    @interface Config {
+
+        @AttributeDefinition(
+                name = "Enabled",
+                description = "Enable the render data cache."
+        )
+        boolean enabled() default true;
+
+        @AttributeDefinition(
+                name = "Maximum entries",
+                description = "Maximum number of cached entries. The least recently used entries are removed when the limit is reached."
+        )
+        int maxEntries() default 5000;
+
+        @AttributeDefinition(
+                name = "Maximum size (MB)",
+                description = "Maximum estimated heap size of the cached entries. The least recently used entries are removed when the " +
+                        "limit is reached."
+        )
+        int maxSize() default 32;
+    }
+
+    private static final String BASENAME = "com.adobexp.aem.core.components.internal.services.RenderDataCache:";
+    private static final String MAPPINGS_PATH = "/etc/map";
+    private static final long MB = 1024L * 1024L;
+
+    @Reference
+    private MetricsService metricsService;
+
+    // how often a model reused cached render data
+    private Counter hits;
+    // how often a model had to compute its render data
+    private Counter misses;
+    // the number of cached entries
+    private Counter entryCount;
+    // the estimated heap size of the cached entries, in bytes
+    private Counter memory;
+
+    private final Object lock = new Object();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final TreeMap<String, Set<String>> dependencies = new TreeMap<>();
+    private long size;
+
+    private volatile boolean enabled;
+    private volatile int maxEntries;
+    private volatile long maxSize;
+
+    @Activate
+    @Modified
+    protected void activate(Config config) {
+        if (hits == null) {
+            hits = metricsService.counter(BASENAME + "hits");
+            misses = metricsService.counter(BASENAME + "misses");
+            entryCount = metricsService.counter(BASENAME + "entries");
+            memory = metricsService.counter(BASENAME + "estimated-size");
+        }
+        clear();
+        enabled = config.enabled();
+        maxEntries = Math.max(0, config.maxEntries());
+        maxSize = Math.max(0, config.maxSize()) * MB;
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        enabled = false;
+        clear();
+    }
+
+    /**
+     * @return {@code true} if render data can be cached
+     */
+    public boolean isEnabled() {
+        return enabled && maxEntries > 0 && maxSize > 0;
+    }
+
+    /**
+     * Returns the cached render data with the given key.
+     *
+     * @param key  the key built from all the inputs of the render data
+     * @param type the type of the render data
+     * @param <T>  the type of the render data
+     * @return the render data or {@code null} if it is not cached
+     */
+    @Nullable
+    public <T> T get(@NotNull String key, @NotNull Class<T> type) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Entry entry;
+        synchronized (lock) {
+            entry = entries.get(key);
+        }
+        if (entry != null && type.isInstance(entry.value)) {
+            hits.increment();
+            return type.cast(entry.value);
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Caches render data.
+     *
+     * @param key           the key built from all the inputs of the render data
+     * @param value         the render data; it must be immutable
+     * @param estimatedSize the estimated heap size of the render data, in bytes
+     * @param paths         the paths the render data was read from
+     */
+    public void put(@NotNull String key, @NotNull Object value, long estimatedSize, @NotNull String... paths) {
+        if (!isEnabled() || estimatedSize > maxSize) {
+            return;
+        }
+        Set<String> entryDependencies = new HashSet<>();
+        for (String path : paths) {
+            if (StringUtils.isNotEmpty(path)) {
+                entryDependencies.add(path);
+            }
+        }
+        synchronized (lock) {
+            removeEntry(key);
+            entries.put(key, new Entry(value, estimatedSize, entryDependencies));
+            size += estimatedSize;
+            memory.increment(estimatedSize);
+            entryCount.increment();
+            for (String dependency : entryDependencies) {
+                dependencies.computeIfAbsent(dependency, path -> new HashSet<>()).add(key);
+            }
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while ((entries.size() > maxEntries || size > maxSize) && iterator.hasNext()) {
+                Map.Entry<String, Entry> eldest = iterator.next();
+                iterator.remove();
+                forget(eldest.getKey(), eldest.getValue());
+            }
+        }
+    }
+
+    /**
+     * Removes the render data read from the given path or from one of its descendants.
+     *
+     * @param path the changed path
+     */
+    void invalidate(@NotNull String path) {
+        synchronized (lock) {
+            Set<String> keys = new HashSet<>();
+            String current = path;
+            while (StringUtils.isNotEmpty(current)) {
+                Set<String> dependentKeys = dependencies.get(current);
+                if (dependentKeys != null) {
+                    keys.addAll(dependentKeys);
+                }
+                current = ResourceUtil.getParent(current);
+            }
+            for (Set<String> dependentKeys : dependencies.subMap(path + "/", path + "/\uffff").values()) {
+                keys.addAll(dependentKeys);
+            }
+            for (String key : keys) {
+                removeEntry(key);
+            }
+        }
+    }
+
+    @Override
+    public void onChange(@NotNull List<ResourceChange> changes) {
+        if (!enabled) {
+            return;
+        }
+        for (ResourceChange change : changes) {
+            String path = change.getPath();
+            if (path.equals(MAPPINGS_PATH) || path.startsWith(MAPPINGS_PATH + "/")) {
+                clear();
+                return;
+            }
+            invalidate(path);
+        }
+    }
+
+    /**
+     * Removes an entry along with its dependency bookkeeping. Must be called while holding the lock.
+     */
+    private void removeEntry(@NotNull String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            forget(key, entry);
+        }
+    }
+
+    /**
+     * Drops the size and dependency bookkeeping of a removed entry. Must be called while holding the lock.
+     */
+    private void forget(@NotNull String key, @NotNull Entry entry) {
+        size -= entry.estimatedSize;
+        memory.decrement(entry.estimatedSize);
+        entryCount.decrement();
+        for (String dependency : entry.dependencies) {
+            Set<String> dependentKeys = dependencies.get(dependency);
+            if (dependentKeys != null) {
+                dependentKeys.remove(key);
+                if (dependentKeys.isEmpty()) {
+                    dependencies.remove(dependency);
+                }
+            }
+        }
+    }
+
+    private void clear() {
+        synchronized (lock) {
+            if (memory != null) {
+                memory.decrement(size);
+                entryCount.decrement(entries.size());
+            }
+            entries.clear();
+            dependencies.clear();
+            size = 0;
+        }
+    }
+
+    private static final class Entry {
+
+        private final Object value;
+        private final long estimatedSize;
+        private final Set<String> dependencies;
+
+        private Entry(@NotNull Object value, long estimatedSize, @NotNull Set<String> dependencies) {
+            this.value = value;
+            this.estimatedSize = estimatedSize;
+            this.dependencies = dependencies;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.day.cq.wcm.api.WCMMode;
+
+/**
+ * The HTTP caching headers that an {@link AdaptiveImageServlet} mapping sends with its images. Images requested with the last modified
+ * timestamp in their suffix (fingerprinted URLs) never change and are marked as immutable; the other images get a short max-age and
+ * may be served stale while they are revalidated. Surrogate keys list the paths the image was rendered from, so that a CDN can purge
+ * all the renditions of an asset or of a component at once. The headers are only sent with successful responses, and only responses
+ * to anonymous requests with a disabled WCM mode are marked as public.
+ */
+final class AdaptiveImageCachePolicy {
+
+    static final String HEADER_CACHE_CONTROL = "Cache-Control";
+
+    private final String fingerprintedCacheControl;
+    private final String cacheControl;
+    private final String surrogateKeyHeader;
+
+    AdaptiveImageCachePolicy(int fingerprintedMaxAge, int maxAge, int staleWhileRevalidate, @Nullable String surrogateKeyHeader) {
+        this.fingerprintedCacheControl = fingerprintedMaxAge < 0 ? null : "max-age=" + fingerprintedMaxAge + ", immutable";
+        this.cacheControl = maxAge < 0 ? null :
+                "max-age=" + maxAge + (staleWhileRevalidate > 0 ? ", stale-while-revalidate=" + staleWhileRevalidate : "");
+        this.surrogateKeyHeader = StringUtils.trimToNull(surrogateKeyHeader);
+    }
+
+    /**
+     * Sets the {@code Cache-Control} header of a successful ({@code 200}, {@code 206} or {@code 304}) response. Responses to
+     * authenticated requests and to requests in an authoring mode are only cacheable by the browser.
+     *
+     * @param request       the request
+     * @param response      the response
+     * @param fingerprinted {@code true} if the request URL carries the last modified timestamp of the image
+     */
+    void applyCacheControl(@NotNull SlingHttpServletRequest request, @NotNull HttpServletResponse response, boolean fingerprinted) {
+        String value = fingerprinted ? fingerprintedCacheControl : cacheControl;
+        if (value != null) {
+            boolean shared = request.getAuthType() == null && WCMMode.fromRequest(request) == WCMMode.DISABLED;
+            response.setHeader(HEADER_CACHE_CONTROL, (shared ? "public, " : "private, ") + value);
+        }
+    }
+
+    /**
+     * Sets the surrogate key header, listing the given paths.
+     *
+     * @param response the response
+     * @param paths    the paths of the resources the image was rendered from
+     */
+    void applySurrogateKeys(@NotNull HttpServletResponse response, @NotNull String... paths) {
+        if (surrogateKeyHeader == null) {
+            return;
+        }
+        Set<String> keys = new LinkedHashSet<>();
+        for (String path : paths) {
+            if (StringUtils.isNotEmpty(path)) {
+                keys.add(StringUtils.replace(path, " ", "%20"));
+            }
+        }
+        if (!keys.isEmpty()) {
+            response.setHeader(surrogateKeyHeader, StringUtils.join(keys, ' '));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "{fingerprinted: " + fingerprintedCacheControl + ", default: " + cacheControl + ", surrogateKeyHeader: " +
+                surrogateKeyHeader + "}";
+    }
+}
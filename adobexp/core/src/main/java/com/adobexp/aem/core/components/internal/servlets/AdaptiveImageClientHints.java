@@ -0,0 +1,191 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.util.Collection;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Selects the width of the images requested without a width selector from the
+ * <a href="https://wicg.github.io/responsive-image-client-hints/">client hints</a> sent by the browser, when enabled for an
+ * {@link AdaptiveImageServlet} mapping. The hinted width is rounded up to the nearest allowed rendition width of the image component,
+ * so that the browser never has to upscale the image.
+ * <p>
+ * Browsers only send the hints to origins that asked for them; the pages that reference the images have to send the same
+ * {@code Accept-CH} header as the images.
+ * <p>
+ * The Dispatcher ignores the {@code Vary} header and would serve the first hinted width it cached to all the clients, so the responses
+ * whose width is selected from the hints are excluded from its cache.
+ */
+final class AdaptiveImageClientHints {
+
+    static final String HEADER_ACCEPT_CH = "Accept-CH";
+    static final String HEADER_VARY = "Vary";
+    static final String HEADER_DPR = "Sec-CH-DPR";
+    static final String HEADER_WIDTH = "Sec-CH-Width";
+    static final String HEADER_VIEWPORT_WIDTH = "Sec-CH-Viewport-Width";
+    static final String HEADER_DISPATCHER = "Dispatcher";
+
+    private static final String HINTS = HEADER_DPR + ", " + HEADER_WIDTH + ", " + HEADER_VIEWPORT_WIDTH;
+    private static final double MAX_DPR = 4;
+
+    private final boolean enabled;
+
+    AdaptiveImageClientHints(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Checks if the width of the requested image is selected from the client hints, i.e. if client hints are enabled and the request
+     * has no width selector.
+     *
+     * @param request the request
+     * @return {@code true} if the client hints apply to the request
+     */
+    boolean appliesTo(@NotNull SlingHttpServletRequest request) {
+        if (!enabled) {
+            return false;
+        }
+        int selectors = 0;
+        for (String selector : request.getRequestPathInfo().getSelectors()) {
+            if (StringUtils.isNotBlank(selector)) {
+                selectors++;
+            }
+        }
+        return selectors <= 1;
+    }
+
+    /**
+     * Returns the width, in physical pixels, at which the browser will render the image: the {@value #HEADER_WIDTH} hint or, if it's
+     * missing, the {@value #HEADER_VIEWPORT_WIDTH} hint multiplied by the {@value #HEADER_DPR} hint.
+     *
+     * @param request the request
+     * @return the width, or {@code -1} if the request has no usable hints
+     */
+    int getHintedWidth(@NotNull HttpServletRequest request) {
+        int width = parseInt(request.getHeader(HEADER_WIDTH));
+        if (width > 0) {
+            return width;
+        }
+        int viewportWidth = parseInt(request.getHeader(HEADER_VIEWPORT_WIDTH));
+        if (viewportWidth > 0) {
+            return (int) Math.ceil(viewportWidth * getDpr(request));
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the smallest allowed width that is at least the hinted width, or the largest allowed width if they are all smaller.
+     *
+     * @param hintedWidth   the hinted width
+     * @param allowedWidths the allowed widths
+     * @return the width, or {@code -1} if no width is allowed
+     */
+    static int selectWidth(int hintedWidth, @NotNull Collection<Integer> allowedWidths) {
+        int selected = -1;
+        int largest = -1;
+        for (Integer width : allowedWidths) {
+            if (width == null || width <= 0) {
+                continue;
+            }
+            largest = Math.max(largest, width);
+            if (width >= hintedWidth && (selected < 0 || width < selected)) {
+                selected = width;
+            }
+        }
+        return selected > 0 ? selected : largest;
+    }
+
+    /**
+     * Returns the key of the request in the {@link AdaptiveImageConditionalRequestIndex}: the request path, qualified with the width
+     * selected from the hints if the client hints apply to the request, as the same path then serves different images. Keying on the
+     * selected width instead of the hinted one keeps the number of keys per path bounded by the number of allowed widths.
+     *
+     * @param request       the request
+     * @param allowedWidths the allowed widths of the image component; {@code null} if they are not known
+     * @return the key, or {@code null} if the request has no path info or if the client hints apply to the request and the allowed
+     * widths are not known
+     */
+    @Nullable
+    String getIndexKey(@NotNull SlingHttpServletRequest request, @Nullable Collection<Integer> allowedWidths) {
+        String requestPath = request.getPathInfo();
+        if (requestPath == null || !appliesTo(request)) {
+            return requestPath;
+        }
+        if (allowedWidths == null) {
+            return null;
+        }
+        int hintedWidth = getHintedWidth(request);
+        int selectedWidth = hintedWidth > 0 ? selectWidth(hintedWidth, allowedWidths) : -1;
+        return requestPath + "#width=" + Math.max(0, selectedWidth);
+    }
+
+    /**
+     * Asks the browser for the client hints and, if the client hints apply to the request, declares that the response varies by them
+     * and keeps the Dispatcher from caching it.
+     *
+     * @param request  the request
+     * @param response the response
+     */
+    void applyHeaders(@NotNull SlingHttpServletRequest request, @NotNull HttpServletResponse response) {
+        if (!enabled) {
+            return;
+        }
+        response.setHeader(HEADER_ACCEPT_CH, HINTS);
+        if (appliesTo(request)) {
+            response.addHeader(HEADER_VARY, HINTS);
+            response.setHeader(HEADER_DISPATCHER, "no-cache");
+        }
+    }
+
+    private static double getDpr(@NotNull HttpServletRequest request) {
+        String dpr = request.getHeader(HEADER_DPR);
+        if (StringUtils.isNotBlank(dpr)) {
+            try {
+                double value = Double.parseDouble(dpr.trim());
+                if (value > 0 && !Double.isInfinite(value)) {
+                    return Math.min(value, MAX_DPR);
+                }
+            } catch (NumberFormatException e) {
+                // ignore the invalid hint
+            }
+        }
+        return 1;
+    }
+
+    private static int parseInt(@Nullable String value) {
+        if (StringUtils.isBlank(value)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "{enabled: " + enabled + "}";
+    }
+}
@@ -0,0 +1,295 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+/**
+ * In-memory index of the validators (last modified date and entity tag) of the images served by the {@link AdaptiveImageServlet},
+ * keyed by request path. It allows answering conditional requests without resolving the image component. Entries are removed when
+ * any of the resources they were computed from changes.
+ */
+@Designate(ocd = AdaptiveImageConditionalRequestIndex.Config.class)
+@Component(
+        service = {AdaptiveImageConditionalRequestIndex.class, ResourceChangeListener.class},
+        property = {
+                ResourceChangeListener.PATHS + "=/content",
+                ResourceChangeListener.PATHS + "=/conf"
+        }
+)
+public class AdaptiveImageConditionalRequestIndex implements ResourceChangeListener {
+
+    @ObjectClassDefinition(
+            name = "AEM Core WCM Components Adaptive Image Conditional Request Index",
+            description = "Answers conditional requests for adaptive images without resolving the image component."
+    )
+    @interface Config {
+
+        @AttributeDefinition(
+                name = "Enabled",
+                description = "Enable the conditional request index."
+        )
+        boolean enabled() default true;
+
+        @AttributeDefinition(
+                name = "Maximum entries",
+                description = "Maximum number of indexed request paths. The least recently used entries are removed when the limit is " +
+                        "reached."
+        )
+        int maxEntries() default 10000;
+    }
+
+    private static final String ALLOWED_WIDTHS_SUFFIX = "#widths";
+
+    private final Object lock = new Object();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final ConcurrentSkipListMap<String, Set<String>> dependencies = new ConcurrentSkipListMap<>();
+
+    // incremented on every invalidation, so that validators computed before a change are not indexed after it
+    private long generation;
+
+    private volatile boolean enabled;
+    private volatile int maxEntries;
+
+    @Activate
+    @Modified
+    protected void activate(Config config) {
+        clear();
+        enabled = config.enabled();
+        maxEntries = Math.max(0, config.maxEntries());
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        enabled = false;
+        clear();
+    }
+
+    /**
+     * Returns the indexed validators of the given request path.
+     *
+     * @param requestPath the request path
+     * @return the entry or {@code null} if the request path is not indexed
+     */
+    @Nullable
+    Entry get(@NotNull String requestPath) {
+        if (!enabled) {
+            return null;
+        }
+        synchronized (lock) {
+            return entries.get(requestPath);
+        }
+    }
+
+    /**
+     * Returns the current generation of the index, which has to be read before computing the validators passed to
+     * {@link #put(String, long, long, String, String...)} or {@link #putAllowedWidths(String, long, List, String...)}.
+     *
+     * @return the generation
+     */
+    long getGeneration() {
+        synchronized (lock) {
+            return generation;
+        }
+    }
+
+    /**
+     * Returns the indexed allowed widths of the image component served at the given path, for selecting the width of requests with
+     * client hints.
+     *
+     * @param requestPath the request path, without the hinted width
+     * @return the allowed widths or {@code null} if they are not indexed
+     */
+    @Nullable
+    List<Integer> getAllowedWidths(@NotNull String requestPath) {
+        Entry entry = get(requestPath + ALLOWED_WIDTHS_SUFFIX);
+        return entry != null ? entry.allowedWidths : null;
+    }
+
+    /**
+     * Indexes the validators of the given request path.
+     *
+     * @param requestPath  the request path
+     * @param generation   the {@linkplain #getGeneration() generation} read before computing the validators; the validators are not
+     *                     indexed if a resource changed since
+     * @param lastModified the last modified date of the image
+     * @param etag         the entity tag of the image
+     * @param dependencies the paths of the resources the validators were computed from
+     */
+    void put(@NotNull String requestPath, long generation, long lastModified, @NotNull String etag, @NotNull String... dependencies) {
+        index(requestPath, generation, new Entry(lastModified, etag, null, dependencies));
+    }
+
+    /**
+     * Indexes the allowed widths of the image component served at the given path.
+     *
+     * @param requestPath   the request path, without the hinted width
+     * @param generation    the {@linkplain #getGeneration() generation} read before computing the allowed widths
+     * @param allowedWidths the allowed widths
+     * @param dependencies  the paths of the resources the allowed widths were computed from
+     */
+    void putAllowedWidths(@NotNull String requestPath, long generation, @NotNull List<Integer> allowedWidths,
+                          @NotNull String... dependencies) {
+        index(requestPath + ALLOWED_WIDTHS_SUFFIX, generation,
+                new Entry(0, "", Collections.unmodifiableList(new ArrayList<>(allowedWidths)), dependencies));
+    }
+
+    private void index(@NotNull String requestPath, long expectedGeneration, @NotNull Entry entry) {
+        if (!enabled || maxEntries == 0) {
+            return;
+        }
+        synchronized (lock) {
+            if (generation != expectedGeneration) {
+                return;
+            }
+            for (String dependency : entry.dependencies) {
+                dependencies.computeIfAbsent(dependency, path -> ConcurrentHashMap.newKeySet()).add(requestPath);
+            }
+            entries.put(requestPath, entry);
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while (entries.size() > maxEntries && iterator.hasNext()) {
+                Map.Entry<String, Entry> eldest = iterator.next();
+                iterator.remove();
+                forget(eldest.getKey(), eldest.getValue().dependencies);
+            }
+        }
+    }
+
+    /**
+     * Removes all entries that depend on the given path.
+     *
+     * @param path        the changed path
+     * @param descendants {@code true} to also remove entries that depend on descendants of the path
+     */
+    void invalidate(@NotNull String path, boolean descendants) {
+        synchronized (lock) {
+            generation++;
+        }
+        Set<String> requestPaths = new HashSet<>();
+        String current = path;
+        while (StringUtils.isNotEmpty(current)) {
+            Set<String> dependentRequestPaths = dependencies.remove(current);
+            if (dependentRequestPaths != null) {
+                requestPaths.addAll(dependentRequestPaths);
+            }
+            current = ResourceUtil.getParent(current);
+        }
+        if (descendants) {
+            Iterator<Map.Entry<String, Set<String>>> iterator =
+                    dependencies.subMap(path + "/", path + "/\uffff").entrySet().iterator();
+            while (iterator.hasNext()) {
+                requestPaths.addAll(iterator.next().getValue());
+                iterator.remove();
+            }
+        }
+        if (!requestPaths.isEmpty()) {
+            synchronized (lock) {
+                for (String requestPath : requestPaths) {
+                    Entry entry = entries.remove(requestPath);
+                    if (entry != null) {
+                        forget(requestPath, entry.dependencies);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onChange(@NotNull List<ResourceChange> changes) {
+        if (!enabled) {
+            return;
+        }
+        for (ResourceChange change : changes) {
+            invalidate(change.getPath(), change.getType() == ResourceChange.ChangeType.REMOVED);
+        }
+    }
+
+    /**
+     * Drops the dependency bookkeeping of a removed entry. Must be called while holding the lock.
+     */
+    private void forget(@NotNull String requestPath, @NotNull String[] entryDependencies) {
+        if (entries.containsKey(requestPath)) {
+            return;
+        }
+        for (String dependency : entryDependencies) {
+            dependencies.computeIfPresent(dependency, (path, dependentRequestPaths) -> {
+                dependentRequestPaths.remove(requestPath);
+                return dependentRequestPaths.isEmpty() ? null : dependentRequestPaths;
+            });
+        }
+    }
+
+    /**
+     * Removes all entries, e.g. because the configuration the entity tags were computed with changed.
+     */
+    void clear() {
+        synchronized (lock) {
+            generation++;
+            entries.clear();
+            dependencies.clear();
+        }
+    }
+
+    /**
+     * The validators of an image.
+     */
+    static final class Entry {
+
+        private final long lastModified;
+        private final String etag;
+        private final List<Integer> allowedWidths;
+        private final String[] dependencies;
+
+        private Entry(long lastModified, @NotNull String etag, @Nullable List<Integer> allowedWidths, @NotNull String[] dependencies) {
+            this.lastModified = lastModified;
+            this.etag = etag;
+            this.allowedWidths = allowedWidths;
+            this.dependencies = dependencies;
+        }
+
+        long getLastModified() {
+            return lastModified;
+        }
+
+        @NotNull
+        String getETag() {
+            return etag;
+        }
+    }
+}
@@ -0,0 +1,400 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.Transparency;
+import java.awt.color.ICC_Profile;
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Locale;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import com.day.image.Layer;
+
+/**
+ * Encodes the images rendered by an {@link AdaptiveImageServlet} mapping. By default, images are encoded with {@link Layer#write}; the
+ * JPEG encoder can instead be switched to {@link ImageIO}, which allows progressive encoding, optimized Huffman tables and a choice of
+ * chroma subsampling, and PNG images can be reduced to a palette by an {@link AdaptiveImagePaletteQuantizer}.
+ * <p>
+ * Independently of the encoder, JPEG renditions that are sent without being re-encoded can have their EXIF, XMP, IPTC and comment
+ * segments stripped.
+ */
+final class AdaptiveImageEncoder {
+
+    static final String ENCODER_LAYER = "layer";
+    static final String ENCODER_IMAGEIO = "imageio";
+    static final String CHROMA_SUBSAMPLING_420 = "4:2:0";
+    static final String CHROMA_SUBSAMPLING_422 = "4:2:2";
+    static final String CHROMA_SUBSAMPLING_444 = "4:4:4";
+
+    private static final String JPEG_MIME_TYPE = "image/jpeg";
+    private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_TEM = 0x01;
+    private static final int MARKER_RST0 = 0xD0;
+    private static final int MARKER_RST7 = 0xD7;
+    private static final int MARKER_APP1 = 0xE1;
+    private static final int MARKER_APP2 = 0xE2;
+    private static final int MARKER_APP13 = 0xED;
+    private static final int MARKER_COM = 0xFE;
+    private static final byte[] EXIF_IDENTIFIER = "Exif\0\0".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ICC_IDENTIFIER = "ICC_PROFILE\0".getBytes(StandardCharsets.US_ASCII);
+    private static final int EXIF_TAG_ORIENTATION = 0x0112;
+
+    private final boolean imageIO;
+    private final boolean progressive;
+    private final boolean optimizeHuffmanTables;
+    private final int lumaHorizontalSampling;
+    private final int lumaVerticalSampling;
+    private final boolean stripMetadata;
+    private final AdaptiveImagePaletteQuantizer quantizer;
+    private final String id;
+
+    /**
+     * @param encoder               the JPEG encoder, {@value #ENCODER_LAYER} or {@value #ENCODER_IMAGEIO}
+     * @param progressive           {@code true} to write progressive JPEGs; only used by the {@value #ENCODER_IMAGEIO} encoder
+     * @param optimizeHuffmanTables {@code true} to compute optimal Huffman tables for each JPEG; only used by the
+     *                              {@value #ENCODER_IMAGEIO} encoder
+     * @param chromaSubsampling     the chroma subsampling of the JPEGs, {@value #CHROMA_SUBSAMPLING_420},
+     *                              {@value #CHROMA_SUBSAMPLING_422} or {@value #CHROMA_SUBSAMPLING_444}; only used by the
+     *                              {@value #ENCODER_IMAGEIO} encoder
+     * @param stripMetadata         {@code true} to strip the metadata of JPEG renditions that are sent as they are
+     * @param quantizer             the quantizer of PNG images; {@code null} to encode them with {@link Layer#write}
+     */
+    AdaptiveImageEncoder(@Nullable String encoder, boolean progressive, boolean optimizeHuffmanTables, @Nullable String chromaSubsampling,
+                         boolean stripMetadata, @Nullable AdaptiveImagePaletteQuantizer quantizer) {
+        this.imageIO = ENCODER_IMAGEIO.equalsIgnoreCase(StringUtils.trim(encoder));
+        this.progressive = imageIO && progressive;
+        this.optimizeHuffmanTables = imageIO && optimizeHuffmanTables;
+        String subsampling = imageIO ? StringUtils.defaultIfBlank(StringUtils.trim(chromaSubsampling), CHROMA_SUBSAMPLING_420) :
+                CHROMA_SUBSAMPLING_420;
+        if (CHROMA_SUBSAMPLING_444.equals(subsampling)) {
+            lumaHorizontalSampling = 1;
+            lumaVerticalSampling = 1;
+        } else if (CHROMA_SUBSAMPLING_422.equals(subsampling)) {
+            lumaHorizontalSampling = 2;
+            lumaVerticalSampling = 1;
+        } else {
+            subsampling = CHROMA_SUBSAMPLING_420;
+            lumaHorizontalSampling = 2;
+            lumaVerticalSampling = 2;
+        }
+        this.stripMetadata = stripMetadata;
+        this.quantizer = quantizer;
+        this.id = (imageIO ? ENCODER_IMAGEIO + (this.progressive ? ",progressive" : "") + (this.optimizeHuffmanTables ? ",huffman" : "") +
+                "," + subsampling : ENCODER_LAYER) + (stripMetadata ? ",strip" : "") + (quantizer != null ? quantizer.getId() : "");
+    }
+
+    /**
+     * Returns a string that identifies the encoder settings, for telling apart the images rendered with different settings.
+     *
+     * @return the encoder identifier
+     */
+    @NotNull
+    String getId() {
+        return id;
+    }
+
+    /**
+     * Encodes the layer.
+     *
+     * @param layer     the layer
+     * @param imageType the mime type of the encoded image
+     * @param quality   the quality, between 0 and 1
+     * @param out       the stream the image is written to; the stream is not closed
+     * @throws IOException if the layer cannot be encoded
+     */
+    void encode(@NotNull Layer layer, @NotNull String imageType, double quality, @NotNull OutputStream out) throws IOException {
+        if (quantizer != null && quantizer.isEligible(imageType)) {
+            quantizer.encode(layer, imageType, quality, out);
+            return;
+        }
+        if (!imageIO || !JPEG_MIME_TYPE.equals(imageType) || !writeJpeg(layer, quality, out)) {
+            layer.write(imageType, quality, out);
+        }
+    }
+
+    /**
+     * Checks if the renditions of the given type that are sent without being re-encoded need to go through
+     * {@link #stripMetadata(InputStream, OutputStream)}.
+     *
+     * @param mimeType the mime type of the rendition
+     * @return {@code true} if the metadata of the rendition has to be stripped
+     */
+    boolean isStrippingMetadata(@NotNull String mimeType) {
+        return stripMetadata && JPEG_MIME_TYPE.equals(mimeType);
+    }
+
+    /**
+     * Copies a JPEG image without its EXIF, XMP, IPTC and comment segments. EXIF segments that orient the image are kept, as browsers
+     * apply the orientation, and so are ICC profiles, unless they describe sRGB, which browsers assume for untagged images. Data that
+     * doesn't start like a JPEG image is copied as it is.
+     *
+     * @param inputStream  the JPEG image; the stream is not closed
+     * @param outputStream the stream the stripped image is written to; the stream is not closed
+     * @return the number of bytes that were stripped
+     * @throws IOException if the image cannot be copied
+     */
+    static long stripMetadata(@NotNull InputStream inputStream, @NotNull OutputStream outputStream) throws IOException {
+        DataInputStream in = new DataInputStream(inputStream);
+        int first = in.read();
+        int second = in.read();
+        if (first >= 0) {
+            outputStream.write(first);
+        }
+        if (second >= 0) {
+            outputStream.write(second);
+        }
+        if (first != 0xFF || second != MARKER_SOI) {
+            IOUtils.copy(in, outputStream);
+            return 0;
+        }
+        long stripped = 0;
+        try {
+            while (true) {
+                int marker = in.readUnsignedByte();
+                if (marker != 0xFF) {
+                    // not a marker, the segment structure is unknown
+                    outputStream.write(marker);
+                    break;
+                }
+                while (marker == 0xFF) {
+                    marker = in.readUnsignedByte();
+                }
+                if (marker == MARKER_TEM || marker == MARKER_EOI || (marker >= MARKER_RST0 && marker <= MARKER_RST7)) {
+                    outputStream.write(0xFF);
+                    outputStream.write(marker);
+                    if (marker == MARKER_EOI) {
+                        break;
+                    }
+                    continue;
+                }
+                int length = in.readUnsignedShort();
+                if (length < 2) {
+                    outputStream.write(0xFF);
+                    outputStream.write(marker);
+                    outputStream.write(length >> 8);
+                    outputStream.write(length & 0xFF);
+                    break;
+                }
+                byte[] segment = new byte[length - 2];
+                in.readFully(segment);
+                if (isStrippable(marker, segment)) {
+                    stripped += length + 2;
+                } else {
+                    outputStream.write(0xFF);
+                    outputStream.write(marker);
+                    outputStream.write(length >> 8);
+                    outputStream.write(length & 0xFF);
+                    outputStream.write(segment);
+                }
+                if (marker == MARKER_SOS) {
+                    // the entropy coded data follows, up to the end of the image
+                    break;
+                }
+            }
+        } catch (EOFException e) {
+            // truncated image; what was read has been copied
+            return stripped;
+        }
+        IOUtils.copy(in, outputStream);
+        return stripped;
+    }
+
+    private boolean writeJpeg(@NotNull Layer layer, double quality, @NotNull OutputStream out) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByMIMEType(JPEG_MIME_TYPE);
+        if (!writers.hasNext()) {
+            return false;
+        }
+        ImageWriter writer = writers.next();
+        try {
+            BufferedImage image = toRgb(layer.getImage(), layer.getBackground());
+            JPEGImageWriteParam param = new JPEGImageWriteParam(Locale.ROOT);
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality((float) Math.max(0, Math.min(1, quality)));
+            if (progressive) {
+                param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            }
+            param.setOptimizeHuffmanTables(optimizeHuffmanTables);
+            IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), param);
+            setChromaSubsampling(metadata);
+            try (ImageOutputStream ios = new MemoryCacheImageOutputStream(out)) {
+                writer.setOutput(ios);
+                writer.write(null, new IIOImage(image, null, metadata), param);
+            }
+            return true;
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Sets the sampling factors of the luma component in the start of frame segment of the metadata; the chroma components always
+     * have sampling factors of 1.
+     */
+    private void setChromaSubsampling(@Nullable IIOMetadata metadata) throws IOException {
+        if (metadata == null || !JPEG_METADATA_FORMAT.equals(metadata.getNativeMetadataFormatName())) {
+            return;
+        }
+        Node tree = metadata.getAsTree(JPEG_METADATA_FORMAT);
+        NodeList components = ((Element) tree).getElementsByTagName("componentSpec");
+        for (int i = 0; i < components.getLength(); i++) {
+            Element component = (Element) components.item(i);
+            boolean luma = i == 0;
+            component.setAttribute("HsamplingFactor", String.valueOf(luma ? lumaHorizontalSampling : 1));
+            component.setAttribute("VsamplingFactor", String.valueOf(luma ? lumaVerticalSampling : 1));
+        }
+        metadata.setFromTree(JPEG_METADATA_FORMAT, tree);
+    }
+
+    /**
+     * Returns an opaque RGB version of the image, as JPEG has no alpha channel; transparent pixels are painted with the background.
+     */
+    @NotNull
+    private static BufferedImage toRgb(@NotNull BufferedImage image, @Nullable Paint background) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+            return image;
+        }
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = rgb.createGraphics();
+        try {
+            graphics.setPaint(background != null && background.getTransparency() == Transparency.OPAQUE ? background : Color.WHITE);
+            graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+            graphics.drawImage(image, 0, 0, null);
+        } finally {
+            graphics.dispose();
+        }
+        return rgb;
+    }
+
+    private static boolean isStrippable(int marker, @NotNull byte[] segment) {
+        switch (marker) {
+            case MARKER_APP1:
+                // EXIF or XMP
+                return !(startsWith(segment, EXIF_IDENTIFIER) && hasOrientation(segment));
+            case MARKER_APP2:
+                return startsWith(segment, ICC_IDENTIFIER) && isSingleChunkSrgbProfile(segment);
+            case MARKER_APP13:
+            case MARKER_COM:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Checks if the EXIF segment has an orientation other than the default one in its first image file directory.
+     */
+    private static boolean hasOrientation(@NotNull byte[] segment) {
+        int tiff = EXIF_IDENTIFIER.length;
+        if (segment.length < tiff + 8) {
+            return true;
+        }
+        boolean littleEndian = segment[tiff] == 'I' && segment[tiff + 1] == 'I';
+        boolean bigEndian = segment[tiff] == 'M' && segment[tiff + 1] == 'M';
+        if (!littleEndian && !bigEndian) {
+            return true;
+        }
+        long ifd = readUnsigned(segment, tiff + 4, 4, littleEndian);
+        if (ifd < 8 || tiff + ifd + 2 > segment.length) {
+            return true;
+        }
+        int entries = (int) readUnsigned(segment, (int) (tiff + ifd), 2, littleEndian);
+        for (int i = 0; i < entries; i++) {
+            int entry = (int) (tiff + ifd + 2 + i * 12L);
+            if (entry + 12 > segment.length) {
+                return true;
+            }
+            if (readUnsigned(segment, entry, 2, littleEndian) == EXIF_TAG_ORIENTATION) {
+                return readUnsigned(segment, entry + 8, 2, littleEndian) != 1;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSingleChunkSrgbProfile(@NotNull byte[] segment) {
+        int offset = ICC_IDENTIFIER.length;
+        // chunk sequence number and total number of chunks
+        if (segment.length <= offset + 2 || segment[offset] != 1 || segment[offset + 1] != 1) {
+            return false;
+        }
+        byte[] data = new byte[segment.length - offset - 2];
+        System.arraycopy(segment, offset + 2, data, 0, data.length);
+        try {
+            byte[] description = ICC_Profile.getInstance(data).getData(ICC_Profile.icSigProfileDescriptionTag);
+            // version 2 profiles describe themselves in ASCII, version 4 profiles in UTF-16
+            return description != null && (new String(description, StandardCharsets.ISO_8859_1).contains("sRGB") ||
+                    new String(description, StandardCharsets.UTF_16BE).contains("sRGB"));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static boolean startsWith(@NotNull byte[] data, @NotNull byte[] prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long readUnsigned(@NotNull byte[] data, int offset, int length, boolean littleEndian) {
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            int b = data[littleEndian ? offset + length - 1 - i : offset + i] & 0xFF;
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return id;
+    }
+}
@@ -0,0 +1,541 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.day.image.Layer;
+
+/**
+ * Reduces PNG images to an indexed palette. Images with few colours get an exact palette, including the alpha of each colour. Other
+ * images are quantized with a median cut of their colours, if they have no partial transparency and if the root
+ * mean square error of the quantized colours stays within the configured budget. The indexed image is only used if it's smaller than
+ * the truecolor one.
+ */
+final class AdaptiveImagePaletteQuantizer {
+
+    static final int DEFAULT_MAX_COLORS = 256;
+    static final double DEFAULT_MAX_ERROR = 2.0;
+
+    private static final String PNG_MIME_TYPE = "image/png";
+    private static final int HISTOGRAM_BITS = 5;
+    private static final int HISTOGRAM_SIZE = 1 << (3 * HISTOGRAM_BITS);
+    private static final int LEVELS = 1 << HISTOGRAM_BITS;
+
+    private final int maxColors;
+    private final double maxError;
+    private final AdaptiveImageServletMetrics metrics;
+
+    /**
+     * @param maxColors the maximum number of colours of the palette, at most 256
+     * @param maxError  the maximum root mean square error, per channel, of quantized images; {@code 0} to only use exact palettes
+     * @param metrics   the servlet metrics
+     */
+    AdaptiveImagePaletteQuantizer(int maxColors, double maxError, @NotNull AdaptiveImageServletMetrics metrics) {
+        this.maxColors = Math.max(2, Math.min(256, maxColors));
+        this.maxError = Math.max(0, maxError);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns a string that identifies the quantizer settings, for telling apart the images rendered with different settings.
+     *
+     * @return the identifier
+     */
+    @NotNull
+    String getId() {
+        return ",palette=" + maxColors + "/" + maxError;
+    }
+
+    /**
+     * Checks if images of the given type can be reduced to a palette. GIF images are not eligible, as the servlet always streams
+     * their original binary.
+     *
+     * @param imageType the mime type of the image
+     * @return {@code true} for PNG images
+     */
+    boolean isEligible(@NotNull String imageType) {
+        return PNG_MIME_TYPE.equals(imageType);
+    }
+
+    /**
+     * Encodes the layer with an indexed palette if possible and if that makes it smaller, and with {@link Layer#write} otherwise.
+     *
+     * @param layer     the layer
+     * @param imageType the mime type of the encoded image
+     * @param quality   the quality, between 0 and 1
+     * @param out       the stream the image is written to; the stream is not closed
+     * @throws IOException if the layer cannot be encoded
+     */
+    void encode(@NotNull Layer layer, @NotNull String imageType, double quality, @NotNull OutputStream out) throws IOException {
+        ByteArrayOutputStream truecolor = new ByteArrayOutputStream();
+        layer.write(imageType, quality, truecolor);
+        byte[] indexed = isEligible(imageType) ? encodeIndexed(layer.getImage()) : null;
+        if (indexed != null && indexed.length < truecolor.size()) {
+            metrics.markPaletteBytesSaved(truecolor.size() - indexed.length);
+            out.write(indexed);
+        } else {
+            metrics.markPaletteQuantizationRejected();
+            truecolor.writeTo(out);
+        }
+    }
+
+    /**
+     * Encodes the image with an indexed palette.
+     *
+     * @param image the image
+     * @return the encoded PNG image, or {@code null} if the image doesn't fit in a palette
+     * @throws IOException if the image cannot be encoded
+     */
+    @Nullable
+    private byte[] encodeIndexed(@NotNull BufferedImage image) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        boolean partialAlpha = false;
+        boolean transparent = false;
+        for (int i = 0; i < pixels.length; i++) {
+            int alpha = pixels[i] >>> 24;
+            if (alpha == 0) {
+                // all fully transparent pixels share a single palette entry
+                pixels[i] = 0;
+                transparent = true;
+            } else if (alpha < 0xFF) {
+                partialAlpha = true;
+            }
+        }
+        int[] palette = getExactPalette(pixels);
+        IndexColorModel colorModel;
+        byte[] indices;
+        if (palette != null) {
+            colorModel = getColorModel(palette);
+            indices = new byte[pixels.length];
+            for (int i = 0; i < pixels.length; i++) {
+                indices[i] = (byte) Arrays.binarySearch(palette, pixels[i]);
+            }
+        } else if (maxError > 0 && !partialAlpha) {
+            Quantization quantization = quantize(pixels, transparent);
+            if (quantization == null) {
+                return null;
+            }
+            colorModel = quantization.colorModel;
+            indices = quantization.indices;
+        } else {
+            return null;
+        }
+        return write(colorModel, indices, width, height);
+    }
+
+    /**
+     * Returns the sorted ARGB values of all the colours of the image, or {@code null} if the image has more colours than the palette
+     * can hold.
+     */
+    @Nullable
+    private int[] getExactPalette(@NotNull int[] pixels) {
+        IntSet colors = new IntSet(maxColors * 2);
+        for (int pixel : pixels) {
+            if (colors.add(pixel) && colors.size() > maxColors) {
+                return null;
+            }
+        }
+        int[] palette = colors.toArray();
+        Arrays.sort(palette);
+        return palette;
+    }
+
+    @NotNull
+    private static IndexColorModel getColorModel(@NotNull int[] palette) {
+        int size = palette.length;
+        byte[] r = new byte[size];
+        byte[] g = new byte[size];
+        byte[] b = new byte[size];
+        byte[] a = new byte[size];
+        for (int i = 0; i < size; i++) {
+            a[i] = (byte) (palette[i] >>> 24);
+            r[i] = (byte) (palette[i] >> 16);
+            g[i] = (byte) (palette[i] >> 8);
+            b[i] = (byte) palette[i];
+        }
+        return new IndexColorModel(getBits(size), size, r, g, b, a);
+    }
+
+    /**
+     * Quantizes the opaque colours of the image with a median cut of their histogram; fully transparent pixels get their own entry.
+     *
+     * @return the quantization, or {@code null} if its error exceeds the budget
+     */
+    @Nullable
+    private Quantization quantize(@NotNull int[] pixels, boolean transparent) {
+        int[] counts = new int[HISTOGRAM_SIZE];
+        long[] sums = new long[HISTOGRAM_SIZE * 3];
+        for (int pixel : pixels) {
+            if (pixel == 0) {
+                continue;
+            }
+            int bin = getBin(pixel);
+            counts[bin]++;
+            sums[bin * 3] += (pixel >> 16) & 0xFF;
+            sums[bin * 3 + 1] += (pixel >> 8) & 0xFF;
+            sums[bin * 3 + 2] += pixel & 0xFF;
+        }
+        int colors = transparent ? maxColors - 1 : maxColors;
+        List<Box> boxes = new ArrayList<>();
+        Box all = new Box(0, LEVELS - 1, 0, LEVELS - 1, 0, LEVELS - 1);
+        if (!all.shrink(counts)) {
+            return null;
+        }
+        boxes.add(all);
+        while (boxes.size() < colors) {
+            Box largest = null;
+            for (Box box : boxes) {
+                if (box.isSplittable() && (largest == null || box.getPriority() > largest.getPriority())) {
+                    largest = box;
+                }
+            }
+            if (largest == null) {
+                break;
+            }
+            Box split = largest.split(counts);
+            if (split == null) {
+                break;
+            }
+            boxes.add(split);
+        }
+        int size = boxes.size() + (transparent ? 1 : 0);
+        byte[] r = new byte[size];
+        byte[] g = new byte[size];
+        byte[] b = new byte[size];
+        int[] palette = new int[boxes.size()];
+        int offset = transparent ? 1 : 0;
+        for (int i = 0; i < boxes.size(); i++) {
+            palette[i] = boxes.get(i).getAverage(counts, sums);
+            r[i + offset] = (byte) (palette[i] >> 16);
+            g[i + offset] = (byte) (palette[i] >> 8);
+            b[i + offset] = (byte) palette[i];
+        }
+        byte[] lookup = new byte[HISTOGRAM_SIZE];
+        for (int bin = 0; bin < HISTOGRAM_SIZE; bin++) {
+            if (counts[bin] > 0) {
+                int color = (int) (sums[bin * 3] / counts[bin]) << 16 | (int) (sums[bin * 3 + 1] / counts[bin]) << 8 |
+                        (int) (sums[bin * 3 + 2] / counts[bin]);
+                lookup[bin] = (byte) (getNearest(palette, color) + offset);
+            }
+        }
+        byte[] indices = new byte[pixels.length];
+        long squaredError = 0;
+        long opaquePixels = 0;
+        for (int i = 0; i < pixels.length; i++) {
+            int pixel = pixels[i];
+            if (pixel == 0) {
+                continue;
+            }
+            int index = lookup[getBin(pixel)] & 0xFF;
+            indices[i] = (byte) index;
+            int color = palette[index - offset];
+            int dr = ((pixel >> 16) & 0xFF) - ((color >> 16) & 0xFF);
+            int dg = ((pixel >> 8) & 0xFF) - ((color >> 8) & 0xFF);
+            int db = (pixel & 0xFF) - (color & 0xFF);
+            squaredError += dr * dr + dg * dg + db * db;
+            opaquePixels++;
+        }
+        if (opaquePixels > 0 && Math.sqrt(squaredError / (3.0 * opaquePixels)) > maxError) {
+            return null;
+        }
+        IndexColorModel colorModel = transparent ? new IndexColorModel(getBits(size), size, r, g, b, 0) :
+                new IndexColorModel(getBits(size), size, r, g, b);
+        return new Quantization(colorModel, indices);
+    }
+
+    @NotNull
+    private static byte[] write(@NotNull IndexColorModel colorModel, @NotNull byte[] indices, int width, int height)
+            throws IOException {
+        int bits = colorModel.getPixelSize();
+        BufferedImage indexed = bits < 8 ?
+                new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY, colorModel) :
+                new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, colorModel);
+        WritableRaster raster = indexed.getRaster();
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                row[x] = indices[y * width + x] & 0xFF;
+            }
+            raster.setPixels(0, y, width, 1, row);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = new MemoryCacheImageOutputStream(out)) {
+            if (!ImageIO.write(indexed, "png", ios)) {
+                throw new IOException("No ImageIO writer for indexed png images.");
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static int getBits(int size) {
+        if (size <= 2) {
+            return 1;
+        }
+        if (size <= 4) {
+            return 2;
+        }
+        return size <= 16 ? 4 : 8;
+    }
+
+    private static int getBin(int pixel) {
+        int shift = 8 - HISTOGRAM_BITS;
+        return (((pixel >> 16) & 0xFF) >> shift) << (2 * HISTOGRAM_BITS) | (((pixel >> 8) & 0xFF) >> shift) << HISTOGRAM_BITS |
+                ((pixel & 0xFF) >> shift);
+    }
+
+    private static int getNearest(@NotNull int[] palette, int color) {
+        int nearest = 0;
+        int nearestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < palette.length; i++) {
+            int dr = ((color >> 16) & 0xFF) - ((palette[i] >> 16) & 0xFF);
+            int dg = ((color >> 8) & 0xFF) - ((palette[i] >> 8) & 0xFF);
+            int db = (color & 0xFF) - (palette[i] & 0xFF);
+            int distance = dr * dr + dg * dg + db * db;
+            if (distance < nearestDistance) {
+                nearest = i;
+                nearestDistance = distance;
+            }
+        }
+        return nearest;
+    }
+
+    @Override
+    public String toString() {
+        return "{maxColors: " + maxColors + ", maxError: " + maxError + "}";
+    }
+
+    private static final class Quantization {
+
+        private final IndexColorModel colorModel;
+        private final byte[] indices;
+
+        private Quantization(@NotNull IndexColorModel colorModel, @NotNull byte[] indices) {
+            this.colorModel = colorModel;
+            this.indices = indices;
+        }
+    }
+
+    /**
+     * A box of the colour histogram, with inclusive bounds on each channel.
+     */
+    private static final class Box {
+
+        private final int[] min = new int[3];
+        private final int[] max = new int[3];
+        private long population;
+
+        private Box(int rMin, int rMax, int gMin, int gMax, int bMin, int bMax) {
+            min[0] = rMin;
+            max[0] = rMax;
+            min[1] = gMin;
+            max[1] = gMax;
+            min[2] = bMin;
+            max[2] = bMax;
+        }
+
+        boolean isSplittable() {
+            return max[0] > min[0] || max[1] > min[1] || max[2] > min[2];
+        }
+
+        /**
+         * Boxes with many pixels spread over a long channel range are split first.
+         */
+        long getPriority() {
+            return population * (getLongestSide() + 1);
+        }
+
+        /**
+         * Shrinks the box to the bins that have pixels and updates its population.
+         *
+         * @return {@code false} if the box is empty
+         */
+        boolean shrink(@NotNull int[] counts) {
+            int[] newMin = {LEVELS, LEVELS, LEVELS};
+            int[] newMax = {-1, -1, -1};
+            population = 0;
+            for (int r = min[0]; r <= max[0]; r++) {
+                for (int g = min[1]; g <= max[1]; g++) {
+                    for (int b = min[2]; b <= max[2]; b++) {
+                        int count = counts[r << (2 * HISTOGRAM_BITS) | g << HISTOGRAM_BITS | b];
+                        if (count > 0) {
+                            population += count;
+                            newMin[0] = Math.min(newMin[0], r);
+                            newMax[0] = Math.max(newMax[0], r);
+                            newMin[1] = Math.min(newMin[1], g);
+                            newMax[1] = Math.max(newMax[1], g);
+                            newMin[2] = Math.min(newMin[2], b);
+                            newMax[2] = Math.max(newMax[2], b);
+                        }
+                    }
+                }
+            }
+            if (population == 0) {
+                return false;
+            }
+            System.arraycopy(newMin, 0, min, 0, 3);
+            System.arraycopy(newMax, 0, max, 0, 3);
+            return true;
+        }
+
+        /**
+         * Splits the box at the median of its longest side; this box keeps the lower half.
+         *
+         * @return the upper half, or {@code null} if the box cannot be split
+         */
+        @Nullable
+        Box split(@NotNull int[] counts) {
+            int axis = 0;
+            for (int i = 1; i < 3; i++) {
+                if (max[i] - min[i] > max[axis] - min[axis]) {
+                    axis = i;
+                }
+            }
+            long[] slices = new long[max[axis] - min[axis] + 1];
+            for (int r = min[0]; r <= max[0]; r++) {
+                for (int g = min[1]; g <= max[1]; g++) {
+                    for (int b = min[2]; b <= max[2]; b++) {
+                        int value = axis == 0 ? r : (axis == 1 ? g : b);
+                        slices[value - min[axis]] += counts[r << (2 * HISTOGRAM_BITS) | g << HISTOGRAM_BITS | b];
+                    }
+                }
+            }
+            long half = population / 2;
+            long accumulated = 0;
+            int cut = min[axis];
+            for (int i = 0; i < slices.length - 1; i++) {
+                accumulated += slices[i];
+                cut = min[axis] + i;
+                if (accumulated >= half) {
+                    break;
+                }
+            }
+            Box upper = new Box(min[0], max[0], min[1], max[1], min[2], max[2]);
+            upper.min[axis] = cut + 1;
+            max[axis] = cut;
+            if (!shrink(counts) || !upper.shrink(counts)) {
+                return null;
+            }
+            return upper;
+        }
+
+        /**
+         * Returns the average colour of the pixels in the box.
+         */
+        int getAverage(@NotNull int[] counts, @NotNull long[] sums) {
+            long count = 0;
+            long r = 0;
+            long g = 0;
+            long b = 0;
+            for (int red = min[0]; red <= max[0]; red++) {
+                for (int green = min[1]; green <= max[1]; green++) {
+                    for (int blue = min[2]; blue <= max[2]; blue++) {
+                        int bin = red << (2 * HISTOGRAM_BITS) | green << HISTOGRAM_BITS | blue;
+                        count += counts[bin];
+                        r += sums[bin * 3];
+                        g += sums[bin * 3 + 1];
+                        b += sums[bin * 3 + 2];
+                    }
+                }
+            }
+            return (int) (r / count) << 16 | (int) (g / count) << 8 | (int) (b / count);
+        }
+
+        private int getLongestSide() {
+            return Math.max(max[0] - min[0], Math.max(max[1] - min[1], max[2] - min[2]));
+        }
+    }
+
+    /**
+     * A minimal open addressing set of {@code int} values.
+     */
+    private static final class IntSet {
+
+        private int[] values;
+        private boolean[] used;
+        private int size;
+
+        private IntSet(int capacity) {
+            int tableSize = Integer.highestOneBit(Math.max(16, capacity * 2) - 1) << 1;
+            values = new int[tableSize];
+            used = new boolean[tableSize];
+        }
+
+        boolean add(int value) {
+            int mask = values.length - 1;
+            int slot = (value * 0x9E3779B9) >>> 7 & mask;
+            while (used[slot]) {
+                if (values[slot] == value) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            used[slot] = true;
+            values[slot] = value;
+            size++;
+            if (size * 2 > values.length) {
+                grow();
+            }
+            return true;
+        }
+
+        int size() {
+            return size;
+        }
+
+        @NotNull
+        int[] toArray() {
+            int[] array = new int[size];
+            int i = 0;
+            for (int slot = 0; slot < values.length; slot++) {
+                if (used[slot]) {
+                    array[i++] = values[slot];
+                }
+            }
+            return array;
+        }
+
+        private void grow() {
+            int[] oldValues = values;
+            boolean[] oldUsed = used;
+            values = new int[oldValues.length * 2];
+            used = new boolean[oldUsed.length * 2];
+            size = 0;
+            for (int slot = 0; slot < oldValues.length; slot++) {
+                if (oldUsed[slot]) {
+                    add(oldValues[slot]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.NotNull;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Global budget for the memory taken by the pixels that the {@link AdaptiveImageServlet} registrations decode. Every transformation
+ * reserves the estimated size of the rasters it decodes before decoding them and releases the reservation once the image has been
+ * written.
+ */
+@Designate(ocd = AdaptiveImagePixelMemoryBudget.Config.class)
+@Component(service = AdaptiveImagePixelMemoryBudget.class)
+public class AdaptiveImagePixelMemoryBudget {
+
+    @ObjectClassDefinition(
+            name = "AEM Core WCM Components Adaptive Image Pixel Memory Budget",
+            description = "Limits the memory that the adaptive image servlet uses for decoded images."
+    )
+    @interface Config {
+
+        @AttributeDefinition(
+                name = "Enabled",
+                description = "Enable the pixel memory budget."
+        )
+        boolean enabled() default true;
+
+        @AttributeDefinition(
+                name = "Maximum pixel memory (MB)",
+                description = "Maximum memory for the images decoded concurrently. Set to 0 to use a quarter of the maximum heap size."
+        )
+        int maxMemory() default 0;
+
+        @AttributeDefinition(
+                name = "Maximum wait time",
+                description = "The maximum time, in milliseconds, that a transformation waits for memory to become available before " +
+                        "it is degraded to a smaller rendition or rejected."
+        )
+        long maxWaitTime() default 2000;
+    }
+
+    /**
+     * The number of bytes each decoded pixel is assumed to take (packed ARGB).
+     */
+    static final int BYTES_PER_PIXEL = 4;
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveImagePixelMemoryBudget.class);
+    private static final int KB = 1024;
+
+    @Reference
+    private AdaptiveImageServletMetrics metrics;
+
+    private volatile Semaphore kilobytes;
+    private volatile int capacity;
+    private volatile long maxWaitTime;
+    private volatile boolean enabled;
+
+    @Activate
+    @Modified
+    protected void activate(Config config) {
+        long maxMemory = config.maxMemory() > 0 ? config.maxMemory() * 1024L * KB : Runtime.getRuntime().maxMemory() / 4;
+        capacity = (int) Math.min(Integer.MAX_VALUE, maxMemory / KB);
+        kilobytes = new Semaphore(capacity, true);
+        maxWaitTime = Math.max(0, config.maxWaitTime());
+        enabled = config.enabled();
+        LOG.debug("Pixel memory budget set to {}KB.", capacity);
+    }
+
+    /**
+     * Estimates the memory needed for decoding an image of the given size.
+     *
+     * @param width  the width of the decoded image, in pixels
+     * @param height the height of the decoded image, in pixels
+     * @return the estimated size, in bytes
+     */
+    static long estimate(int width, int height) {
+        return (long) Math.max(0, width) * Math.max(0, height) * BYTES_PER_PIXEL;
+    }
+
+    /**
+     * Opens a new reservation scope; all the memory reserved through the scope is released when the scope is closed.
+     *
+     * @return the scope
+     */
+    @NotNull
+    Scope newScope() {
+        return new Scope(kilobytes);
+    }
+
+    /**
+     * Holds the memory reserved by one transformation.
+     */
+    final class Scope implements AutoCloseable {
+
+        private final Semaphore semaphore;
+        private int reserved;
+        private boolean degraded;
+
+        private Scope(@NotNull Semaphore semaphore) {
+            this.semaphore = semaphore;
+        }
+
+        /**
+         * Reserves memory, waiting for it to become available if needed.
+         *
+         * @param bytes the number of bytes to reserve
+         * @return {@code true} if the memory was reserved, {@code false} if it's larger than the budget or didn't become available
+         * in time
+         * @throws IOException if the thread was interrupted while waiting
+         */
+        boolean reserve(long bytes) throws IOException {
+            if (!enabled || bytes <= 0) {
+                return true;
+            }
+            long requested = (bytes + KB - 1) / KB;
+            if (requested > capacity) {
+                metrics.markPixelMemoryDenied();
+                return false;
+            }
+            int permits = (int) requested;
+            try {
+                if (!semaphore.tryAcquire(permits) && !semaphore.tryAcquire(permits, maxWaitTime, TimeUnit.MILLISECONDS)) {
+                    metrics.markPixelMemoryDenied();
+                    return false;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for pixel memory.", e);
+            }
+            reserved += permits;
+            metrics.markPixelMemoryReserved((long) permits * KB);
+            return true;
+        }
+
+        /**
+         * Records that the transformation had to fall back to a smaller rendition because of the budget.
+         */
+        void markDegraded() {
+            degraded = true;
+        }
+
+        /**
+         * @return {@code true} if the transformation fell back to a smaller rendition because of the budget
+         */
+        boolean isDegraded() {
+            return degraded;
+        }
+
+        @Override
+        public void close() {
+            if (reserved > 0) {
+                semaphore.release(reserved);
+                metrics.markPixelMemoryReleased((long) reserved * KB);
+                reserved = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+
+import javax.imageio.ImageIO;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Low-quality image placeholders: the image scaled down to {@value #MAX_SIZE} pixels on its longest side and stored as a PNG rendition
+ * of the asset. Browsers smooth the placeholder when scaling it up, so it can be shown, blurred, in place of a lazy loaded image. Only
+ * opaque images get a placeholder, since a placeholder would show through the transparent areas of the loaded image.
+ */
+final class AdaptiveImagePlaceholder {
+
+    static final String RENDITION_NAME = AdaptiveImageRenditionGenerator.RENDITION_PREFIX + "placeholder.png";
+    static final String MIME_TYPE = "image/png";
+    static final int MAX_SIZE = 16;
+
+    private static final String DATA_URI_PREFIX = "data:" + MIME_TYPE + ";base64,";
+
+    private AdaptiveImagePlaceholder() {
+    }
+
+    /**
+     * Checks whether a placeholder can be created for the given image.
+     *
+     * @param image the image
+     * @return {@code true} if the image is opaque
+     */
+    static boolean isSupported(@NotNull BufferedImage image) {
+        return !image.getColorModel().hasAlpha();
+    }
+
+    /**
+     * Creates the placeholder of the given image.
+     *
+     * @param image the image
+     * @return the PNG binary of the placeholder
+     * @throws IOException if the placeholder cannot be encoded
+     */
+    @NotNull
+    static byte[] create(@NotNull BufferedImage image) throws IOException {
+        double scale = Math.min(1, MAX_SIZE / (double) Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        BufferedImage scaled = image;
+        // halve the image step by step, so that every source pixel contributes to the placeholder
+        while (scaled.getWidth() / 2 >= width && scaled.getHeight() / 2 >= height) {
+            scaled = draw(scaled, scaled.getWidth() / 2, scaled.getHeight() / 2, null);
+        }
+        return encode(draw(scaled, width, height, null));
+    }
+
+    /**
+     * Applies the cropping, rotation and flipping of an image component to a placeholder.
+     *
+     * @param placeholder      the PNG binary of the placeholder
+     * @param crop             the cropped region, relative to the size of the image, or {@code null} if the image is not cropped
+     * @param rotation         the rotation angle, in degrees
+     * @param flipHorizontally {@code true} to flip the placeholder horizontally
+     * @param flipVertically   {@code true} to flip the placeholder vertically
+     * @return the PNG binary of the transformed placeholder or {@code null} if the transformation is not supported
+     * @throws IOException if the placeholder cannot be decoded or encoded
+     */
+    @Nullable
+    static byte[] transform(@NotNull byte[] placeholder, @Nullable Rectangle2D crop, int rotation, boolean flipHorizontally,
+                            boolean flipVertically) throws IOException {
+        if (rotation % 90 != 0) {
+            return null;
+        }
+        int quadrants = Math.floorMod(rotation, 360) / 90;
+        if (crop == null && quadrants == 0 && !flipHorizontally && !flipVertically) {
+            return placeholder;
+        }
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(placeholder));
+        if (image == null) {
+            return null;
+        }
+        if (crop != null) {
+            int x = (int) Math.floor(crop.getX() * image.getWidth());
+            int y = (int) Math.floor(crop.getY() * image.getHeight());
+            int width = (int) Math.ceil(crop.getMaxX() * image.getWidth()) - x;
+            int height = (int) Math.ceil(crop.getMaxY() * image.getHeight()) - y;
+            x = Math.max(0, Math.min(x, image.getWidth() - 1));
+            y = Math.max(0, Math.min(y, image.getHeight() - 1));
+            image = image.getSubimage(x, y, Math.max(1, Math.min(width, image.getWidth() - x)),
+                    Math.max(1, Math.min(height, image.getHeight() - y)));
+        }
+        int width = quadrants % 2 == 0 ? image.getWidth() : image.getHeight();
+        int height = quadrants % 2 == 0 ? image.getHeight() : image.getWidth();
+        AffineTransform transform = new AffineTransform();
+        transform.translate(width / 2.0d, height / 2.0d);
+        transform.scale(flipHorizontally ? -1 : 1, flipVertically ? -1 : 1);
+        transform.quadrantRotate(quadrants);
+        transform.translate(-image.getWidth() / 2.0d, -image.getHeight() / 2.0d);
+        return encode(draw(image, width, height, transform));
+    }
+
+    /**
+     * Returns the data URI of a placeholder.
+     *
+     * @param placeholder the PNG binary of the placeholder
+     * @return the data URI
+     */
+    @NotNull
+    static String toDataUri(@NotNull byte[] placeholder) {
+        return DATA_URI_PREFIX + Base64.getEncoder().encodeToString(placeholder);
+    }
+
+    @NotNull
+    private static BufferedImage draw(@NotNull BufferedImage image, int width, int height, @Nullable AffineTransform transform) {
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            if (transform != null) {
+                graphics.drawImage(image, transform, null);
+            } else {
+                graphics.drawImage(image, 0, 0, width, height, null);
+            }
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    @NotNull
+    private static byte[] encode(@NotNull BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, "png", out)) {
+            throw new IOException("No PNG writer available.");
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,305 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.day.image.Layer;
+
+/**
+ * Encodes JPEG images with the lowest quality whose {@code SSIM} (structural similarity) to the image being encoded reaches a target,
+ * instead of with a fixed quality. The quality is found by a binary search between a minimum and a maximum quality; the chosen quality
+ * is remembered per rendered image, identified by the key of its transformation (source path, last modified date, width, crop and
+ * the other transformations), so that rendering the same asset at the same width again needs a single encoding.
+ * <p>
+ * The similarity is the mean {@code SSIM} of the luma channel over 8x8 pixel windows, which follows the visible differences closely
+ * enough for choosing a quality and is computed in a single pass.
+ */
+final class AdaptiveImageQualitySearch {
+
+    static final int DEFAULT_MIN_QUALITY = 40;
+    static final int DEFAULT_MAX_QUALITY = 95;
+
+    private static final String JPEG_MIME_TYPE = "image/jpeg";
+    private static final int MAX_ENTRIES = 10000;
+    private static final int WINDOW_SIZE = 8;
+    private static final double C1 = (0.01 * 255) * (0.01 * 255);
+    private static final double C2 = (0.03 * 255) * (0.03 * 255);
+
+    private final AdaptiveImageEncoder encoder;
+    private final double targetSsim;
+    private final int minQuality;
+    private final int maxQuality;
+    private final AdaptiveImageServletMetrics metrics;
+    private final Object lock = new Object();
+    private final LinkedHashMap<String, Integer> qualities = new LinkedHashMap<>(256, 0.75f, true);
+
+    /**
+     * @param encoder    the encoder of the candidate images
+     * @param targetSsim the similarity the encoded images have to reach, between 0 and 1; the search is disabled for other values
+     * @param minQuality the lowest quality, in percent, that can be chosen
+     * @param maxQuality the highest quality, in percent, that can be chosen; also used when no lower quality reaches the target
+     * @param metrics    the servlet metrics
+     */
+    AdaptiveImageQualitySearch(@NotNull AdaptiveImageEncoder encoder, double targetSsim, int minQuality, int maxQuality,
+                               @NotNull AdaptiveImageServletMetrics metrics) {
+        this.encoder = encoder;
+        this.targetSsim = targetSsim > 0 && targetSsim < 1 ? targetSsim : 0;
+        this.maxQuality = Math.max(1, Math.min(100, maxQuality));
+        this.minQuality = Math.max(1, Math.min(this.maxQuality, minQuality));
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns a string that identifies the search settings, for telling apart the images rendered with different settings.
+     *
+     * @return the identifier, empty if the search is disabled
+     */
+    @NotNull
+    String getId() {
+        return targetSsim > 0 ? ",ssim=" + targetSsim + "," + minQuality + "-" + maxQuality : "";
+    }
+
+    /**
+     * Checks if images of the given type are encoded with a searched quality.
+     *
+     * @param imageType the mime type of the encoded image
+     * @return {@code true} if the quality is searched
+     */
+    boolean isEnabled(@NotNull String imageType) {
+        return targetSsim > 0 && JPEG_MIME_TYPE.equals(imageType);
+    }
+
+    /**
+     * Encodes the layer. JPEG images are encoded with the searched quality if the search is enabled; other images are encoded with
+     * the given quality.
+     *
+     * @param layer     the layer
+     * @param imageType the mime type of the encoded image
+     * @param quality   the quality, between 0 and 1, used if the search is disabled
+     * @param key       the key of the transformation that rendered the layer, under which the searched quality is remembered;
+     *                  {@code null} to not remember it
+     * @param out       the stream the image is written to; the stream is not closed
+     * @throws IOException if the layer cannot be encoded
+     */
+    void encode(@NotNull Layer layer, @NotNull String imageType, double quality, @Nullable String key, @NotNull OutputStream out)
+            throws IOException {
+        if (!isEnabled(imageType)) {
+            encoder.encode(layer, imageType, quality, out);
+            return;
+        }
+        BufferedImage image = layer.getImage();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        // the dimensions tell apart the images rendered from smaller renditions when the pixel memory is scarce
+        String qualityKey = key != null ? key + ":" + width + "x" + height : null;
+        if (qualityKey != null) {
+            Integer known;
+            synchronized (lock) {
+                known = qualities.get(qualityKey);
+            }
+            if (known != null) {
+                metrics.markQualitySearchCacheHit();
+                encoder.encode(layer, imageType, known / 100.0d, out);
+                return;
+            }
+        }
+        byte[] reference = getLuma(image, true);
+        int low = minQuality;
+        int high = maxQuality;
+        int chosenQuality = maxQuality;
+        byte[] chosen = null;
+        CandidateDecoder decoder = new CandidateDecoder();
+        while (low <= high) {
+            int candidateQuality = (low + high) >>> 1;
+            byte[] candidate = encode(layer, imageType, candidateQuality);
+            Double ssim = getSsim(decoder, reference, candidate, width, height);
+            if (ssim == null) {
+                // the candidate cannot be compared; fall back to the fixed quality
+                encoder.encode(layer, imageType, quality, out);
+                return;
+            }
+            if (ssim >= targetSsim) {
+                chosen = candidate;
+                chosenQuality = candidateQuality;
+                high = candidateQuality - 1;
+            } else {
+                low = candidateQuality + 1;
+            }
+        }
+        if (chosen == null) {
+            chosen = encode(layer, imageType, maxQuality);
+        }
+        if (qualityKey != null) {
+            synchronized (lock) {
+                qualities.put(qualityKey, chosenQuality);
+                Iterator<Map.Entry<String, Integer>> iterator = qualities.entrySet().iterator();
+                while (qualities.size() > MAX_ENTRIES && iterator.hasNext()) {
+                    iterator.next();
+                    iterator.remove();
+                }
+            }
+        }
+        metrics.markSearchedQuality(chosenQuality);
+        out.write(chosen);
+    }
+
+    @NotNull
+    private byte[] encode(@NotNull Layer layer, @NotNull String imageType, int quality) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(layer, imageType, quality / 100.0d, out);
+        metrics.markQualitySearchEncoding();
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes the candidate image and computes its similarity to the reference luma.
+     *
+     * @return the similarity, or {@code null} if the candidate cannot be decoded or has other dimensions
+     */
+    @Nullable
+    private static Double getSsim(@NotNull CandidateDecoder decoder, @NotNull byte[] reference, @NotNull byte[] candidate, int width,
+                                  int height) throws IOException {
+        BufferedImage decoded = decoder.decode(candidate);
+        if (decoded == null || decoded.getWidth() != width || decoded.getHeight() != height) {
+            return null;
+        }
+        return ssim(reference, getLuma(decoded, false), width, height);
+    }
+
+    /**
+     * Computes the mean {@code SSIM} of two luma planes over non-overlapping windows.
+     */
+    static double ssim(@NotNull byte[] x, @NotNull byte[] y, int width, int height) {
+        int windowWidth = Math.min(WINDOW_SIZE, width);
+        int windowHeight = Math.min(WINDOW_SIZE, height);
+        double sum = 0;
+        int windows = 0;
+        for (int top = 0; top + windowHeight <= height; top += windowHeight) {
+            for (int left = 0; left + windowWidth <= width; left += windowWidth) {
+                long sumX = 0;
+                long sumY = 0;
+                long sumXX = 0;
+                long sumYY = 0;
+                long sumXY = 0;
+                for (int row = top; row < top + windowHeight; row++) {
+                    int offset = row * width + left;
+                    for (int i = offset; i < offset + windowWidth; i++) {
+                        int a = x[i] & 0xFF;
+                        int b = y[i] & 0xFF;
+                        sumX += a;
+                        sumY += b;
+                        sumXX += a * a;
+                        sumYY += b * b;
+                        sumXY += a * b;
+                    }
+                }
+                double n = (double) windowWidth * windowHeight;
+                double meanX = sumX / n;
+                double meanY = sumY / n;
+                double varianceX = sumXX / n - meanX * meanX;
+                double varianceY = sumYY / n - meanY * meanY;
+                double covariance = sumXY / n - meanX * meanY;
+                sum += ((2 * meanX * meanY + C1) * (2 * covariance + C2)) /
+                        ((meanX * meanX + meanY * meanY + C1) * (varianceX + varianceY + C2));
+                windows++;
+            }
+        }
+        return windows > 0 ? sum / windows : 1;
+    }
+
+    /**
+     * Returns the luma plane of the image. Transparent pixels of the reference image are composed over white, like the servlet does
+     * before encoding transparent images as JPEG.
+     */
+    @NotNull
+    private static byte[] getLuma(@NotNull BufferedImage image, boolean composeOverWhite) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] luma = new byte[width * height];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                int argb = row[x];
+                int r = (argb >> 16) & 0xFF;
+                int g = (argb >> 8) & 0xFF;
+                int b = argb & 0xFF;
+                int alpha = composeOverWhite ? (argb >>> 24) : 0xFF;
+                if (alpha < 0xFF) {
+                    r = (r * alpha + 0xFF * (0xFF - alpha)) / 0xFF;
+                    g = (g * alpha + 0xFF * (0xFF - alpha)) / 0xFF;
+                    b = (b * alpha + 0xFF * (0xFF - alpha)) / 0xFF;
+                }
+                luma[y * width + x] = (byte) ((299 * r + 587 * g + 114 * b) / 1000);
+            }
+        }
+        return luma;
+    }
+
+    @Override
+    public String toString() {
+        return targetSsim > 0 ? "{targetSsim: " + targetSsim + ", quality: " + minQuality + "-" + maxQuality + "}" : "{disabled}";
+    }
+
+    /**
+     * Decodes the candidates of a search, in memory and into the same image: a search holds a single decoded candidate, whatever the
+     * number of steps.
+     */
+    private static final class CandidateDecoder {
+
+        private BufferedImage destination;
+
+        @Nullable
+        BufferedImage decode(@NotNull byte[] candidate) throws IOException {
+            try (ImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(candidate))) {
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+                if (!readers.hasNext()) {
+                    return null;
+                }
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(input, true, true);
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    if (destination != null && destination.getWidth() == reader.getWidth(0) &&
+                            destination.getHeight() == reader.getHeight(0)) {
+                        param.setDestination(destination);
+                    }
+                    destination = reader.read(0, param);
+                    return destination;
+                } finally {
+                    reader.dispose();
+                }
+            }
+        }
+    }
+}
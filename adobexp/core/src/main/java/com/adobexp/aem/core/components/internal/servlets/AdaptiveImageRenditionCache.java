@@ -0,0 +1,424 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Two-tier cache for the images rendered by the {@link AdaptiveImageServlet}, keyed by {@link AdaptiveImageTransformation}.
+ * <p>
+ * The hot tier keeps the most recently used renditions in off-heap buffers; renditions evicted from the hot tier are spilled to
+ * the disk tier. Both tiers are bounded by size and evict the least recently used renditions first. Renditions are invalidated when
+ * the DAM asset or the image component they were rendered from changes.
+ */
+@Designate(ocd = AdaptiveImageRenditionCache.Config.class)
+@Component(
+        service = {AdaptiveImageRenditionCache.class, ResourceChangeListener.class},
+        property = {
+                ResourceChangeListener.PATHS + "=/content"
+        }
+)
+public class AdaptiveImageRenditionCache implements ResourceChangeListener {
+
+    @ObjectClassDefinition(
+            name = "AEM Core WCM Components Adaptive Image Rendition Cache",
+            description = "Caches the images rendered by the adaptive image servlet in an off-heap and a disk tier."
+    )
+    @interface Config {
+
+        @AttributeDefinition(
+                name = "Enabled",
+                description = "Enable the rendition cache."
+        )
+        boolean enabled() default true;
+
+        @AttributeDefinition(
+                name = "Hot tier size (MB)",
+                description = "Maximum size of the off-heap tier. The least recently used renditions are moved to the disk tier when " +
+                        "the limit is reached."
+        )
+        int hotTierMaxSize() default 64;
+
+        @AttributeDefinition(
+                name = "Disk tier size (MB)",
+                description = "Maximum size of the disk tier. The least recently used renditions are deleted when the limit is reached. " +
+                        "Set to 0 to disable the disk tier."
+        )
+        int diskTierMaxSize() default 1024;
+
+        @AttributeDefinition(
+                name = "Disk tier directory",
+                description = "Directory for the disk tier. Defaults to the data area of the bundle. The directory is emptied when the " +
+                        "cache is activated."
+        )
+        String diskTierDirectory() default "";
+
+        @AttributeDefinition(
+                name = "Maximum rendition size (KB)",
+                description = "Renditions larger than this size are never cached."
+        )
+        int maxEntrySize() default 4096;
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveImageRenditionCache.class);
+    private static final String DEFAULT_DISK_TIER_DIRECTORY = "renditioncache";
+    private static final long MB = 1024L * 1024L;
+
+    private final Object lock = new Object();
+    private final LinkedHashMap<String, HotEntry> hotTier = new LinkedHashMap<>(256, 0.75f, true);
+    private final LinkedHashMap<String, DiskEntry> diskTier = new LinkedHashMap<>(256, 0.75f, true);
+    private final ConcurrentSkipListMap<String, Set<String>> dependencies = new ConcurrentSkipListMap<>();
+    private long hotTierSize;
+    private long diskTierSize;
+
+    private volatile boolean enabled;
+    private volatile long hotTierMaxSize;
+    private volatile long diskTierMaxSize;
+    private volatile long maxEntrySize;
+    private volatile File diskTierDirectory;
+
+    @Activate
+    @Modified
+    protected void activate(BundleContext bundleContext, Config config) {
+        clear();
+        enabled = config.enabled();
+        hotTierMaxSize = Math.max(0, config.hotTierMaxSize()) * MB;
+        diskTierMaxSize = Math.max(0, config.diskTierMaxSize()) * MB;
+        maxEntrySize = Math.max(0, config.maxEntrySize()) * 1024L;
+        diskTierDirectory = StringUtils.isNotBlank(config.diskTierDirectory()) ? new File(config.diskTierDirectory()) :
+                bundleContext.getDataFile(DEFAULT_DISK_TIER_DIRECTORY);
+        if (diskTierMaxSize > 0) {
+            try {
+                if (diskTierDirectory == null) {
+                    throw new IOException("The framework does not provide file system support.");
+                }
+                FileUtils.forceMkdir(diskTierDirectory);
+                FileUtils.cleanDirectory(diskTierDirectory);
+            } catch (IOException | IllegalArgumentException e) {
+                LOG.error("Unable to prepare the disk tier directory {}; the disk tier will be disabled.", diskTierDirectory, e);
+                diskTierMaxSize = 0;
+            }
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        enabled = false;
+        clear();
+    }
+
+    /**
+     * Returns {@code true} if renditions are cached; callers can skip buffering the rendered images otherwise.
+     *
+     * @return {@code true} if the cache is enabled
+     */
+    boolean isEnabled() {
+        return enabled && hotTierMaxSize > 0;
+    }
+
+    /**
+     * Returns the size of the largest rendition that can be cached.
+     *
+     * @return the size in bytes, or {@code 0} if the cache is disabled
+     */
+    long getMaxEntrySize() {
+        return isEnabled() ? Math.min(maxEntrySize, hotTierMaxSize) : 0;
+    }
+
+    /**
+     * Looks up the rendition of the given transformation in the hot tier first and in the disk tier second. Renditions found in the
+     * disk tier are promoted to the hot tier.
+     *
+     * @param transformation the transformation
+     * @return the rendition or {@code null} if the rendition is not cached
+     */
+    @Nullable
+    CachedRendition get(@NotNull AdaptiveImageTransformation transformation) {
+        if (!isEnabled()) {
+            return null;
+        }
+        String key = transformation.getKey();
+        DiskEntry diskEntry;
+        synchronized (lock) {
+            HotEntry hotEntry = hotTier.get(key);
+            if (hotEntry != null) {
+                return hotEntry.rendition;
+            }
+            diskEntry = diskTier.get(key);
+        }
+        if (diskEntry == null) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(diskEntry.file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(diskEntry.size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading until the buffer is full
+            }
+            buffer.flip();
+            CachedRendition rendition = new CachedRendition(diskEntry.mimeType, buffer);
+            putHot(key, new HotEntry(rendition, diskEntry.file.getFileName().toString(), diskEntry.dependencies), true);
+            return rendition;
+        } catch (IOException e) {
+            // the file was evicted or invalidated in the meantime
+            LOG.debug("Unable to read rendition {} from the disk tier.", key, e);
+            return null;
+        }
+    }
+
+    /**
+     * Caches the rendition of the given transformation.
+     *
+     * @param transformation the transformation
+     * @param rendition      the rendered image
+     */
+    void put(@NotNull AdaptiveImageTransformation transformation, @NotNull CachedRendition rendition) {
+        if (!isEnabled() || rendition.getSize() > maxEntrySize || rendition.getSize() > hotTierMaxSize) {
+            return;
+        }
+        String key = transformation.getKey();
+        String[] entryDependencies = transformation.getDependencies();
+        for (String dependency : entryDependencies) {
+            dependencies.computeIfAbsent(dependency, path -> ConcurrentHashMap.newKeySet()).add(key);
+        }
+        putHot(key, new HotEntry(rendition, transformation.getHash(), entryDependencies), false);
+    }
+
+    /**
+     * Removes all renditions that depend on the given path.
+     *
+     * @param path        the changed path
+     * @param descendants {@code true} to also remove renditions that depend on descendants of the path
+     */
+    void invalidate(@NotNull String path, boolean descendants) {
+        Set<String> keys = new HashSet<>();
+        String current = path;
+        while (StringUtils.isNotEmpty(current)) {
+            Set<String> dependentKeys = dependencies.remove(current);
+            if (dependentKeys != null) {
+                keys.addAll(dependentKeys);
+            }
+            current = ResourceUtil.getParent(current);
+        }
+        if (descendants) {
+            Iterator<Map.Entry<String, Set<String>>> iterator =
+                    dependencies.subMap(path + "/", path + "/\uffff").entrySet().iterator();
+            while (iterator.hasNext()) {
+                keys.addAll(iterator.next().getValue());
+                iterator.remove();
+            }
+        }
+        if (!keys.isEmpty()) {
+            remove(keys);
+        }
+    }
+
+    @Override
+    public void onChange(@NotNull List<ResourceChange> changes) {
+        if (!isEnabled()) {
+            return;
+        }
+        for (ResourceChange change : changes) {
+            invalidate(change.getPath(), change.getType() == ResourceChange.ChangeType.REMOVED);
+        }
+    }
+
+    private void putHot(@NotNull String key, @NotNull HotEntry entry, boolean promotion) {
+        List<Map.Entry<String, HotEntry>> evicted = new ArrayList<>();
+        synchronized (lock) {
+            if (promotion && !diskTier.containsKey(key)) {
+                // invalidated while it was read from the disk tier
+                return;
+            }
+            HotEntry previous = hotTier.put(key, entry);
+            if (previous != null) {
+                hotTierSize -= previous.rendition.getSize();
+            }
+            hotTierSize += entry.rendition.getSize();
+            Iterator<Map.Entry<String, HotEntry>> iterator = hotTier.entrySet().iterator();
+            while (hotTierSize > hotTierMaxSize && iterator.hasNext()) {
+                Map.Entry<String, HotEntry> eldest = iterator.next();
+                iterator.remove();
+                hotTierSize -= eldest.getValue().rendition.getSize();
+                evicted.add(eldest);
+            }
+        }
+        for (Map.Entry<String, HotEntry> eldest : evicted) {
+            spill(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    private void spill(@NotNull String key, @NotNull HotEntry entry) {
+        synchronized (lock) {
+            if (diskTierMaxSize <= 0 || entry.rendition.getSize() > diskTierMaxSize || diskTier.containsKey(key)) {
+                forget(key, entry.dependencies);
+                return;
+            }
+        }
+        Path file = new File(diskTierDirectory, entry.fileName).toPath();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer data = entry.rendition.getData();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to write rendition {} to the disk tier.", key, e);
+            deleteQuietly(file);
+            synchronized (lock) {
+                forget(key, entry.dependencies);
+            }
+            return;
+        }
+        List<DiskEntry> evicted = new ArrayList<>();
+        synchronized (lock) {
+            DiskEntry diskEntry = new DiskEntry(file, entry.rendition.getSize(), entry.rendition.getMimeType(), entry.dependencies);
+            DiskEntry previous = diskTier.put(key, diskEntry);
+            if (previous != null) {
+                diskTierSize -= previous.size;
+            }
+            diskTierSize += diskEntry.size;
+            Iterator<Map.Entry<String, DiskEntry>> iterator = diskTier.entrySet().iterator();
+            while (diskTierSize > diskTierMaxSize && iterator.hasNext()) {
+                Map.Entry<String, DiskEntry> eldest = iterator.next();
+                iterator.remove();
+                diskTierSize -= eldest.getValue().size;
+                evicted.add(eldest.getValue());
+                forget(eldest.getKey(), eldest.getValue().dependencies);
+            }
+        }
+        for (DiskEntry diskEntry : evicted) {
+            deleteQuietly(diskEntry.file);
+        }
+    }
+
+    private void remove(@NotNull Collection<String> keys) {
+        List<DiskEntry> removed = new ArrayList<>();
+        synchronized (lock) {
+            for (String key : keys) {
+                HotEntry hotEntry = hotTier.remove(key);
+                if (hotEntry != null) {
+                    hotTierSize -= hotEntry.rendition.getSize();
+                }
+                DiskEntry diskEntry = diskTier.remove(key);
+                if (diskEntry != null) {
+                    diskTierSize -= diskEntry.size;
+                    removed.add(diskEntry);
+                }
+            }
+        }
+        for (DiskEntry diskEntry : removed) {
+            deleteQuietly(diskEntry.file);
+        }
+    }
+
+    /**
+     * Drops the dependency bookkeeping of a rendition that is no longer held by any tier. Must be called while holding the lock.
+     */
+    private void forget(@NotNull String key, @NotNull String[] entryDependencies) {
+        if (hotTier.containsKey(key) || diskTier.containsKey(key)) {
+            return;
+        }
+        for (String dependency : entryDependencies) {
+            dependencies.computeIfPresent(dependency, (path, dependentKeys) -> {
+                dependentKeys.remove(key);
+                return dependentKeys.isEmpty() ? null : dependentKeys;
+            });
+        }
+    }
+
+    private void clear() {
+        List<DiskEntry> removed;
+        synchronized (lock) {
+            removed = new ArrayList<>(diskTier.values());
+            hotTier.clear();
+            diskTier.clear();
+            hotTierSize = 0;
+            diskTierSize = 0;
+            dependencies.clear();
+        }
+        for (DiskEntry diskEntry : removed) {
+            deleteQuietly(diskEntry.file);
+        }
+    }
+
+    private static void deleteQuietly(@NotNull Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOG.debug("Unable to delete {}.", file, e);
+        }
+    }
+
+    private static final class HotEntry {
+        private final CachedRendition rendition;
+        private final String fileName;
+        private final String[] dependencies;
+
+        private HotEntry(CachedRendition rendition, String fileName, String[] dependencies) {
+            this.rendition = rendition;
+            this.fileName = fileName;
+            this.dependencies = dependencies;
+        }
+    }
+
+    private static final class DiskEntry {
+        private final Path file;
+        private final int size;
+        private final String mimeType;
+        private final String[] dependencies;
+
+        private DiskEntry(Path file, int size, String mimeType, String[] dependencies) {
+            this.file = file;
+            this.size = size;
+            this.mimeType = mimeType;
+            this.dependencies = dependencies;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.io.IOException;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.json.Json;
+import javax.servlet.Servlet;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.servlets.HttpConstants;
+import org.apache.sling.api.servlets.SlingAllMethodsServlet;
+import org.apache.sling.event.jobs.Job;
+import org.apache.sling.servlets.annotations.SlingServletResourceTypes;
+import org.jetbrains.annotations.NotNull;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Queues the {@link AdaptiveImageRenditionGenerator rendition generation} of all the assets under a DAM folder.
+ * <p>
+ * Usage: {@code POST /content/dam/folder.adaptive-renditions.json}; the response contains the identifier of the queued job. Only users
+ * that can add nodes to the folder are allowed to queue it.
+ */
+@Component(service = Servlet.class)
+@SlingServletResourceTypes(
+        resourceTypes = {"sling:Folder", "sling:OrderedFolder"},
+        methods = HttpConstants.METHOD_POST,
+        selectors = "adaptive-renditions",
+        extensions = "json"
+)
+public class AdaptiveImageRenditionGenerationServlet extends SlingAllMethodsServlet {
+
+    private static final long serialVersionUID = 1L;
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveImageRenditionGenerationServlet.class);
+
+    @Reference
+    private transient AdaptiveImageRenditionGenerator generator;
+
+    @Override
+    protected void doPost(@NotNull SlingHttpServletRequest request, @NotNull SlingHttpServletResponse response) throws IOException {
+        Resource folder = request.getResource();
+        if (!folder.getPath().startsWith("/content/dam/")) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        if (!canModify(request, folder)) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        Job job = generator.queueFolder(folder.getPath());
+        if (job == null) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        response.setStatus(HttpServletResponse.SC_ACCEPTED);
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().write(Json.createObjectBuilder()
+                .add("path", folder.getPath())
+                .add("job", job.getId())
+                .build()
+                .toString());
+    }
+
+    private boolean canModify(@NotNull SlingHttpServletRequest request, @NotNull Resource folder) {
+        Session session = request.getResourceResolver().adaptTo(Session.class);
+        if (session == null) {
+            return false;
+        }
+        try {
+            // checks whether a child node could be added to the folder
+            return session.hasPermission(folder.getPath() + "/adaptive-renditions", Session.ACTION_ADD_NODE);
+        } catch (RepositoryException e) {
+            LOG.warn("Unable to check the permissions of {} on {}.", session.getUserID(), folder.getPath(), e);
+            return false;
+        }
+    }
+}
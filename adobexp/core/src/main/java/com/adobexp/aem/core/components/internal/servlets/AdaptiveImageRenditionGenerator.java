@@ -0,0 +1,503 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.query.Query;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.apache.sling.commons.metrics.Timer;
+import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.JobManager;
+import org.apache.sling.event.jobs.consumer.JobExecutionContext;
+import org.apache.sling.event.jobs.consumer.JobExecutionResult;
+import org.apache.sling.event.jobs.consumer.JobExecutor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adobexp.aem.core.components.models.Image;
+import com.day.cq.commons.jcr.JcrConstants;
+import com.day.cq.dam.api.Asset;
+import com.day.cq.dam.api.DamConstants;
+import com.day.cq.dam.api.Rendition;
+import com.day.image.Layer;
+
+/**
+ * Generates, in the background, the DAM renditions that the {@link AdaptiveImageServlet} needs for the widths allowed by the image
+ * component policies, so that the servlet can stream them instead of transforming the original on the first request. Assets are
+ * processed when their original is uploaded or modified, and all the assets of a folder can be queued at once. The jobs run in the
+ * {@code adobexp-adaptive-renditions} Sling job queue, whose configuration bounds the number of assets processed in parallel. The
+ * {@link AdaptiveImagePlaceholder placeholder} of the asset is created from the same decoded original. The renditions are encoded with
+ * the JPEG quality of the policies that allow their width, so that they are identical to the images the servlet would render.
+ */
+@Designate(ocd = AdaptiveImageRenditionGenerator.Config.class)
+@Component(
+        service = {AdaptiveImageRenditionGenerator.class, JobExecutor.class, ResourceChangeListener.class},
+        property = {
+                JobExecutor.PROPERTY_TOPICS + "=" + AdaptiveImageRenditionGenerator.TOPIC_ASSET,
+                JobExecutor.PROPERTY_TOPICS + "=" + AdaptiveImageRenditionGenerator.TOPIC_FOLDER,
+                ResourceChangeListener.PATHS + "=" + AdaptiveImageRenditionGenerator.DAM_ROOT,
+                ResourceChangeListener.CHANGES + "=ADDED",
+                ResourceChangeListener.CHANGES + "=CHANGED"
+        }
+)
+public class AdaptiveImageRenditionGenerator implements JobExecutor, ResourceChangeListener {
+
+    @ObjectClassDefinition(
+            name = "AEM Core WCM Components Adaptive Image Rendition Generator",
+            description = "Pre-generates the DAM renditions of the widths allowed by the image component policies."
+    )
+    @interface Config {
+
+        @AttributeDefinition(
+                name = "Enabled",
+                description = "Generate the renditions when an original is uploaded or modified and accept bulk requests. Should " +
+                        "only be enabled on author instances."
+        )
+        boolean enabled() default false;
+
+        @AttributeDefinition(
+                name = "Widths",
+                description = "The widths to generate. When empty, the allowed rendition widths of all the policies under /conf " +
+                        "are used. Widths allowed by policies with different JPEG qualities are not generated."
+        )
+        int[] widths() default {};
+    }
+
+    static final String TOPIC_ASSET = "com/adobexp/aem/core/components/adaptiveimage/renditions/asset";
+    static final String TOPIC_FOLDER = "com/adobexp/aem/core/components/adaptiveimage/renditions/folder";
+    static final String PROPERTY_PATH = "path";
+    static final String RENDITION_PREFIX = "adobexp.adaptive.";
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveImageRenditionGenerator.class);
+    private static final String DAM_ROOT = "/content/dam";
+    private static final String ORIGINAL_SUFFIX = "/" + JcrConstants.JCR_CONTENT + "/" + DamConstants.RENDITIONS_FOLDER + "/" +
+            DamConstants.ORIGINAL_FILE;
+    private static final String SERVICE_NAME = "rendition-generator";
+    private static final Set<String> SUPPORTED_MIME_TYPES = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList("image/jpeg",
+            "image/png")));
+    private static final String POLICY_WIDTHS_QUERY = "SELECT * FROM [nt:base] AS policy WHERE ISDESCENDANTNODE(policy, '/conf') " +
+            "AND policy.[" + Image.PN_DESIGN_ALLOWED_RENDITION_WIDTHS + "] IS NOT NULL";
+    private static final long POLICY_WIDTHS_TTL = TimeUnit.MINUTES.toMillis(5);
+    // quality of the widths allowed by policies that define different qualities
+    private static final int CONFLICTING_QUALITY = -1;
+    // last modified date of the original a rendition was generated from
+    private static final String PN_SOURCE_LAST_MODIFIED = "sourceLastModified";
+    // decoding width of the originals that only need a placeholder; large enough for a smooth downscale
+    private static final int PLACEHOLDER_DECODE_WIDTH = 256;
+
+    @Reference
+    private JobManager jobManager;
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    @Reference
+    private AdaptiveImagePixelMemoryBudget pixelMemoryBudget;
+
+    @Reference
+    private AdaptiveImageServletMetrics metrics;
+
+    private volatile boolean enabled;
+    private volatile List<Integer> configuredWidths;
+    private volatile Map<Integer, Integer> policyQualities;
+    private volatile long policyQualitiesExpiry;
+
+    @Activate
+    @Modified
+    protected void activate(Config config) {
+        enabled = config.enabled();
+        List<Integer> widths = new ArrayList<>();
+        for (int width : config.widths()) {
+            if (width > 0) {
+                widths.add(width);
+            }
+        }
+        configuredWidths = Collections.unmodifiableList(widths);
+        policyQualities = null;
+    }
+
+    /**
+     * Queues the rendition generation of all the assets under the given folder.
+     *
+     * @param folderPath the folder path
+     * @return the job or {@code null} if the generation is disabled or the job couldn't be queued
+     */
+    @Nullable
+    Job queueFolder(@NotNull String folderPath) {
+        if (!enabled) {
+            return null;
+        }
+        return jobManager.addJob(TOPIC_FOLDER, Collections.singletonMap(PROPERTY_PATH, folderPath));
+    }
+
+    @Override
+    public void onChange(@NotNull List<ResourceChange> changes) {
+        if (!enabled) {
+            return;
+        }
+        Set<String> assetPaths = new LinkedHashSet<>();
+        for (ResourceChange change : changes) {
+            String path = change.getPath();
+            int index = path.indexOf(ORIGINAL_SUFFIX);
+            if (index > 0 && (path.length() == index + ORIGINAL_SUFFIX.length() || path.charAt(index + ORIGINAL_SUFFIX.length()) == '/')) {
+                assetPaths.add(path.substring(0, index));
+            }
+        }
+        if (assetPaths.isEmpty()) {
+            return;
+        }
+        try (ResourceResolver resolver = resourceResolverFactory.getServiceResourceResolver(
+                Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, SERVICE_NAME))) {
+            for (String assetPath : assetPaths) {
+                if (isOriginalChanged(resolver, assetPath)) {
+                    queueAsset(assetPath);
+                }
+            }
+        } catch (LoginException e) {
+            LOG.error("Unable to open a service resource resolver for the {} sub-service.", SERVICE_NAME, e);
+        }
+    }
+
+    /**
+     * Checks if the original of an asset changed since its renditions were generated, so that changes that don't rewrite the original
+     * (e.g. to its properties) or that were already processed don't queue a job.
+     */
+    private boolean isOriginalChanged(@NotNull ResourceResolver resolver, @NotNull String assetPath) {
+        Resource assetResource = resolver.getResource(assetPath);
+        Asset asset = assetResource != null ? assetResource.adaptTo(Asset.class) : null;
+        Rendition original = asset != null && SUPPORTED_MIME_TYPES.contains(asset.getMimeType()) ? asset.getOriginal() : null;
+        if (original == null) {
+            return false;
+        }
+        long sourceLastModified = getLastModified(original);
+        boolean generated = false;
+        for (Rendition rendition : asset.getRenditions()) {
+            if (rendition.getName().startsWith(RENDITION_PREFIX)) {
+                if (isMissingOrOutdated(rendition, sourceLastModified)) {
+                    return true;
+                }
+                generated = true;
+            }
+        }
+        return !generated;
+    }
+
+    @Override
+    public JobExecutionResult process(Job job, JobExecutionContext context) {
+        String path = job.getProperty(PROPERTY_PATH, String.class);
+        if (StringUtils.isEmpty(path)) {
+            return context.result().message("Missing path.").cancelled();
+        }
+        try (ResourceResolver resolver = resourceResolverFactory.getServiceResourceResolver(
+                Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, SERVICE_NAME))) {
+            if (TOPIC_FOLDER.equals(job.getTopic())) {
+                return processFolder(resolver, path, context);
+            }
+            return processAsset(resolver, path, context);
+        } catch (LoginException e) {
+            LOG.error("Unable to open a service resource resolver for the {} sub-service.", SERVICE_NAME, e);
+            return context.result().message(e.getMessage()).failed();
+        }
+    }
+
+    private JobExecutionResult processFolder(@NotNull ResourceResolver resolver, @NotNull String folderPath,
+                                             @NotNull JobExecutionContext context) {
+        Resource folder = resolver.getResource(folderPath);
+        if (folder == null) {
+            return context.result().message("Folder " + folderPath + " not found.").cancelled();
+        }
+        List<String> assetPaths = new ArrayList<>();
+        collectAssets(folder, assetPaths);
+        context.initProgress(assetPaths.size(), -1);
+        for (String assetPath : assetPaths) {
+            if (context.isStopped()) {
+                return context.result().message("Stopped.").cancelled();
+            }
+            queueAsset(assetPath);
+            context.incrementProgressCount(1);
+        }
+        LOG.info("Queued the rendition generation of {} assets under {}.", assetPaths.size(), folderPath);
+        return context.result().message("Queued " + assetPaths.size() + " assets.").succeeded();
+    }
+
+    private JobExecutionResult processAsset(@NotNull ResourceResolver resolver, @NotNull String assetPath,
+                                            @NotNull JobExecutionContext context) {
+        Timer.Context duration = metrics.startRenditionPregenerationRecording();
+        try {
+            Resource assetResource = resolver.getResource(assetPath);
+            Asset asset = assetResource != null ? assetResource.adaptTo(Asset.class) : null;
+            if (asset == null || !SUPPORTED_MIME_TYPES.contains(asset.getMimeType()) || asset.getOriginal() == null) {
+                metrics.markRenditionPregenerationCompleted();
+                return context.result().message("Nothing to generate.").succeeded();
+            }
+            int generated = generate(resolver, asset, context);
+            if (generated < 0) {
+                metrics.markRenditionPregenerationFailed();
+                return context.result().message("Not enough pixel memory.").failed();
+            }
+            metrics.markRenditionPregenerationCompleted();
+            return context.result().message("Generated " + generated + " renditions.").succeeded();
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Unable to generate the renditions of asset {}.", assetPath, e);
+            metrics.markRenditionPregenerationFailed();
+            return context.result().message(e.getMessage()).failed();
+        } finally {
+            duration.stop();
+        }
+    }
+
+    /**
+     * Generates the missing or outdated renditions of the given asset.
+     *
+     * @return the number of generated renditions or {@code -1} if the pixel memory for decoding the original was not available
+     */
+    private int generate(@NotNull ResourceResolver resolver, @NotNull Asset asset, @NotNull JobExecutionContext context)
+            throws IOException {
+        Rendition original = asset.getOriginal();
+        Dimension dimension;
+        try (InputStream is = original.getStream()) {
+            dimension = is != null ? SubsamplingImageDecoder.readDimension(is) : null;
+        }
+        if (dimension == null || dimension.width <= 0 || dimension.height <= 0) {
+            return 0;
+        }
+        long sourceLastModified = getLastModified(original);
+        String extension = StringUtils.substringAfter(asset.getMimeType(), "/");
+        TreeMap<Integer, Integer> widths = new TreeMap<>(Collections.reverseOrder());
+        for (Map.Entry<Integer, Integer> width : getWidths(resolver).entrySet()) {
+            if (width.getKey() < dimension.width &&
+                    isMissingOrOutdated(asset.getRendition(getRenditionName(width.getKey(), extension)), sourceLastModified)) {
+                widths.put(width.getKey(), width.getValue());
+            }
+        }
+        boolean placeholder = isMissingOrOutdated(asset.getRendition(AdaptiveImagePlaceholder.RENDITION_NAME), sourceLastModified);
+        if (widths.isEmpty() && !placeholder) {
+            return 0;
+        }
+        context.initProgress(widths.size() + (placeholder ? 1 : 0), -1);
+        int largestWidth = widths.isEmpty() ? Math.min(dimension.width, PLACEHOLDER_DECODE_WIDTH) : widths.firstKey();
+        int subsampling = SubsamplingImageDecoder.getSubsampling(dimension.width, dimension.height, largestWidth, 0);
+        try (AdaptiveImagePixelMemoryBudget.Scope memory = pixelMemoryBudget.newScope()) {
+            if (!memory.reserve(AdaptiveImagePixelMemoryBudget.estimate(
+                    (dimension.width + subsampling - 1) / subsampling, (dimension.height + subsampling - 1) / subsampling))) {
+                return -1;
+            }
+            BufferedImage source = decode(original, largestWidth);
+            if (source == null) {
+                return 0;
+            }
+            int generated = 0;
+            for (Map.Entry<Integer, Integer> entry : widths.entrySet()) {
+                if (context.isStopped()) {
+                    break;
+                }
+                int width = entry.getKey();
+                int height = Math.max(1, Math.round(dimension.height * (width / (float) dimension.width)));
+                // every width is resized from the decoded original, so that resampling errors don't add up
+                Layer layer = new Layer(source);
+                layer.resize(width, height);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                layer.write(asset.getMimeType(), entry.getValue() / 100.0d, out);
+                Rendition rendition = asset.addRendition(getRenditionName(width, extension), new ByteArrayInputStream(out.toByteArray()),
+                        asset.getMimeType());
+                setProperties(resolver, rendition, sourceLastModified, width, height);
+                metrics.markRenditionPregenerated();
+                context.incrementProgressCount(1);
+                generated++;
+            }
+            if (placeholder && !context.isStopped() && AdaptiveImagePlaceholder.isSupported(source)) {
+                Rendition rendition = asset.addRendition(AdaptiveImagePlaceholder.RENDITION_NAME,
+                        new ByteArrayInputStream(AdaptiveImagePlaceholder.create(source)), AdaptiveImagePlaceholder.MIME_TYPE);
+                setProperties(resolver, rendition, sourceLastModified, 0, 0);
+                metrics.markRenditionPregenerated();
+                context.incrementProgressCount(1);
+                generated++;
+            }
+            return generated;
+        }
+    }
+
+    @Nullable
+    private BufferedImage decode(@NotNull Rendition original, int width) throws IOException {
+        try (InputStream is = original.getStream()) {
+            if (is == null) {
+                return null;
+            }
+            BufferedImage image = SubsamplingImageDecoder.decode(is, null, width, 0);
+            if (image != null) {
+                return image;
+            }
+        }
+        try (InputStream is = original.getStream()) {
+            return is != null ? new Layer(is).getImage() : null;
+        }
+    }
+
+    /**
+     * Records the original a rendition was generated from and, if known, the dimension of the rendition, so that it doesn't have to be
+     * read from the binary.
+     */
+    private void setProperties(@NotNull ResourceResolver resolver, @Nullable Rendition rendition, long sourceLastModified, int width,
+                               int height) {
+        Resource content = rendition != null ? rendition.getChild(JcrConstants.JCR_CONTENT) : null;
+        ModifiableValueMap properties = content != null ? content.adaptTo(ModifiableValueMap.class) : null;
+        if (properties != null) {
+            properties.put(PN_SOURCE_LAST_MODIFIED, sourceLastModified);
+            if (width > 0 && height > 0) {
+                properties.put(DamConstants.TIFF_IMAGEWIDTH, String.valueOf(width));
+                properties.put(DamConstants.TIFF_IMAGELENGTH, String.valueOf(height));
+            }
+            try {
+                resolver.commit();
+            } catch (PersistenceException e) {
+                LOG.warn("Unable to store the properties of rendition {}.", rendition.getPath(), e);
+                resolver.revert();
+            }
+        }
+    }
+
+    private boolean isMissingOrOutdated(@Nullable Rendition rendition, long sourceLastModified) {
+        if (rendition == null) {
+            return true;
+        }
+        Long renditionSource = rendition.getProperties().get(PN_SOURCE_LAST_MODIFIED, Long.class);
+        if (renditionSource != null) {
+            return renditionSource != sourceLastModified;
+        }
+        // generated before the original was recorded
+        Calendar renditionModified = rendition.getProperties().get(JcrConstants.JCR_LASTMODIFIED, Calendar.class);
+        return sourceLastModified > 0 && (renditionModified == null || renditionModified.getTimeInMillis() < sourceLastModified);
+    }
+
+    private static long getLastModified(@NotNull Rendition rendition) {
+        Calendar lastModified = rendition.getProperties().get(JcrConstants.JCR_LASTMODIFIED, Calendar.class);
+        return lastModified != null ? lastModified.getTimeInMillis() : 0;
+    }
+
+    /**
+     * Returns the widths to generate, along with the JPEG quality to encode them with: the configured widths or, if none are
+     * configured, the allowed rendition widths of the policies. Widths allowed by policies with different qualities are skipped, since
+     * a single rendition cannot match all of them.
+     */
+    @NotNull
+    private Map<Integer, Integer> getWidths(@NotNull ResourceResolver resolver) {
+        Map<Integer, Integer> qualities = getPolicyQualities(resolver);
+        Map<Integer, Integer> widths = new TreeMap<>();
+        for (int width : configuredWidths.isEmpty() ? qualities.keySet() : configuredWidths) {
+            int quality = qualities.getOrDefault(width, AdaptiveImageServlet.DEFAULT_JPEG_QUALITY);
+            if (quality != CONFLICTING_QUALITY) {
+                widths.put(width, quality);
+            } else {
+                LOG.debug("Not generating width {}, which is allowed by policies with different JPEG qualities.", width);
+            }
+        }
+        return widths;
+    }
+
+    /**
+     * Returns the JPEG quality of the policies by allowed rendition width, or {@link #CONFLICTING_QUALITY} for the widths allowed by
+     * policies with different qualities.
+     */
+    @NotNull
+    private Map<Integer, Integer> getPolicyQualities(@NotNull ResourceResolver resolver) {
+        Map<Integer, Integer> qualities = policyQualities;
+        if (qualities == null || System.currentTimeMillis() > policyQualitiesExpiry) {
+            Map<Integer, Integer> collected = new TreeMap<>();
+            Iterator<Resource> policies = resolver.findResources(POLICY_WIDTHS_QUERY, Query.JCR_SQL2);
+            while (policies.hasNext()) {
+                ValueMap properties = policies.next().getValueMap();
+                int quality = properties.get(Image.PN_DESIGN_JPEG_QUALITY, AdaptiveImageServlet.DEFAULT_JPEG_QUALITY);
+                for (String width : properties.get(Image.PN_DESIGN_ALLOWED_RENDITION_WIDTHS, new String[0])) {
+                    try {
+                        int value = Integer.parseInt(width.trim());
+                        if (value > 0) {
+                            collected.merge(value, quality, (previous, current) -> previous.equals(current) ? previous :
+                                    CONFLICTING_QUALITY);
+                        }
+                    } catch (NumberFormatException e) {
+                        LOG.debug("Ignoring invalid allowed rendition width {}.", width);
+                    }
+                }
+            }
+            qualities = Collections.unmodifiableMap(collected);
+            policyQualities = qualities;
+            policyQualitiesExpiry = System.currentTimeMillis() + POLICY_WIDTHS_TTL;
+        }
+        return qualities;
+    }
+
+    private void queueAsset(@NotNull String assetPath) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(PROPERTY_PATH, assetPath);
+        if (jobManager.addJob(TOPIC_ASSET, properties) != null) {
+            metrics.markRenditionPregenerationQueued();
+        } else {
+            LOG.warn("Unable to queue the rendition generation of asset {}.", assetPath);
+        }
+    }
+
+    private void collectAssets(@NotNull Resource resource, @NotNull List<String> assetPaths) {
+        for (Resource child : resource.getChildren()) {
+            if (DamConstants.NT_DAM_ASSET.equals(child.getResourceType())) {
+                assetPaths.add(child.getPath());
+            } else if (!JcrConstants.JCR_CONTENT.equals(child.getName())) {
+                collectAssets(child, assetPaths);
+            }
+        }
+    }
+
+    @NotNull
+    static String getRenditionName(int width, @NotNull String extension) {
+        return RENDITION_PREFIX + width + "." + extension;
+    }
+}
@@ -17,11 +17,16 @@ package com.adobexp.aem.core.components.internal.servlets;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
@@ -33,7 +38,6 @@ import java.util.TreeSet;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.CharEncoding;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.jackrabbit.JcrConstants;
@@ -55,6 +59,8 @@ import org.slf4j.LoggerFactory;
 import com.adobexp.aem.core.components.commons.link.LinkManager;
 import com.adobexp.aem.core.components.internal.models.AbstractImageDelegatingModel;
 import com.adobexp.aem.core.components.internal.resource.CoreResourceWrapper;
+import com.adobexp.aem.core.components.internal.services.AssetSnapshots;
+import com.adobexp.aem.core.components.internal.services.ContentPolicyCache;
 import com.adobexp.aem.core.components.models.Image;
 import com.day.cq.commons.DownloadResource;
 import com.day.cq.commons.ImageResource;
@@ -105,6 +111,10 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
     private static final String DEFAULT_MIME = "image/jpeg";
     private static final String SELECTOR_QUALITY_KEY = "quality";
     private static final String SELECTOR_WIDTH_KEY = "width";
+    static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String ATTR_CONTENT_POLICY = AdaptiveImageServlet.class.getName() + ".contentPolicy:";
+    private static final String DERIVED_ALLOWED_RENDITION_WIDTHS = AdaptiveImageServlet.class.getName() + ".allowedRenditionWidths";
     private int defaultResizeWidth;
     private int maxInputWidth;
 
@@ -114,13 +124,56 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
 
     private transient AssetStore assetStore;
 
+    private transient AdaptiveImageRenditionCache renditionCache;
+
+    private transient AdaptiveImageTransformationCoalescer coalescer;
+
+    private transient AdaptiveImageTransformationLimiter limiter;
+
+    private transient AdaptiveImageCachePolicy cachePolicy;
+
+    private transient AdaptiveImageClientHints clientHints;
+
+    private transient AdaptiveImageEncoder encoder;
+
+    private transient AdaptiveImageQualitySearch qualitySearch;
+
+    private boolean pyramidRendering;
+
+    private transient AdaptiveImagePixelMemoryBudget pixelMemoryBudget;
+
+    private transient AdaptiveImageConditionalRequestIndex conditionalRequestIndex;
+
+    private transient AssetRenditionIndex renditionIndex;
+
+    private transient ContentPolicyCache policyCache;
+
+    private transient AssetSnapshots assetSnapshots;
+
     public AdaptiveImageServlet(MimeTypeService mimeTypeService, AssetStore assetStore, AdaptiveImageServletMetrics metrics,
-            int defaultResizeWidth, int maxInputWidth) {
+            AdaptiveImageRenditionCache renditionCache, AdaptiveImageTransformationCoalescer coalescer,
+            AdaptiveImageTransformationLimiter limiter, AdaptiveImageCachePolicy cachePolicy, AdaptiveImageClientHints clientHints,
+            AdaptiveImageEncoder encoder, AdaptiveImageQualitySearch qualitySearch, AdaptiveImagePixelMemoryBudget pixelMemoryBudget,
+            AdaptiveImageConditionalRequestIndex conditionalRequestIndex, AssetRenditionIndex renditionIndex, ContentPolicyCache policyCache,
+            AssetSnapshots assetSnapshots, int defaultResizeWidth, int maxInputWidth, boolean pyramidRendering) {
         this.mimeTypeService = mimeTypeService;
         this.assetStore = assetStore;
         this.metrics = metrics;
+        this.renditionCache = renditionCache;
+        this.coalescer = coalescer;
+        this.limiter = limiter;
+        this.cachePolicy = cachePolicy;
+        this.clientHints = clientHints;
+        this.encoder = encoder;
+        this.qualitySearch = qualitySearch;
+        this.pixelMemoryBudget = pixelMemoryBudget;
+        this.conditionalRequestIndex = conditionalRequestIndex;
+        this.renditionIndex = renditionIndex;
+        this.policyCache = policyCache;
+        this.assetSnapshots = assetSnapshots;
         this.defaultResizeWidth = defaultResizeWidth > 0 ? defaultResizeWidth : DEFAULT_RESIZE_WIDTH;
         this.maxInputWidth = maxInputWidth > 0 ? maxInputWidth : DEFAULT_MAX_SIZE;
+        this.pyramidRendering = pyramidRendering;
     }
 
     @Override
@@ -128,6 +181,11 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
         Timer.Context requestDuration = metrics.startDurationRecording();
         try {
             metrics.markServletInvocation();
+            if (handleIndexedConditionalRequest(request, response)) {
+                return;
+            }
+            long indexGeneration = conditionalRequestIndex.getGeneration();
+            Timer.Context resolutionDuration = metrics.startResolutionRecording();
             RequestPathInfo requestPathInfo = request.getRequestPathInfo();
             List<String> selectorList = selectorToList(requestPathInfo.getSelectorString());
             String suffix = requestPathInfo.getSuffix();
@@ -191,15 +249,16 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
             }
             Asset asset = null;
             if (imageComponent.source == Source.ASSET) {
-                asset = imageComponent.imageResource.adaptTo(Asset.class);
-                if (asset == null) {
+                AssetSnapshots.Snapshot snapshot = assetSnapshots.get(request, imageComponent.imageResource);
+                if (snapshot == null) {
                     LOGGER.error("Unable to adapt resource {} used by image {} to an asset.", imageComponent.imageResource.getPath(),
                             component.getPath());
                     metrics.markImageErrors();
                     response.sendError(HttpServletResponse.SC_NOT_FOUND);
                     return;
                 }
-                long assetLastModifiedEpoch = asset.getLastModified();
+                asset = snapshot.getAsset();
+                long assetLastModifiedEpoch = snapshot.getLastModified();
                 if (assetLastModifiedEpoch > lastModifiedEpoch) {
                     lastModifiedEpoch = assetLastModifiedEpoch;
                 }
@@ -221,42 +280,158 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
                     return;
                 }
             }
-            if (!handleIfModifiedSinceHeader(request, response, lastModifiedEpoch)) {
-
-                Map<String, Integer> transformationMap = getTransformationMap(selectorList, component, request);
-                Integer jpegQualityInPercentage = transformationMap.get(SELECTOR_QUALITY_KEY);
-                double quality = jpegQualityInPercentage / 100.0d;
-                int resizeWidth = transformationMap.get(SELECTOR_WIDTH_KEY);
-                String imageType = getImageType(requestPathInfo.getExtension());
-
-                if (imageComponent.source == Source.FILE) {
-                    transformAndStreamFile(response, componentProperties, resizeWidth, quality,
-                            imageComponent.imageResource, imageType, imageName);
-                } else if (imageComponent.source == Source.ASSET) {
-                    transformAndStreamAsset(response, componentProperties, resizeWidth, quality, asset, imageType,
-                            imageName);
+            Map<String, Integer> transformationMap = getTransformationMap(selectorList, component, request);
+            Integer jpegQualityInPercentage = transformationMap.get(SELECTOR_QUALITY_KEY);
+            double quality = jpegQualityInPercentage / 100.0d;
+            int resizeWidth = transformationMap.get(SELECTOR_WIDTH_KEY);
+            String imageType = getImageType(requestPathInfo.getExtension());
+            AdaptiveImageTransformation transformation = new AdaptiveImageTransformation(imageComponent.imageResource.getPath(),
+                    component.getPath(), lastModifiedEpoch, imageType, resizeWidth, jpegQualityInPercentage,
+                    componentProperties.get(ImageResource.PN_IMAGE_CROP, String.class), getRotation(componentProperties),
+                    componentProperties.get(Image.PN_FLIP_HORIZONTAL, Boolean.FALSE),
+                    componentProperties.get(Image.PN_FLIP_VERTICAL, Boolean.FALSE),
+                    encoder.getId() + qualitySearch.getId());
+            String etag = transformation.getETag();
+            List<Integer> hintedWidths = clientHints.appliesTo(request) ? getAllowedRenditionWidths(component, request) : null;
+            String indexKey = clientHints.getIndexKey(request, hintedWidths);
+            if (lastModifiedEpoch > 0 && indexKey != null) {
+                List<String> dependencies = new ArrayList<>(Arrays.asList(request.getResource().getPath(), component.getPath(),
+                        wrappedImageResourceWithInheritance.getPath(), imageComponent.imageResource.getPath()));
+                // the widths and the quality of requests without selectors come from the content policy
+                ContentPolicy contentPolicy = getContentPolicy(component, request);
+                if (contentPolicy != null) {
+                    dependencies.add(contentPolicy.getPath());
+                }
+                String[] indexDependencies = dependencies.toArray(new String[0]);
+                conditionalRequestIndex.put(indexKey, indexGeneration, lastModifiedEpoch, etag, indexDependencies);
+                if (hintedWidths != null) {
+                    conditionalRequestIndex.putAllowedWidths(request.getPathInfo(), indexGeneration, hintedWidths, indexDependencies);
+                }
+            }
+            resolutionDuration.stop();
+            clientHints.applyHeaders(request, response);
+            boolean fingerprinted = requestLastModifiedSuffix >= 0;
+            if (handleConditionalRequestHeaders(request, response, lastModifiedEpoch, etag)) {
+                cachePolicy.applyCacheControl(request, response, fingerprinted);
+            } else {
+                String imagePath = imageComponent.imageResource.getPath();
+                String componentPath = component.getPath();
+                // the caching headers are only set once the image is sent, so that error responses are never cached
+                Runnable cachingHeaders = () -> {
+                    cachePolicy.applyCacheControl(request, response, fingerprinted);
+                    cachePolicy.applySurrogateKeys(response, imagePath, componentPath);
+                };
+                StreamingImageResponse streamingResponse = new StreamingImageResponse(request, response, cachingHeaders);
+                // binaries that are streamed as they are are neither coalesced, limited nor buffered
+                boolean passThrough = isOriginalPassThrough(imageType) || !isTransformed(componentProperties, resizeWidth);
+                EnhancedRendition passThroughRendition = !passThrough && asset != null ?
+                        getPassThroughRendition(asset, componentProperties, resizeWidth, imageType) : null;
+                if (passThrough) {
+                    try (AdaptiveImagePixelMemoryBudget.Scope memory = pixelMemoryBudget.newScope()) {
+                        transformAndStream(streamingResponse, imageComponent, componentProperties, resizeWidth, quality,
+                                transformation.getKey(), asset, imageType, imageName, memory);
+                    }
+                } else if (passThroughRendition != null) {
+                    LOGGER.debug("Found rendition {}/{} does not require a resize for requested width of {}px; rendering.",
+                            asset.getPath(), passThroughRendition.getName(), resizeWidth);
+                    try (InputStream is = passThroughRendition.getStream()) {
+                        if (is != null) {
+                            stream(streamingResponse, is, passThroughRendition.getSize(), imageType, imageName);
+                        }
+                    }
+                } else if (!renditionCache.isEnabled()) {
+                    // without a cache to store it in, the image is rendered straight into the response instead of being buffered
+                    try (AdaptiveImageTransformationLimiter.Permit permit = limiter.acquire();
+                         AdaptiveImagePixelMemoryBudget.Scope memory = pixelMemoryBudget.newScope()) {
+                        transformAndStream(streamingResponse, imageComponent, componentProperties, resizeWidth, quality,
+                                transformation.getKey(), asset, imageType, imageName, memory);
+                    }
+                } else {
+                    CachedRendition rendition = renditionCache.get(transformation);
+                    if (rendition != null) {
+                        metrics.markRenditionCacheHit();
+                        LOGGER.debug("Found cached rendition for transformation {}; rendering.", transformation);
+                    } else {
+                        metrics.markRenditionCacheMiss();
+                        final Asset transformedAsset = asset;
+                        final Resource transformedComponent = component;
+                        if (isPyramidCandidate(imageComponent, transformation)) {
+                            // concurrent requests for any width of the asset wait for a single pyramid, which caches all the widths
+                            CachedRendition[] pyramidRendition = new CachedRendition[1];
+                            coalescer.render(transformation.withWidth(0), limiter, () -> {
+                                try (AdaptiveImageTransformationLimiter.Permit permit = limiter.acquire();
+                                     AdaptiveImagePixelMemoryBudget.Scope memory = pixelMemoryBudget.newScope()) {
+                                    pyramidRendition[0] = renderPyramid(transformation,
+                                            getAllowedRenditionWidths(transformedComponent, request), transformedAsset, quality, memory);
+                                    if (pyramidRendition[0] != null && !memory.isDegraded()) {
+                                        renditionCache.put(transformation, pyramidRendition[0]);
+                                    }
+                                    return pyramidRendition[0];
+                                }
+                            });
+                            rendition = pyramidRendition[0] != null ? pyramidRendition[0] : renditionCache.get(transformation);
+                        }
+                        if (rendition == null) {
+                            rendition = coalescer.render(transformation, limiter, () -> {
+                                try (AdaptiveImageTransformationLimiter.Permit permit = limiter.acquire();
+                                     AdaptiveImagePixelMemoryBudget.Scope memory = pixelMemoryBudget.newScope()) {
+                                    BufferingImageResponse bufferingResponse = new BufferingImageResponse(response,
+                                            renditionCache.getMaxEntrySize());
+                                    transformAndStream(bufferingResponse, imageComponent, componentProperties, resizeWidth, quality,
+                                            transformation.getKey(), transformedAsset, imageType, imageName, memory);
+                                    CachedRendition renderedRendition = bufferingResponse.toCachedRendition();
+                                    if (renderedRendition != null && !memory.isDegraded()) {
+                                        renditionCache.put(transformation, renderedRendition);
+                                    }
+                                    return renderedRendition;
+                                }
+                            });
+                        }
+                    }
+                    if (rendition != null) {
+                        streamRendition(streamingResponse, rendition, imageName);
+                    }
                 }
                 metrics.markImageStreamed();
+                metrics.markOutputMimeType(imageType);
+                metrics.markRequestedWidth(resizeWidth);
             }
         } catch (IllegalArgumentException e) {
             LOGGER.error("Invalid image request", e);
             metrics.markImageErrors();
             response.sendError(HttpServletResponse.SC_NOT_FOUND);
+        } catch (AdaptiveImageTransformationLimiter.RejectedException e) {
+            LOGGER.warn("Rejected image request {}: {}", request.getRequestURI(), e.getMessage());
+            response.setHeader("Retry-After", String.valueOf(e.getRetryAfter()));
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
         } finally {
             requestDuration.stop();
         }
 
     }
 
+    private void transformAndStream(SlingHttpServletResponse response, ImageComponent imageComponent, ValueMap componentProperties,
+                                    int resizeWidth, double quality, String qualityKey, Asset asset, String imageType, String imageName,
+                                    AdaptiveImagePixelMemoryBudget.Scope memory) throws IOException {
+        if (imageComponent.source == Source.FILE) {
+            transformAndStreamFile(response, componentProperties, resizeWidth, quality, qualityKey, imageComponent.imageResource,
+                    imageType, imageName, memory);
+        } else if (imageComponent.source == Source.ASSET) {
+            transformAndStreamAsset(response, componentProperties, resizeWidth, quality, qualityKey, asset, imageType, imageName, memory);
+        }
+    }
+
     protected void transformAndStreamAsset(SlingHttpServletResponse response, ValueMap componentProperties, int resizeWidth, double quality,
-                                         Asset asset, String imageType, String imageName) throws IOException {
+                                         String qualityKey, Asset asset, String imageType, String imageName,
+                                         AdaptiveImagePixelMemoryBudget.Scope memory) throws IOException {
         String extension = mimeTypeService.getExtension(imageType);
-        if ("gif".equalsIgnoreCase(extension) || "svg".equalsIgnoreCase(extension)) {
+        if (isOriginalPassThrough(imageType)) {
             LOGGER.debug("GIF or SVG asset detected; will render the original rendition.");
             metrics.markOriginalRenditionUsed();
-            try (InputStream is = asset.getOriginal().getStream()) {
+            Rendition original = asset.getOriginal();
+            try (InputStream is = original.getStream()) {
                 if (is != null) {
-                    stream(response, is, imageType, imageName);
+                    stream(response, is, original.getSize(), imageType, imageName);
                 }
             }
             return;
@@ -289,25 +464,36 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
                         scaling = 1.0;
                     }
                 }
-                layer = getLayer(getOriginal(asset));
-                if (layer != null) {
-                    if (Math.abs(scaling - 1.0D) != 0) {
-                        Rectangle scaledRectangle = new Rectangle(
-                                (int) (rectangle.x * scaling),
-                                (int) (rectangle.y * scaling),
-                                (int) (rectangle.getWidth() * scaling),
-                                (int) (rectangle.getHeight() * scaling)
-                        );
-                        layer.crop(scaledRectangle);
-                    } else {
-                        layer.crop(rectangle);
+                Rectangle originalRectangle = rectangle;
+                if (Math.abs(scaling - 1.0D) != 0) {
+                    originalRectangle = new Rectangle(
+                            (int) (rectangle.x * scaling),
+                            (int) (rectangle.y * scaling),
+                            (int) (rectangle.getWidth() * scaling),
+                            (int) (rectangle.getHeight() * scaling)
+                    );
+                }
+                layer = getCroppedLayer(asset, originalRectangle, originalWidth, originalHeight, resizeWidth, rotationAngle, memory);
+                if (layer == null) {
+                    layer = getLayerWithinBudget(asset, getOriginal(asset), 0, 0, memory);
+                    if (layer != null) {
+                        if (originalWidth > 0 && originalHeight > 0 && layer.getWidth() != originalWidth) {
+                            // degraded to a smaller rendition
+                            originalRectangle = scaleRegion(originalRectangle, (double) layer.getWidth() / originalWidth,
+                                    (double) layer.getHeight() / originalHeight);
+                        }
+                        layer.crop(originalRectangle);
                     }
+                }
+                if (layer != null) {
+                    LOGGER.debug("Applied cropping transformation.");
                     appliedTransformation = true;
                 }
             }
             if (rotationAngle != 0) {
                 if (layer == null) {
-                    layer = getLayer(getBestRendition(asset, resizeWidth, imageType));
+                    layer = getLayerWithinBudget(asset, getBestRendition(asset, resizeWidth, imageType), resizeWidth, rotationAngle,
+                            memory);
                 }
                 if (layer != null) {
                     layer.rotate(rotationAngle);
@@ -317,7 +503,8 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
             }
             if (flipHorizontally) {
                 if (layer == null) {
-                    layer = getLayer(getBestRendition(asset, resizeWidth, imageType));
+                    layer = getLayerWithinBudget(asset, getBestRendition(asset, resizeWidth, imageType), resizeWidth, rotationAngle,
+                            memory);
                 }
                 if (layer != null) {
                     layer.flipHorizontally();
@@ -327,7 +514,8 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
             }
             if (flipVertically) {
                 if (layer == null) {
-                    layer = getLayer(getBestRendition(asset, resizeWidth, imageType));
+                    layer = getLayerWithinBudget(asset, getBestRendition(asset, resizeWidth, imageType), resizeWidth, rotationAngle,
+                            memory);
                 }
                 if (layer != null) {
                     layer.flipVertically();
@@ -346,7 +534,7 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
                 if (originalWidth > resizeWidth) {
                     int resizeHeight = calculateResizeHeight(originalWidth, originalHeight, resizeWidth);
                     if (resizeHeight > 0 && resizeHeight != originalHeight) {
-                        layer = getLayer(rendition);
+                        layer = getLayerWithinBudget(asset, rendition, resizeWidth, 0, memory);
                         if (layer != null) {
                             if (layer.getBackground().getTransparency() != Transparency.OPAQUE &&
                                     ("jpg".equalsIgnoreCase(extension) || "jpeg".equalsIgnoreCase(extension))) {
@@ -354,41 +542,45 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
                                         rendition.getName());
                                 layer.setBackground(Color.white);
                             }
-                            layer.resize(resizeWidth, resizeHeight);
-                            response.setContentType(imageType);
-                            LOGGER.debug("Resizing asset {}/{} to requested width of {}px; rendering.",asset.getPath(), rendition.getName(), resizeWidth);
-                            layer.write(imageType, quality, response.getOutputStream());
+                            if (memory.isDegraded()) {
+                                resizeAndStreamLayer(response, layer, imageType, resizeWidth, quality, qualityKey);
+                            } else {
+                                resize(layer, resizeWidth, resizeHeight);
+                                response.setContentType(imageType);
+                                LOGGER.debug("Resizing asset {}/{} to requested width of {}px; rendering.",asset.getPath(), rendition.getName(), resizeWidth);
+                                encode(layer, imageType, quality, qualityKey, response.getOutputStream());
+                            }
                         } else {
-                            streamOrConvert(response, rendition, imageType, imageName, resizeWidth, quality);
+                            streamOrConvert(response, rendition, imageType, imageName, resizeWidth, quality, qualityKey, memory);
                         }
                     } else {
-                        streamOrConvert(response, rendition, imageType, imageName, resizeWidth, quality);
+                        streamOrConvert(response, rendition, imageType, imageName, resizeWidth, quality, qualityKey, memory);
                     }
                 } else {
-                    streamOrConvert(response, rendition, imageType, imageName, resizeWidth, quality);
+                    streamOrConvert(response, rendition, imageType, imageName, resizeWidth, quality, qualityKey, memory);
                 }
             } else {
-                resizeAndStreamLayer(response, layer, imageType, resizeWidth, quality);
+                resizeAndStreamLayer(response, layer, imageType, resizeWidth, quality, qualityKey);
             }
         } else {
             LOGGER.debug("No need to perform any processing on asset {}; rendering.", asset.getPath());
-            try (InputStream is = getOriginal(asset).getStream()) {
+            EnhancedRendition original = getOriginal(asset);
+            try (InputStream is = original.getStream()) {
                 if (is != null) {
-                    stream(response, is, imageType, imageName);
+                    stream(response, is, original.getSize(), imageType, imageName);
                 }
             }
         }
     }
 
     private void transformAndStreamFile(SlingHttpServletResponse response, ValueMap componentProperties, int
-            resizeWidth, double quality, Resource imageFile, String imageType, String imageName) throws
-            IOException {
+            resizeWidth, double quality, String qualityKey, Resource imageFile, String imageType, String imageName,
+            AdaptiveImagePixelMemoryBudget.Scope memory) throws IOException {
         try (InputStream is = imageFile.adaptTo(InputStream.class)) {
-            if ("gif".equalsIgnoreCase(mimeTypeService.getExtension(imageType))
-                    || "svg".equalsIgnoreCase(mimeTypeService.getExtension(imageType))) {
+            if (isOriginalPassThrough(imageType)) {
                 LOGGER.debug("GIF or SVG file detected; will render the original file.");
                 if (is != null) {
-                    stream(response, is, imageType, imageName);
+                    stream(response, is, imageFile.getResourceMetadata().getContentLength(), imageType, imageName);
                 }
                 return;
             }
@@ -398,9 +590,25 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
             boolean flipVertically = componentProperties.get(Image.PN_FLIP_VERTICAL, Boolean.FALSE);
             if (is != null) {
                 if (rotationAngle != 0 || rectangle != null || resizeWidth > 0 || flipHorizontally || flipVertically) {
-                    Layer layer = new Layer(is);
+                    metrics.markInputBytes(imageFile.getResourceMetadata().getContentLength());
+                    Dimension dimension = readDimension(imageFile.adaptTo(InputStream.class), imageFile.getPath());
+                    long reserved = reservePixelMemory(memory, dimension, rectangle, resizeWidth, rotationAngle, imageFile.getPath());
+                    Layer layer = decodeSubsampled(imageFile.adaptTo(InputStream.class), imageFile.getPath(), rectangle, resizeWidth,
+                            rotationAngle);
+                    if (layer == null) {
+                        reservePixelMemory(memory, dimension, null, 0, 0, imageFile.getPath(), reserved);
+                        Timer.Context decodeDuration = metrics.startDecodeRecording();
+                        try {
+                            layer = new Layer(is);
+                        } finally {
+                            decodeDuration.stop();
+                        }
+                        metrics.markDecodedPixels((long) layer.getWidth() * layer.getHeight());
+                        if (rectangle != null) {
+                            layer.crop(rectangle);
+                        }
+                    }
                     if (rectangle != null) {
-                        layer.crop(rectangle);
                         LOGGER.debug("Applied cropping transformation.");
                     }
                     if (rotationAngle != 0) {
@@ -419,15 +627,42 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
                         LOGGER.debug("Adding default (white) background to a transparent JPG: {}", imageFile.getPath());
                         layer.setBackground(Color.white);
                     }
-                    resizeAndStreamLayer(response, layer, imageType, resizeWidth, quality);
+                    resizeAndStreamLayer(response, layer, imageType, resizeWidth, quality, qualityKey);
                 } else {
                     LOGGER.debug("No need to perform any processing on file {}; rendering.", imageFile.getPath());
-                    stream(response, is, imageType, imageName);
+                    stream(response, is, imageFile.getResourceMetadata().getContentLength(), imageType, imageName);
                 }
             }
         }
     }
 
+    /**
+     * Resizes the layer, recording the duration of the operation.
+     */
+    private void resize(@NotNull Layer layer, int width, int height) {
+        Timer.Context resizeDuration = metrics.startResizeRecording();
+        try {
+            layer.resize(width, height);
+        } finally {
+            resizeDuration.stop();
+        }
+    }
+
+    /**
+     * Encodes the layer into the given stream with the {@link AdaptiveImageEncoder} of the mapping, recording the duration of the
+     * operation. The quality of JPEG images is searched if the mapping has a {@link AdaptiveImageQualitySearch perceptual quality
+     * target}.
+     */
+    private void encode(@NotNull Layer layer, @NotNull String imageType, double quality, @Nullable String qualityKey,
+                        @NotNull OutputStream out) throws IOException {
+        Timer.Context encodeDuration = metrics.startEncodeRecording();
+        try {
+            qualitySearch.encode(layer, imageType, quality, qualityKey, out);
+        } finally {
+            encodeDuration.stop();
+        }
+    }
+
     /**
      * Given a {@link Layer}, this method will attempt to resize it proportionally given the supplied {@code resizeWidth}. If the resize
      * operation would result in up-scaling, then the layer is rendered without any resize operation applied.
@@ -436,22 +671,24 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
      * @param layer       the layer
      * @param imageType   the mime type of the image represented by the {@code layer}
      * @param resizeWidth the resize width
+     * @param quality     the quality of the encoded image
+     * @param qualityKey  the key under which the {@link AdaptiveImageQualitySearch searched quality} of the image is remembered
      * @throws IOException if the streaming of the {@link Layer} into the response's output stream cannot be performed
      */
-    protected void resizeAndStreamLayer(SlingHttpServletResponse response, Layer layer, String imageType, int resizeWidth, double quality)
-            throws IOException {
+    protected void resizeAndStreamLayer(SlingHttpServletResponse response, Layer layer, String imageType, int resizeWidth, double quality,
+                                        String qualityKey) throws IOException {
         int width = layer.getWidth();
         int height = layer.getHeight();
         int resizeHeight = calculateResizeHeight(width, height, resizeWidth);
         if (resizeHeight > 0) {
-            layer.resize(resizeWidth, resizeHeight);
+            resize(layer, resizeWidth, resizeHeight);
             response.setContentType(imageType);
             LOGGER.debug("Resizing processed (cropped and/or rotated) layer from its current width of {}px to {}px.", width, resizeWidth);
-            layer.write(imageType, quality, response.getOutputStream());
+            encode(layer, imageType, quality, qualityKey, response.getOutputStream());
         } else {
             response.setContentType(imageType);
             LOGGER.debug("No need to resize processed (cropped and/or rotated) layer since it would lead to upscaling; rendering.");
-            layer.write(imageType, quality, response.getOutputStream());
+            encode(layer, imageType, quality, qualityKey, response.getOutputStream());
         }
     }
 
@@ -467,13 +704,313 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
     @Nullable
     private Layer getLayer(@NotNull EnhancedRendition rendition) {
         AssetHandler assetHandler = assetStore.getAssetHandler(rendition.getMimeType());
+        Timer.Context decodeDuration = metrics.startDecodeRecording();
         try {
             BufferedImage image = assetHandler.getImage(rendition.getRendition());
             if (image != null) {
+                metrics.markDecodedPixels((long) image.getWidth() * image.getHeight());
                 return new Layer(image);
             }
         } catch (IOException ioex) {
             LOGGER.debug("Unable to handle rendition " + rendition.getPath(), ioex);
+        } finally {
+            decodeDuration.stop();
+        }
+        return null;
+    }
+
+    /**
+     * Return a {@link Layer} based on the provided {@link EnhancedRendition}, decoded with subsampling so that it's not larger than
+     * needed for rendering it at {@code targetWidth}. Falls back to {@link #getLayer(EnhancedRendition)} if the rendition cannot be
+     * decoded this way.
+     *
+     * @param rendition   the rendition
+     * @param targetWidth the width at which the layer will be rendered
+     * @param rotation    the rotation that will be applied to the layer
+     * @param memory      the pixel memory reservations of the transformation
+     * @return a layer for the rendition or {@code null} if the rendition is not supported
+     * @throws IOException if the decoded rendition doesn't fit into the pixel memory budget
+     */
+    @Nullable
+    private Layer getLayer(@NotNull EnhancedRendition rendition, int targetWidth, int rotation,
+                           @NotNull AdaptiveImagePixelMemoryBudget.Scope memory) throws IOException {
+        Dimension dimension = rendition.getDimension();
+        long reserved = reservePixelMemory(memory, dimension, null, targetWidth, rotation, rendition.getPath());
+        metrics.markInputBytes(rendition.getSize());
+        Layer layer = decodeSubsampled(rendition.getStream(), rendition.getPath(), null, targetWidth, rotation);
+        if (layer == null) {
+            reservePixelMemory(memory, dimension, null, 0, 0, rendition.getPath(), reserved);
+            layer = getLayer(rendition);
+        }
+        return layer;
+    }
+
+    /**
+     * Like {@link #getLayer(EnhancedRendition, int, int, AdaptiveImagePixelMemoryBudget.Scope)}, but degrades to the next smaller
+     * rendition of the asset if the pixel memory budget cannot accommodate the given rendition.
+     *
+     * @param asset       the asset
+     * @param rendition   the preferred rendition
+     * @param targetWidth the width at which the layer will be rendered
+     * @param rotation    the rotation that will be applied to the layer
+     * @param memory      the pixel memory reservations of the transformation
+     * @return a layer for the rendition or {@code null} if the rendition is not supported
+     * @throws IOException if not even the smallest rendition fits into the pixel memory budget
+     */
+    @Nullable
+    private Layer getLayerWithinBudget(@NotNull Asset asset, @NotNull EnhancedRendition rendition, int targetWidth, int rotation,
+                                       @NotNull AdaptiveImagePixelMemoryBudget.Scope memory) throws IOException {
+        try {
+            return getLayer(rendition, targetWidth, rotation, memory);
+        } catch (AdaptiveImageTransformationLimiter.RejectedException e) {
+            Dimension dimension = rendition.getDimension();
+            EnhancedRendition smallerRendition = dimension != null ? getSmallerRendition(asset, dimension.width) : null;
+            if (smallerRendition == null) {
+                throw e;
+            }
+            LOGGER.info("Not enough pixel memory for decoding {}; degrading to {}.", rendition.getPath(), smallerRendition.getPath());
+            metrics.markPixelMemoryDegraded();
+            memory.markDegraded();
+            return getLayerWithinBudget(asset, smallerRendition, targetWidth, rotation, memory);
+        }
+    }
+
+    /**
+     * Returns the largest image rendition of the asset that is narrower than the given width.
+     *
+     * @param asset the asset
+     * @param width the width, in pixels
+     * @return the smaller rendition or {@code null} if there is none
+     */
+    @Nullable
+    private EnhancedRendition getSmallerRendition(@NotNull Asset asset, int width) {
+        AssetRenditionIndex.IndexedRendition smallerRendition = null;
+        for (AssetRenditionIndex.IndexedRendition candidate : renditionIndex.getRenditions(asset)) {
+            if (AdaptiveImagePlaceholder.RENDITION_NAME.equals(candidate.getName())) {
+                continue;
+            }
+            if (StringUtils.startsWith(candidate.getMimeType(), "image/") && candidate.getDimension() != null &&
+                    candidate.getWidth() < width && (smallerRendition == null || candidate.getWidth() > smallerRendition.getWidth())) {
+                smallerRendition = candidate;
+            }
+        }
+        if (smallerRendition == null) {
+            return null;
+        }
+        Rendition rendition = asset.getRendition(smallerRendition.getName());
+        return rendition != null ? new EnhancedRendition(rendition, smallerRendition.getDimension()) : null;
+    }
+
+    /**
+     * Reserves the pixel memory needed for decoding (a region of) an image with subsampling.
+     *
+     * @param memory      the pixel memory reservations of the transformation
+     * @param dimension   the dimension of the image; nothing is reserved if {@code null}
+     * @param region      the region that will be decoded; {@code null} for the whole image
+     * @param targetWidth the width at which the image will be rendered; {@code 0} if the image is decoded without subsampling
+     * @param rotation    the rotation that will be applied to the image
+     * @param path        the path of the image, for logging purposes
+     * @return the number of reserved bytes
+     * @throws IOException if the memory cannot be reserved
+     */
+    private long reservePixelMemory(@NotNull AdaptiveImagePixelMemoryBudget.Scope memory, @Nullable Dimension dimension,
+                                    @Nullable Rectangle region, int targetWidth, int rotation, @NotNull String path) throws IOException {
+        return reservePixelMemory(memory, dimension, region, targetWidth, rotation, path, 0);
+    }
+
+    /**
+     * Reserves the pixel memory needed for decoding (a region of) an image with subsampling, minus what was already reserved for the
+     * same image.
+     *
+     * @param memory      the pixel memory reservations of the transformation
+     * @param dimension   the dimension of the image; nothing is reserved if {@code null}
+     * @param region      the region that will be decoded; {@code null} for the whole image
+     * @param targetWidth the width at which the image will be rendered; {@code 0} if the image is decoded without subsampling
+     * @param rotation    the rotation that will be applied to the image
+     * @param path        the path of the image, for logging purposes
+     * @param reserved    the number of bytes already reserved for the image
+     * @return the number of bytes reserved for the image, including {@code reserved}
+     * @throws IOException if the memory cannot be reserved
+     */
+    private long reservePixelMemory(@NotNull AdaptiveImagePixelMemoryBudget.Scope memory, @Nullable Dimension dimension,
+                                    @Nullable Rectangle region, int targetWidth, int rotation, @NotNull String path, long reserved)
+            throws IOException {
+        if (dimension == null) {
+            return reserved;
+        }
+        Rectangle decoded = new Rectangle(0, 0, dimension.width, dimension.height);
+        if (region != null) {
+            decoded = decoded.intersection(region);
+        }
+        int subsampling = SubsamplingImageDecoder.getSubsampling(decoded.width, decoded.height, targetWidth, rotation);
+        long required = AdaptiveImagePixelMemoryBudget.estimate((decoded.width + subsampling - 1) / subsampling,
+                (decoded.height + subsampling - 1) / subsampling);
+        if (required > reserved) {
+            if (!memory.reserve(required - reserved)) {
+                throw new AdaptiveImageTransformationLimiter.RejectedException(
+                        String.format("Not enough pixel memory for decoding %s (%d bytes).", path, required), limiter.getRetryAfter());
+            }
+            return required;
+        }
+        return reserved;
+    }
+
+    /**
+     * Reads the dimension of an image from its header.
+     *
+     * @param inputStream the image stream; will be closed by this method
+     * @param path        the path of the image, for logging purposes
+     * @return the dimension or {@code null} if it cannot be determined
+     */
+    @Nullable
+    private Dimension readDimension(@Nullable InputStream inputStream, @NotNull String path) {
+        if (inputStream == null) {
+            return null;
+        }
+        try (InputStream is = inputStream) {
+            return SubsamplingImageDecoder.readDimension(is);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Unable to read the dimension of " + path, e);
+        }
+        return null;
+    }
+
+    /**
+     * Decodes only the region of an asset needed for a cropped image. The region is mapped onto the smallest rendition that still
+     * provides enough pixels for rendering the crop at {@code targetWidth}, and decoded with subsampling.
+     *
+     * @param asset          the asset
+     * @param region         the cropped region, in pixels of the original rendition
+     * @param originalWidth  the width of the original rendition, in pixels
+     * @param originalHeight the height of the original rendition, in pixels
+     * @param targetWidth    the width at which the cropped image will be rendered
+     * @param rotation       the rotation that will be applied to the cropped image
+     * @param memory         the pixel memory reservations of the transformation
+     * @return a layer holding the cropped region or {@code null} if the region cannot be decoded this way
+     * @throws IOException if the rendition holding the region is too large for processing or if not even the smallest rendition fits
+     * into the pixel memory budget
+     */
+    @Nullable
+    private Layer getCroppedLayer(@NotNull Asset asset, @NotNull Rectangle region, int originalWidth, int originalHeight, int targetWidth,
+                                  int rotation, @NotNull AdaptiveImagePixelMemoryBudget.Scope memory) throws IOException {
+        if (originalWidth <= 0 || originalHeight <= 0 || region.isEmpty()) {
+            return null;
+        }
+        EnhancedRendition rendition = null;
+        Dimension renditionDimension = new Dimension(originalWidth, originalHeight);
+        Rectangle renditionRegion = region;
+        int renderedRegionWidth = SubsamplingImageDecoder.getRotatedWidth(region.width, region.height, rotation);
+        if (targetWidth > 0 && renderedRegionWidth > targetWidth) {
+            int requiredWidth = (int) Math.ceil((double) originalWidth * targetWidth / renderedRegionWidth);
+            EnhancedRendition candidate = getBestRendition(asset, requiredWidth, asset.getMimeType());
+            Dimension dimension = candidate.getDimension();
+            if (dimension != null && dimension.width < originalWidth && dimension.height > 0) {
+                double scaleX = dimension.getWidth() / originalWidth;
+                double scaleY = dimension.getHeight() / originalHeight;
+                rendition = candidate;
+                renditionDimension = dimension;
+                renditionRegion = scaleRegion(region, scaleX, scaleY);
+            }
+        }
+        if (rendition == null) {
+            rendition = getOriginal(asset);
+        }
+        return getCroppedLayerWithinBudget(asset, rendition, renditionDimension, renditionRegion, region, originalWidth, originalHeight,
+                targetWidth, rotation, memory);
+    }
+
+    /**
+     * Decodes a region of the given rendition, degrading to the next smaller rendition of the asset if the pixel memory budget cannot
+     * accommodate it.
+     *
+     * @param asset               the asset
+     * @param rendition           the preferred rendition
+     * @param renditionDimension  the dimension of the rendition
+     * @param renditionRegion     the cropped region, in pixels of the rendition
+     * @param region              the cropped region, in pixels of the original rendition
+     * @param originalWidth       the width of the original rendition, in pixels
+     * @param originalHeight      the height of the original rendition, in pixels
+     * @param targetWidth         the width at which the cropped image will be rendered
+     * @param rotation            the rotation that will be applied to the cropped image
+     * @param memory              the pixel memory reservations of the transformation
+     * @return a layer holding the cropped region or {@code null} if the region cannot be decoded this way
+     * @throws IOException if not even the smallest rendition fits into the pixel memory budget
+     */
+    @Nullable
+    private Layer getCroppedLayerWithinBudget(@NotNull Asset asset, @NotNull EnhancedRendition rendition,
+                                              @NotNull Dimension renditionDimension, @NotNull Rectangle renditionRegion,
+                                              @NotNull Rectangle region, int originalWidth, int originalHeight, int targetWidth,
+                                              int rotation, @NotNull AdaptiveImagePixelMemoryBudget.Scope memory) throws IOException {
+        try {
+            reservePixelMemory(memory, renditionDimension, renditionRegion, targetWidth, rotation, rendition.getPath());
+        } catch (AdaptiveImageTransformationLimiter.RejectedException e) {
+            EnhancedRendition smallerRendition = getSmallerRendition(asset, renditionDimension.width);
+            Dimension dimension = smallerRendition != null ? smallerRendition.getDimension() : null;
+            if (dimension == null || dimension.height <= 0) {
+                throw e;
+            }
+            LOGGER.info("Not enough pixel memory for decoding a region of {}; degrading to {}.", rendition.getPath(),
+                    smallerRendition.getPath());
+            metrics.markPixelMemoryDegraded();
+            memory.markDegraded();
+            return getCroppedLayerWithinBudget(asset, smallerRendition, dimension,
+                    scaleRegion(region, dimension.getWidth() / originalWidth, dimension.getHeight() / originalHeight), region,
+                    originalWidth, originalHeight, targetWidth, rotation, memory);
+        }
+        LOGGER.debug("Decoding region {} of rendition {} for a target width of {}px.", renditionRegion, rendition.getPath(), targetWidth);
+        metrics.markInputBytes(rendition.getSize());
+        return decodeSubsampled(rendition.getStream(), rendition.getPath(), renditionRegion, targetWidth, rotation);
+    }
+
+    /**
+     * Maps a region onto an image of a different size.
+     *
+     * @param region the region
+     * @param scaleX the horizontal scaling factor
+     * @param scaleY the vertical scaling factor
+     * @return the scaled region
+     */
+    @NotNull
+    private static Rectangle scaleRegion(@NotNull Rectangle region, double scaleX, double scaleY) {
+        return new Rectangle(
+                (int) (region.x * scaleX),
+                (int) (region.y * scaleY),
+                (int) Math.ceil(region.width * scaleX),
+                (int) Math.ceil(region.height * scaleY)
+        );
+    }
+
+    /**
+     * Decodes an image with {@link SubsamplingImageDecoder}.
+     *
+     * @param inputStream the image stream; will be closed by this method
+     * @param path        the path of the image, for logging purposes
+     * @param region      the region of the image to decode; {@code null} for the whole image
+     * @param targetWidth the width at which the image will be rendered
+     * @param rotation    the rotation that will be applied to the image
+     * @return a layer for the image or {@code null} if the image cannot be decoded with subsampling
+     */
+    @Nullable
+    private Layer decodeSubsampled(@Nullable InputStream inputStream, @NotNull String path, @Nullable Rectangle region, int targetWidth,
+                                   int rotation) {
+        if (inputStream == null) {
+            return null;
+        }
+        Timer.Context decodeDuration = metrics.startDecodeRecording();
+        try (InputStream is = inputStream) {
+            if (targetWidth > 0 || region != null) {
+                BufferedImage image = SubsamplingImageDecoder.decode(is, region, targetWidth, rotation);
+                if (image != null) {
+                    LOGGER.debug("Decoded {} with subsampling to {}x{}px for a target width of {}px.", path, image.getWidth(),
+                            image.getHeight(), targetWidth);
+                    metrics.markDecodedPixels((long) image.getWidth() * image.getHeight());
+                    return new Layer(image);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Unable to decode " + path + " with subsampling; falling back to a full decode.", e);
+        } finally {
+            decodeDuration.stop();
         }
         return null;
     }
@@ -486,7 +1023,25 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
      */
     @NotNull
     private EnhancedRendition getWCMRendition(@NotNull Asset asset) {
-        return new EnhancedRendition(asset.getRendition(new WCMRenditionPicker()));
+        return getIndexedRendition(asset, asset.getRendition(new WCMRenditionPicker()));
+    }
+
+    /**
+     * Wraps a rendition of the given asset into an {@link EnhancedRendition} whose dimension is taken from the
+     * {@link AssetRenditionIndex}.
+     *
+     * @param asset     the asset
+     * @param rendition the rendition
+     * @return the rendition
+     */
+    @NotNull
+    private EnhancedRendition getIndexedRendition(@NotNull Asset asset, @NotNull Rendition rendition) {
+        for (AssetRenditionIndex.IndexedRendition indexedRendition : renditionIndex.getRenditions(asset)) {
+            if (indexedRendition.getName().equals(rendition.getName())) {
+                return new EnhancedRendition(rendition, indexedRendition.getDimension());
+            }
+        }
+        return new EnhancedRendition(rendition);
     }
 
     /**
@@ -502,20 +1057,35 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
      */
     @NotNull
     protected EnhancedRendition getBestRendition(@NotNull Asset asset, int width, @NotNull String mimeType) throws IOException {
+        Timer.Context selectionDuration = metrics.startRenditionSelectionRecording();
+        try {
+            return selectBestRendition(asset, width, mimeType);
+        } finally {
+            selectionDuration.stop();
+        }
+    }
+
+    @NotNull
+    private EnhancedRendition selectBestRendition(@NotNull Asset asset, int width, @NotNull String mimeType) throws IOException {
         // Sort renditions by file dimension
-        SortedSet<EnhancedRendition> matchingRenditions = new TreeSet<>(Comparator.comparingInt(o -> o.getDimension() == null ? 0 : o.getDimension().width));
-        SortedSet<EnhancedRendition> nonMatchingRenditions = new TreeSet<>(Comparator.comparingInt(o -> o.getDimension() == null ? 0 : o.getDimension().width));
+        SortedSet<AssetRenditionIndex.IndexedRendition> matchingRenditions =
+                new TreeSet<>(Comparator.comparingInt(AssetRenditionIndex.IndexedRendition::getWidth));
+        SortedSet<AssetRenditionIndex.IndexedRendition> nonMatchingRenditions =
+                new TreeSet<>(Comparator.comparingInt(AssetRenditionIndex.IndexedRendition::getWidth));
 
-        for (Rendition rendition : asset.getRenditions()) {
-            EnhancedRendition enhancedRendition = new EnhancedRendition(rendition);
+        for (AssetRenditionIndex.IndexedRendition rendition : renditionIndex.getRenditions(asset)) {
+            if (AdaptiveImagePlaceholder.RENDITION_NAME.equals(rendition.getName())) {
+                // too small to be transformed
+                continue;
+            }
             if (mimeType.equals(rendition.getMimeType())) {
-                matchingRenditions.add(enhancedRendition);
+                matchingRenditions.add(rendition);
             } else {
-                nonMatchingRenditions.add(enhancedRendition);
+                nonMatchingRenditions.add(rendition);
             }
 
         }
-        EnhancedRendition bestRendition;
+        AssetRenditionIndex.IndexedRendition bestRendition;
         if (!matchingRenditions.isEmpty()) {
             // Find first rendition in mime-type matching set that has a width larger or equal than wanted
             bestRendition = findBestRendition(matchingRenditions, width);
@@ -523,7 +1093,7 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
             if (bestRendition == null) {
                 // If no rendition is found for the desired width, use either the original rendition or the largest rendition
                 if (mimeType.equals(asset.getMimeType())) {
-                    bestRendition = getOriginal(asset);
+                    return getOriginal(asset);
                 } else {
                     bestRendition = matchingRenditions.last();
                 }
@@ -537,7 +1107,12 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
                 return getOriginal(asset);
             }
         }
-        return filter(bestRendition);
+        Rendition rendition = asset.getRendition(bestRendition.getName());
+        if (rendition == null) {
+            LOGGER.debug("Indexed rendition {} of asset {} no longer exists; using the original.", bestRendition.getName(), asset.getPath());
+            return getOriginal(asset);
+        }
+        return filter(new EnhancedRendition(rendition, bestRendition.getDimension()));
     }
 
     /**
@@ -548,12 +1123,11 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
      * @return The first rendition with a width higher or equal than the desired width, {@code null} if none found
      */
     @Nullable
-    private EnhancedRendition findBestRendition(SortedSet<EnhancedRendition> renditions, int width) {
-        for (EnhancedRendition rendition : renditions) {
-            Dimension dimension = rendition.getDimension();
-            if (dimension != null) {
-                if (dimension.getWidth() >= width) {
-                    if (StringUtils.equals(rendition.getPath(), rendition.getAsset().getOriginal().getPath())) {
+    private AssetRenditionIndex.IndexedRendition findBestRendition(SortedSet<AssetRenditionIndex.IndexedRendition> renditions, int width) {
+        for (AssetRenditionIndex.IndexedRendition rendition : renditions) {
+            if (rendition.getDimension() != null) {
+                if (rendition.getWidth() >= width) {
+                    if (rendition.isOriginal()) {
                         metrics.markOriginalRenditionUsed();
                     }
                     return rendition;
@@ -572,7 +1146,7 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
      */
     @NotNull
     private EnhancedRendition getOriginal(@NotNull Asset asset) throws IOException {
-        EnhancedRendition original = new EnhancedRendition(asset.getOriginal());
+        EnhancedRendition original = getIndexedRendition(asset, asset.getOriginal());
         EnhancedRendition filtered = filter(original);
         metrics.markOriginalRenditionUsed();
         return filtered;
@@ -605,57 +1179,202 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
      * @param imageName the image name
      * @param resizeWidth the width to resize the rendition to
      * @param quality the quality to use when converting the rendition
+     * @param qualityKey the key under which the searched quality of the converted rendition is remembered
+     * @param memory the pixel memory reservations of the transformation
      * @throws IOException
      */
     private void streamOrConvert(@NotNull SlingHttpServletResponse response, @NotNull EnhancedRendition rendition, @NotNull String imageType,
-                                 String imageName, int resizeWidth, double quality) throws IOException {
+                                 String imageName, int resizeWidth, double quality, @Nullable String qualityKey,
+                                 @NotNull AdaptiveImagePixelMemoryBudget.Scope memory) throws IOException {
         Dimension dimension = rendition.getDimension();
         if (rendition.getMimeType().equals(imageType)) {
             LOGGER.debug("Found rendition {}/{} has a width of {}px and does not require a resize for requested width of {}px",
                     rendition.getAsset().getPath(), rendition.getName(), dimension != null ? dimension.getWidth() : null, resizeWidth);
             try (InputStream is = rendition.getStream()) {
                 if (is != null) {
-                    stream(response, is, imageType, imageName);
+                    if (encoder.isStrippingMetadata(imageType)) {
+                        streamWithoutMetadata(response, is, rendition.getSize(), imageType, imageName);
+                    } else {
+                        stream(response, is, rendition.getSize(), imageType, imageName);
+                    }
                 }
             }
         } else {
-            Layer layer = getLayer(rendition);
+            Layer layer = getLayer(rendition, 0, 0, memory);
             if (layer == null) {
                 LOGGER.warn("Found rendition {}/{} has a width of {}px and does not require a resize for requested width of {}px " +
                                 "but the rendition is not of the requested type {}, cannot convert so serving as is",
                         rendition.getAsset().getPath(), rendition.getName(), dimension != null ? dimension.getWidth() : null, resizeWidth, imageType);
                 try (InputStream is = rendition.getStream()) {
                     if (is != null) {
-                        stream(response, is, rendition.getMimeType(), imageName);
+                        stream(response, is, rendition.getSize(), rendition.getMimeType(), imageName);
                     }
                 }
             } else {
                 LOGGER.debug("Found rendition {}/{} has a width of {}px and does not require a resize for requested width of {}px " +
                                 "but the rendition is not of the requested type {}, need to convert",
                         rendition.getAsset().getPath(), rendition.getName(), dimension != null ? dimension.getWidth() : null, resizeWidth, imageType);
-                resizeAndStreamLayer(response, layer, imageType, 0, quality);
+                resizeAndStreamLayer(response, layer, imageType, 0, quality, qualityKey);
             }
         }
     }
 
+    /**
+     * Stream a JPEG image from the given input stream, without its metadata.
+     *
+     * @param response    the {@link HttpServletResponse} to write the image to
+     * @param inputStream the input stream to read the image from
+     * @param size        the size of the image, in bytes, or {@code -1} if unknown
+     * @param contentType the mime type of the image
+     * @param imageName   the name of the image
+     * @throws IOException if the image cannot be streamed
+     * @see AdaptiveImageEncoder#stripMetadata(InputStream, OutputStream)
+     */
+    private void streamWithoutMetadata(@NotNull SlingHttpServletResponse response, @NotNull InputStream inputStream, long size,
+                                       @NotNull String contentType, String imageName) throws IOException {
+        ByteArrayOutputStream stripped = new ByteArrayOutputStream(size > 0 && size < Integer.MAX_VALUE ? (int) size : 32 * 1024);
+        long strippedBytes = AdaptiveImageEncoder.stripMetadata(inputStream, stripped);
+        LOGGER.debug("Stripped {} bytes of metadata from a {} bytes image.", strippedBytes, size);
+        stream(response, new ByteArrayInputStream(stripped.toByteArray()), stripped.size(), contentType, imageName);
+    }
+
     /**
      * Stream an image from the given input stream.
      *
      * @param response the {@link HttpServletResponse} to write the image to
      * @param inputStream the input stream to read the image from
+     * @param size the size of the image, in bytes, or {@code -1} if unknown
      * @param contentType the mime type of the image
      * @param imageName the name of the image
      * @throws IOException
      */
     @SuppressWarnings("deprecation")
-    private void stream(@NotNull SlingHttpServletResponse response, @NotNull InputStream inputStream, @NotNull String contentType,
-                        String imageName)
+    private void stream(@NotNull SlingHttpServletResponse response, @NotNull InputStream inputStream, long size,
+                        @NotNull String contentType, String imageName)
             throws IOException {
         response.setContentType(contentType);
+        setContentDisposition(response, contentType, imageName);
+        metrics.markInputBytes(size);
+        if (response instanceof BufferingImageResponse) {
+            ((BufferingImageResponse) response).writeBinary(inputStream, size);
+            return;
+        }
+        Timer.Context writeDuration = metrics.startWriteRecording();
+        try {
+            if (response instanceof BinaryImageResponse) {
+                ((BinaryImageResponse) response).writeBinary(inputStream, size);
+            } else {
+                if (size >= 0) {
+                    response.setContentLengthLong(size);
+                }
+                StreamingImageResponse.copy(inputStream, response.getOutputStream(), 0, -1);
+            }
+        } finally {
+            writeDuration.stop();
+        }
+        metrics.markOutputBytes(size);
+    }
+
+    /**
+     * Sets the {@code Content-Disposition} header of an image: SVG images are sent as attachments, the other images inline.
+     *
+     * @param response    the response
+     * @param contentType the mime type of the image
+     * @param imageName   the name of the image
+     * @throws IOException if the name of the image cannot be encoded
+     */
+    @SuppressWarnings("deprecation")
+    private void setContentDisposition(@NotNull SlingHttpServletResponse response, @NotNull String contentType, String imageName)
+            throws IOException {
         String extension = mimeTypeService.getExtension(contentType);
         String disposition = "svg".equalsIgnoreCase(extension) ? "attachment" : "inline";
         response.setHeader("Content-Disposition", disposition + "; filename=" + URLEncoder.encode(imageName, CharEncoding.UTF_8));
-        IOUtils.copy(inputStream, response.getOutputStream());
+    }
+
+    /**
+     * Stream a rendition that was rendered before. The {@code Content-Disposition} header is set for each request, since the name of
+     * the image is not part of the rendered transformation.
+     *
+     * @param response the response to write the rendition to
+     * @param rendition the rendition
+     * @param imageName the name of the image
+     * @throws IOException if the rendition cannot be written to the response
+     */
+    private void streamRendition(@NotNull StreamingImageResponse response, @NotNull CachedRendition rendition, String imageName)
+            throws IOException {
+        response.setContentType(rendition.getMimeType());
+        setContentDisposition(response, rendition.getMimeType(), imageName);
+        Timer.Context writeDuration = metrics.startWriteRecording();
+        try {
+            response.writeBinary(rendition.getData());
+        } finally {
+            writeDuration.stop();
+        }
+        metrics.markOutputBytes(rendition.getSize());
+    }
+
+    /**
+     * Checks if images of the given type are always rendered from the original binary, without any transformation (GIF and SVG).
+     *
+     * @param imageType the requested image mime type
+     * @return {@code true} if the original binary is streamed as is
+     */
+    private boolean isOriginalPassThrough(@NotNull String imageType) {
+        String extension = mimeTypeService.getExtension(imageType);
+        return "gif".equalsIgnoreCase(extension) || "svg".equalsIgnoreCase(extension);
+    }
+
+    /**
+     * Checks if the image component defines any transformation; images without transformations are rendered from the original
+     * binary.
+     *
+     * @param componentProperties the image component's properties
+     * @param resizeWidth         the requested width
+     * @return {@code true} if the image has to be transformed
+     */
+    private boolean isTransformed(@NotNull ValueMap componentProperties, int resizeWidth) {
+        return resizeWidth > 0 || getRotation(componentProperties) != 0 || getCropRect(componentProperties) != null ||
+                componentProperties.get(Image.PN_FLIP_HORIZONTAL, Boolean.FALSE) ||
+                componentProperties.get(Image.PN_FLIP_VERTICAL, Boolean.FALSE);
+    }
+
+    /**
+     * Returns the rendition of the asset that would be streamed as is by {@link #transformAndStreamAsset}: the asset is only
+     * resized and the best rendition for the requested width is of the requested type and does not need to be downscaled.
+     *
+     * @param asset               the asset
+     * @param componentProperties the image component's properties
+     * @param resizeWidth         the requested width
+     * @param imageType           the requested image mime type
+     * @return the rendition or {@code null} if the asset has to be transformed
+     * @throws IOException when the best suited rendition is too large for processing
+     */
+    @Nullable
+    private EnhancedRendition getPassThroughRendition(@NotNull Asset asset, @NotNull ValueMap componentProperties, int resizeWidth,
+                                                      @NotNull String imageType) throws IOException {
+        if (getRotation(componentProperties) != 0 || getCropRect(componentProperties) != null ||
+                componentProperties.get(Image.PN_FLIP_HORIZONTAL, Boolean.FALSE) ||
+                componentProperties.get(Image.PN_FLIP_VERTICAL, Boolean.FALSE) || encoder.isStrippingMetadata(imageType)) {
+            return null;
+        }
+        EnhancedRendition rendition = getBestRendition(asset, resizeWidth, imageType);
+        if (!rendition.getMimeType().equals(imageType)) {
+            return null;
+        }
+        int originalWidth = getDimension(asset.getMetadataValue(DamConstants.TIFF_IMAGEWIDTH));
+        int originalHeight = getDimension(asset.getMetadataValue(DamConstants.TIFF_IMAGELENGTH));
+        Dimension dimension = rendition.getDimension();
+        if (dimension != null) {
+            originalHeight = Math.round(originalHeight * (dimension.width / (float) originalWidth));
+            originalWidth = dimension.width;
+        }
+        if (originalWidth > resizeWidth) {
+            int resizeHeight = calculateResizeHeight(originalWidth, originalHeight, resizeWidth);
+            if (resizeHeight > 0 && resizeHeight != originalHeight) {
+                return null;
+            }
+        }
+        return rendition;
     }
 
     /**
@@ -664,7 +1383,7 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
      * @param properties the image component's properties
      * @return the cropping rectangle, if one is found, {@code null} otherwise
      */
-    private Rectangle getCropRect(@NotNull ValueMap properties) {
+    static Rectangle getCropRect(@NotNull ValueMap properties) {
         String csv = properties.get(ImageResource.PN_IMAGE_CROP, String.class);
         if (StringUtils.isNotEmpty(csv)) {
             try {
@@ -692,7 +1411,7 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
      * @param properties the image component's properties
      * @return the rotation angle
      */
-    private int getRotation(@NotNull ValueMap properties) {
+    static int getRotation(@NotNull ValueMap properties) {
         String rotationString = properties.get(ImageResource.PN_IMAGE_ROTATE, String.class);
         if (rotationString != null) {
             try {
@@ -718,6 +1437,100 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
         }
     }
 
+    /**
+     * Checks if the transformation can be rendered as part of a {@link #renderPyramid pyramid}: pyramid rendering is enabled for the
+     * mapping, the rendition cache that keeps the other widths is enabled and the asset is only resized.
+     *
+     * @param imageComponent the image component
+     * @param transformation the transformation
+     * @return {@code true} if the pyramid can be rendered
+     */
+    private boolean isPyramidCandidate(@NotNull ImageComponent imageComponent, @NotNull AdaptiveImageTransformation transformation) {
+        return pyramidRendering && renditionCache.isEnabled() && imageComponent.source == Source.ASSET &&
+                transformation.getWidth() > 0 && transformation.getCrop().isEmpty() && transformation.getRotation() == 0 &&
+                !transformation.isFlipHorizontally() && !transformation.isFlipVertically() &&
+                !isOriginalPassThrough(transformation.getMimeType());
+    }
+
+    /**
+     * Decodes the asset once and renders, by successive downscaling, the requested width and all the other allowed widths that are
+     * smaller than the decoded rendition. The other widths are stored in the rendition cache, so that the requests for them are served
+     * without transforming the asset again.
+     *
+     * @param transformation the requested transformation
+     * @param allowedWidths  the allowed widths of the image component
+     * @param asset          the asset
+     * @param quality        the quality
+     * @param memory         the pixel memory reservations of the transformation
+     * @return the rendition of the requested width or {@code null} if the requested width cannot be rendered as part of a pyramid
+     * @throws IOException if the asset cannot be decoded
+     */
+    @Nullable
+    private CachedRendition renderPyramid(@NotNull AdaptiveImageTransformation transformation, @NotNull List<Integer> allowedWidths,
+                                          @NotNull Asset asset, double quality, @NotNull AdaptiveImagePixelMemoryBudget.Scope memory)
+            throws IOException {
+        int resizeWidth = transformation.getWidth();
+        String imageType = transformation.getMimeType();
+        SortedSet<Integer> widths = new TreeSet<>(Collections.reverseOrder());
+        for (Integer width : allowedWidths) {
+            if (width != null && width > 0) {
+                widths.add(width);
+            }
+        }
+        if (widths.size() < 2 || !widths.contains(resizeWidth)) {
+            return null;
+        }
+        EnhancedRendition rendition = getBestRendition(asset, widths.first(), imageType);
+        Dimension dimension = rendition.getDimension();
+        if (dimension == null) {
+            return null;
+        }
+        // widths that are not smaller than the rendition are streamed as they are
+        widths.removeIf(width -> width >= dimension.width);
+        if (widths.size() < 2 || !widths.contains(resizeWidth)) {
+            return null;
+        }
+        Layer layer = getLayerWithinBudget(asset, rendition, widths.first(), 0, memory);
+        if (layer == null) {
+            return null;
+        }
+        String extension = mimeTypeService.getExtension(imageType);
+        if (layer.getBackground().getTransparency() != Transparency.OPAQUE &&
+                ("jpg".equalsIgnoreCase(extension) || "jpeg".equalsIgnoreCase(extension))) {
+            layer.setBackground(Color.white);
+        }
+        int layerWidth = layer.getWidth();
+        int layerHeight = layer.getHeight();
+        CachedRendition requested = null;
+        for (int width : widths) {
+            if (memory.isDegraded() && width != resizeWidth) {
+                // the layer was decoded from a smaller rendition; only the requested width is rendered and nothing is cached
+                if (requested != null) {
+                    break;
+                }
+                continue;
+            }
+            if (width < layer.getWidth()) {
+                int height = calculateResizeHeight(layerWidth, layerHeight, width);
+                if (height > 0) {
+                    resize(layer, width, height);
+                }
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            encode(layer, imageType, quality, transformation.withWidth(width).getKey(), out);
+            CachedRendition pyramidRendition = CachedRendition.offHeap(imageType, out.toByteArray(), out.size());
+            if (width == resizeWidth) {
+                requested = pyramidRendition;
+            } else {
+                renditionCache.put(transformation.withWidth(width), pyramidRendition);
+                metrics.markPyramidRendition();
+            }
+        }
+        LOGGER.debug("Rendered {} from a pyramid of {} widths of {}/{}.", transformation, widths.size(), asset.getPath(),
+                rendition.getName());
+        return requested;
+    }
+
     /**
      * Given an asset's width and height, together with a desired resize width, this method will calculate the resize height of the asset.
      *
@@ -740,15 +1553,16 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
 
     /**
      * <p>
-     * Checks if the {@code request} contains the {@code If-Modified-Since} header and compares this value to the passed {@code
-     * lastModified} parameter.
+     * Checks if the {@code request} contains the {@code If-None-Match} or the {@code If-Modified-Since} header and compares their values
+     * to the passed {@code etag} and {@code lastModified} parameters.
      * </p>
      * <p/>
-     * <p>If the value of {@code lastModified} is greater than 0 but less than or equal to the value of the {@code
-     * If-Modified-Since} header, then {@link HttpServletResponse#SC_NOT_MODIFIED} will be set as the {@code response} status code.</p>
+     * <p>If the value of {@code lastModified} is greater than 0 and the image was not modified according to
+     * {@link #isNotModified(SlingHttpServletRequest, long, String)}, then {@link HttpServletResponse#SC_NOT_MODIFIED} will be set as the
+     * {@code response} status code.</p>
      * <p/>
-     * <p>If the value of {@code lastModified} is greater than the value of the {@code If-Modified-Since} header, then this method will
-     * set the {@link HttpConstants#HEADER_LAST_MODIFIED} {@code response} header with the value of {@code lastModified}.</p>
+     * <p>Otherwise, this method will set the {@link HttpConstants#HEADER_LAST_MODIFIED} {@code response} header with the value of
+     * {@code lastModified}. The {@code ETag} header is set in both cases.</p>
      * <p/>
      * <p>If the value of {@code lastModified} is less than or equal to 0 this method doesn't have any effect on the {@code response}.</p>
      *
@@ -756,17 +1570,18 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
      * @param response     the response
      * @param lastModified the underlying resource's last modified date in milliseconds, expressed as UTC milliseconds from the Unix epoch
      *                     (00:00:00 UTC Thursday 1, January 1970)
+     * @param etag         the entity tag of the image
      * @return {@code true} if the {@code response}'s status code was set (to {@link HttpServletResponse#SC_NOT_MODIFIED}, {@code false}
      * otherwise
      */
-    private boolean handleIfModifiedSinceHeader(@NotNull SlingHttpServletRequest request, @NotNull SlingHttpServletResponse response,
-                                                long lastModified) {
+    private boolean handleConditionalRequestHeaders(@NotNull SlingHttpServletRequest request, @NotNull SlingHttpServletResponse response,
+                                                    long lastModified, @NotNull String etag) {
         if (lastModified > 0) {
-            long ifModifiedSince = request.getDateHeader(HttpConstants.HEADER_IF_MODIFIED_SINCE) / 1000;
-            if (lastModified / 1000 <= ifModifiedSince) {
+            response.setHeader(HEADER_ETAG, etag);
+            if (isNotModified(request, lastModified, etag)) {
                 response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
-                LOGGER.debug("If-Modified-Since header was present in the request. The resource was not changed, therefore replying with " +
-                        "a 304 status code.");
+                LOGGER.debug("If-None-Match or If-Modified-Since header was present in the request. The resource was not changed, " +
+                        "therefore replying with a 304 status code.");
                 return true;
             }
             response.setDateHeader(HttpConstants.HEADER_LAST_MODIFIED, lastModified);
@@ -774,6 +1589,71 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
         return false;
     }
 
+    /**
+     * Answers conditional requests from the {@link AdaptiveImageConditionalRequestIndex}, without resolving the image component.
+     *
+     * @param request  the request
+     * @param response the response
+     * @return {@code true} if the {@code response}'s status code was set to {@link HttpServletResponse#SC_NOT_MODIFIED}, {@code false}
+     * if the request has to be processed further
+     */
+    private boolean handleIndexedConditionalRequest(@NotNull SlingHttpServletRequest request, @NotNull SlingHttpServletResponse response) {
+        String pathInfo = request.getPathInfo();
+        if (pathInfo == null || (request.getHeader(HEADER_IF_NONE_MATCH) == null &&
+                request.getHeader(HttpConstants.HEADER_IF_MODIFIED_SINCE) == null)) {
+            return false;
+        }
+        String requestPath = clientHints.getIndexKey(request,
+                clientHints.appliesTo(request) ? conditionalRequestIndex.getAllowedWidths(pathInfo) : null);
+        if (requestPath == null) {
+            metrics.markConditionalRequestIndexMiss();
+            return false;
+        }
+        AdaptiveImageConditionalRequestIndex.Entry entry = conditionalRequestIndex.get(requestPath);
+        if (entry == null) {
+            metrics.markConditionalRequestIndexMiss();
+            return false;
+        }
+        long requestLastModifiedSuffix = getRequestLastModifiedSuffix(request.getRequestPathInfo().getSuffix());
+        if (requestLastModifiedSuffix >= 0 && requestLastModifiedSuffix != entry.getLastModified()) {
+            // outdated timestamp in the suffix; the full processing will redirect
+            return false;
+        }
+        metrics.markConditionalRequestIndexHit();
+        if (isNotModified(request, entry.getLastModified(), entry.getETag())) {
+            cachePolicy.applyCacheControl(request, response, requestLastModifiedSuffix >= 0);
+            clientHints.applyHeaders(request, response);
+            response.setHeader(HEADER_ETAG, entry.getETag());
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            LOGGER.debug("Answered conditional request for {} from the index with a 304 status code.", requestPath);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Evaluates the {@code If-None-Match} header of the request or, if it's missing, the {@code If-Modified-Since} header.
+     *
+     * @param request      the request
+     * @param lastModified the last modified date of the image
+     * @param etag         the entity tag of the image
+     * @return {@code true} if the client's copy of the image is still current
+     */
+    private boolean isNotModified(@NotNull SlingHttpServletRequest request, long lastModified, @NotNull String etag) {
+        String ifNoneMatch = request.getHeader(HEADER_IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            String opaqueTag = StringUtils.removeStart(etag, "W/");
+            for (String candidate : StringUtils.split(ifNoneMatch, ',')) {
+                String trimmed = candidate.trim();
+                if ("*".equals(trimmed) || opaqueTag.equals(StringUtils.removeStart(trimmed, "W/"))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return lastModified > 0 && lastModified / 1000 <= request.getDateHeader(HttpConstants.HEADER_IF_MODIFIED_SINCE) / 1000;
+    }
+
     private String getImageType(String ext) {
         if (ext == null) {
             return DEFAULT_MIME;
@@ -785,7 +1665,7 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
     }
 
     /**
-     * Returns the content policy bound to the given component.
+     * Returns the content policy bound to the given component. The policy is resolved once per request and image component.
      *
      * @param imageResource the resource identifying the accessed image component
      * @param request the request object
@@ -798,6 +1678,11 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
         if (request.getResource().isResourceType(IMAGE_RESOURCE_TYPE)) {
             imageResource = request.getResource();
         }
+        String attributeName = ATTR_CONTENT_POLICY + imageResource.getPath();
+        Object resolvedPolicy = request.getAttribute(attributeName);
+        if (resolvedPolicy instanceof ContentPolicy) {
+            return (ContentPolicy) resolvedPolicy;
+        }
         ContentPolicyManager policyManager = resourceResolver.adaptTo(ContentPolicyManager.class);
         if (policyManager != null) {
             ComponentManager componentManager = resourceResolver.adaptTo(ComponentManager.class);
@@ -819,12 +1704,27 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
                 }
             }
             contentPolicy = policyManager.getPolicy(imageResource, request);
+            if (contentPolicy != null) {
+                request.setAttribute(attributeName, contentPolicy);
+            }
         } else {
             LOGGER.warn("Could not get policy manager from resource resolver!");
         }
         return contentPolicy;
     }
 
+    /**
+     * Returns the cached data of the content policy bound to the given component.
+     *
+     * @param imageResource the resource identifying the accessed image component
+     * @param request the request object
+     * @return the policy data. May be {@code null} in case no content policy can be found.
+     */
+    @Nullable
+    private ContentPolicyCache.PolicyData getContentPolicyData(@NotNull Resource imageResource, @NotNull SlingHttpServletRequest request) {
+        return policyCache.get(getContentPolicy(imageResource, request));
+    }
+
     /**
      * Returns the designer bound to the given component.
      *
@@ -887,6 +1787,16 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
             } catch (IllegalArgumentException e) {
                 throw new IllegalArgumentException("Third selector must contain a valid width information (selector > 0)");
             }
+        } else if (clientHints.appliesTo(request)) {
+            int hintedWidth = clientHints.getHintedWidth(request);
+            if (hintedWidth > 0) {
+                int selectedWidth = AdaptiveImageClientHints.selectWidth(hintedWidth, getAllowedRenditionWidths(component, request));
+                if (selectedWidth > 0) {
+                    LOGGER.debug("Selected the width {} for the hinted width {}.", selectedWidth, hintedWidth);
+                    width = selectedWidth;
+                    metrics.markClientHintsWidth(selectedWidth);
+                }
+            }
         }
         selectorParameterMap.put(SELECTOR_WIDTH_KEY, width);
 
@@ -923,37 +1833,45 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
      */
     List<Integer> getAllowedRenditionWidths(@NotNull Resource imageResource, @NotNull SlingHttpServletRequest request) {
         List<Integer> list = new ArrayList<>();
-        ContentPolicy contentPolicy = getContentPolicy(imageResource, request);
-        ValueMap properties = null;
+        ContentPolicyCache.PolicyData policyData = getContentPolicyData(imageResource, request);
 
-        if (contentPolicy != null) {
-            properties = contentPolicy.getProperties();
+        if (policyData != null) {
+            list.addAll(policyData.get(DERIVED_ALLOWED_RENDITION_WIDTHS, AdaptiveImageServlet::parseAllowedRenditionWidths));
         } else {
             Designer designer = getDesigner(imageResource);
             if (designer != null) {
-                properties = designer.getStyle(imageResource);
-            }
-        }
-
-        if (properties != null) {
-            String[] allowedRenditionWidths = properties
-                .get(com.adobexp.aem.core.components.models.Image.PN_DESIGN_ALLOWED_RENDITION_WIDTHS, new String[0]);
-            for (String width : allowedRenditionWidths) {
-                try {
-                    list.add(Integer.parseInt(width));
-                } catch (NumberFormatException e) {
-                    LOGGER.warn("One of the configured widths ({}) is not a valid Integer.", width);
-                    return list;
-                }
+                list.addAll(parseAllowedRenditionWidths(designer.getStyle(imageResource)));
             }
         }
         if (list.isEmpty()) {
-            int width = this.getResizeWidth(imageResource, request) > 0 ? this.getResizeWidth(imageResource, request) : this.defaultResizeWidth;
-            list.add(width);
+            int resizeWidth = this.getResizeWidth(imageResource, request);
+            list.add(resizeWidth > 0 ? resizeWidth : this.defaultResizeWidth);
         }
         return list;
     }
 
+    /**
+     * Parses the allowed rendition widths of a content policy or style, up to the first width that is not a valid {@link Integer}.
+     *
+     * @param properties the properties of the content policy or style
+     * @return the allowed widths; the list cannot be modified
+     */
+    @NotNull
+    private static List<Integer> parseAllowedRenditionWidths(@NotNull ValueMap properties) {
+        List<Integer> list = new ArrayList<>();
+        String[] allowedRenditionWidths = properties
+            .get(com.adobexp.aem.core.components.models.Image.PN_DESIGN_ALLOWED_RENDITION_WIDTHS, new String[0]);
+        for (String width : allowedRenditionWidths) {
+            try {
+                list.add(Integer.parseInt(width));
+            } catch (NumberFormatException e) {
+                LOGGER.warn("One of the configured widths ({}) is not a valid Integer.", width);
+                break;
+            }
+        }
+        return Collections.unmodifiableList(list);
+    }
+
     /**
      * Returns the allowed JPEG quality from this component's content policy.
      *
@@ -963,9 +1881,9 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
      */
     Integer getAllowedJpegQuality(@NotNull Resource imageResource, @NotNull SlingHttpServletRequest request) {
         Integer allowedJpegQuality = DEFAULT_JPEG_QUALITY;
-        ContentPolicy contentPolicy = getContentPolicy(imageResource, request);
-        if (contentPolicy != null) {
-            allowedJpegQuality = contentPolicy.getProperties()
+        ContentPolicyCache.PolicyData policyData = getContentPolicyData(imageResource, request);
+        if (policyData != null) {
+            allowedJpegQuality = policyData.getProperties()
                     .get(com.adobexp.aem.core.components.models.Image.PN_DESIGN_JPEG_QUALITY, DEFAULT_JPEG_QUALITY);
         } else {
             Designer designer = getDesigner(imageResource);
@@ -986,9 +1904,9 @@ public class AdaptiveImageServlet extends SlingSafeMethodsServlet {
      */
     private int getResizeWidth(@NotNull Resource imageResource, @NotNull SlingHttpServletRequest request){
         int allowedResizeWidth = 0;
-        ContentPolicy contentPolicy = getContentPolicy(imageResource, request);
-        if (contentPolicy != null) {
-            allowedResizeWidth = contentPolicy.getProperties()
+        ContentPolicyCache.PolicyData policyData = getContentPolicyData(imageResource, request);
+        if (policyData != null) {
+            allowedResizeWidth = policyData.getProperties()
                 .get(Image.PN_DESIGN_RESIZE_WIDTH, 0);
         }
         return  allowedResizeWidth;
@@ -43,6 +43,8 @@ import org.osgi.service.component.annotations.ReferencePolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.adobexp.aem.core.components.internal.services.AssetSnapshots;
+import com.adobexp.aem.core.components.internal.services.ContentPolicyCache;
 import com.day.cq.dam.api.handler.store.AssetStore;
 
 /**
@@ -76,6 +78,26 @@ public class AdaptiveImageServletMappingConfigurationConsumer {
     @Reference
     AdaptiveImageServletMetrics metrics;
 
+    @Reference
+    private AdaptiveImageRenditionCache renditionCache;
+
+    @Reference
+    private AdaptiveImagePixelMemoryBudget pixelMemoryBudget;
+
+    @Reference
+    private AdaptiveImageConditionalRequestIndex conditionalRequestIndex;
+
+    @Reference
+    private AssetRenditionIndex renditionIndex;
+
+    @Reference
+    private ContentPolicyCache policyCache;
+
+    @Reference
+    private AssetSnapshots assetSnapshots;
+
+    private AdaptiveImageTransformationCoalescer coalescer;
+
 
     /**
      * Activation method
@@ -107,6 +129,7 @@ public class AdaptiveImageServletMappingConfigurationConsumer {
                     "The configuration, if it still exists, will not be reused to configure the defaultResizeWidth property of the " +
                     "servlet's registrations managed by this component.", e);
         }
+        this.coalescer = new AdaptiveImageTransformationCoalescer(metrics);
         this.bundleContext = bundleContext;
         updateServletRegistrations();
     }
@@ -156,6 +179,8 @@ public class AdaptiveImageServletMappingConfigurationConsumer {
             }
         }
         serviceRegistrations.clear();
+        // the indexed entity tags were computed with the encoder settings of the previous registrations
+        conditionalRequestIndex.clear();
 
         if (bundleContext != null) {
             for (AdaptiveImageServletMappingConfigurationFactory config : configs.values()) {
@@ -164,6 +189,11 @@ public class AdaptiveImageServletMappingConfigurationConsumer {
                 properties.put("sling.servlet.resourceTypes", config.getResourceTypes());
                 properties.put("sling.servlet.selectors", config.getSelectors());
                 properties.put("sling.servlet.extensions", config.getExtensions());
+                AdaptiveImageEncoder encoder = new AdaptiveImageEncoder(config.getJpegEncoder(), config.isProgressiveJpeg(),
+                        config.isOptimizeHuffmanTables(), config.getChromaSubsampling(), config.isStripMetadata(),
+                        config.isPaletteQuantization() ?
+                                new AdaptiveImagePaletteQuantizer(config.getPaletteMaxColors(), config.getPaletteMaxError(), metrics) :
+                                null);
                 serviceRegistrations.add(
                         bundleContext.registerService(
                                 Servlet.class.getName(),
@@ -171,8 +201,35 @@ public class AdaptiveImageServletMappingConfigurationConsumer {
                                         mimeTypeService,
                                         assetStore,
                                         metrics,
+                                        renditionCache,
+                                        coalescer,
+                                        new AdaptiveImageTransformationLimiter(
+                                                config.getMaxConcurrentTransformations(),
+                                                config.getMaxQueuedTransformations(),
+                                                config.getMaxQueueWaitTime(),
+                                                config.getRetryAfter(),
+                                                metrics),
+                                        new AdaptiveImageCachePolicy(
+                                                config.getFingerprintedMaxAge(),
+                                                config.getMaxAge(),
+                                                config.getStaleWhileRevalidate(),
+                                                config.getSurrogateKeyHeader()),
+                                        new AdaptiveImageClientHints(config.isClientHints()),
+                                        encoder,
+                                        new AdaptiveImageQualitySearch(
+                                                encoder,
+                                                config.getJpegTargetSsim(),
+                                                config.getJpegMinQuality(),
+                                                config.getJpegMaxQuality(),
+                                                metrics),
+                                        pixelMemoryBudget,
+                                        conditionalRequestIndex,
+                                        renditionIndex,
+                                        policyCache,
+                                        assetSnapshots,
                                         oldAISDefaultResizeWidth > 0 ? oldAISDefaultResizeWidth : config.getDefaultResizeWidth(),
-                                        config.getMaxSize()),
+                                        config.getMaxSize(),
+                                        config.isPyramidRendering()),
                                 properties
                         )
                 );
@@ -21,12 +21,14 @@ import java.util.List;
 
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Modified;
 import org.osgi.service.metatype.annotations.AttributeDefinition;
 import org.osgi.service.metatype.annotations.Designate;
 import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.osgi.service.metatype.annotations.Option;
 
 /**
  * Configuration factory for the adaptive image servlet mapping. Allows multiple mappings for the servlet, based on combinations
@@ -42,6 +44,14 @@ import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 )
 public class AdaptiveImageServletMappingConfigurationFactory {
 
+    static final int DEFAULT_MAX_QUEUED_TRANSFORMATIONS = 32;
+    static final long DEFAULT_MAX_QUEUE_WAIT_TIME = 5000;
+    static final int DEFAULT_RETRY_AFTER = 5;
+    static final int DEFAULT_FINGERPRINTED_MAX_AGE = 31536000;
+    static final int DEFAULT_MAX_AGE = 300;
+    static final int DEFAULT_STALE_WHILE_REVALIDATE = 3600;
+    static final String DEFAULT_SURROGATE_KEY_HEADER = "Surrogate-Key";
+
     @ObjectClassDefinition(
             name ="AEM Core WCM Components Adaptive Image Servlet Mapping Configuration",
             description="Configuration for the adaptive image servlet mapping."
@@ -81,6 +91,167 @@ public class AdaptiveImageServletMappingConfigurationFactory {
         )
         int maxSize() default AdaptiveImageServlet.DEFAULT_MAX_SIZE;
 
+        @AttributeDefinition(
+                name = "Maximum concurrent transformations",
+                description = "The maximum number of images that this servlet mapping transforms concurrently. Values lower than 1 " +
+                        "limit the transformations to the number of available processors. Requests that stream the original image " +
+                        "are not limited."
+        )
+        int maxConcurrentTransformations() default 0;
+
+        @AttributeDefinition(
+                name = "Maximum queued transformations",
+                description = "The maximum number of requests that wait for a transformation slot. Further requests are rejected " +
+                        "with a 503 (Service Unavailable) response. Requests that wait for an identical transformation performed by " +
+                        "another request are not counted."
+        )
+        int maxQueuedTransformations() default DEFAULT_MAX_QUEUED_TRANSFORMATIONS;
+
+        @AttributeDefinition(
+                name = "Maximum queue wait time",
+                description = "The maximum time, in milliseconds, that a request waits for a transformation slot or for an " +
+                        "identical transformation performed by another request before being rejected with a 503 (Service Unavailable) " +
+                        "response."
+        )
+        long maxQueueWaitTime() default DEFAULT_MAX_QUEUE_WAIT_TIME;
+
+        @AttributeDefinition(
+                name = "Retry after",
+                description = "The value, in seconds, of the Retry-After header sent with rejected requests."
+        )
+        int retryAfter() default DEFAULT_RETRY_AFTER;
+
+        @AttributeDefinition(
+                name = "Fingerprinted max age",
+                description = "The max-age, in seconds, of images requested with a last modified timestamp in the suffix. These " +
+                        "responses are also marked as immutable. Set to a negative value to not send a Cache-Control header for them."
+        )
+        int fingerprintedMaxAge() default DEFAULT_FINGERPRINTED_MAX_AGE;
+
+        @AttributeDefinition(
+                name = "Max age",
+                description = "The max-age, in seconds, of images requested without a last modified timestamp in the suffix. Set to a " +
+                        "negative value to not send a Cache-Control header for them."
+        )
+        int maxAge() default DEFAULT_MAX_AGE;
+
+        @AttributeDefinition(
+                name = "Stale while revalidate",
+                description = "The time, in seconds, during which caches may serve an image requested without a last modified " +
+                        "timestamp after it became stale, while revalidating it. Set to 0 to omit the directive."
+        )
+        int staleWhileRevalidate() default DEFAULT_STALE_WHILE_REVALIDATE;
+
+        @AttributeDefinition(
+                name = "Surrogate key header",
+                description = "The name of the header that lists the asset and component paths of an image, for purging it from a " +
+                        "CDN. Leave empty to not send surrogate keys."
+        )
+        String surrogateKeyHeader() default DEFAULT_SURROGATE_KEY_HEADER;
+
+        @AttributeDefinition(
+                name = "Pyramid rendering",
+                description = "When an asset is resized for one of the allowed widths of the image component and the rendition is not " +
+                        "cached, decode the asset once and also render all the other allowed widths into the rendition cache."
+        )
+        boolean pyramidRendering() default false;
+
+        @AttributeDefinition(
+                name = "Client hints",
+                description = "Select the width of the images requested without a width selector from the Sec-CH-Width, " +
+                        "Sec-CH-Viewport-Width and Sec-CH-DPR client hints, rounded up to the nearest allowed rendition width. The " +
+                        "images ask for the hints with an Accept-CH header and vary by them; the pages referencing the images have " +
+                        "to send the same Accept-CH header for browsers to send the hints."
+        )
+        boolean clientHints() default false;
+
+        @AttributeDefinition(
+                name = "JPEG encoder",
+                description = "The encoder of the JPEG images rendered by this servlet mapping: the default image layer encoder, or " +
+                        "the ImageIO encoder, which supports the progressive, Huffman table and chroma subsampling options.",
+                options = {
+                        @Option(label = "Layer", value = AdaptiveImageEncoder.ENCODER_LAYER),
+                        @Option(label = "ImageIO", value = AdaptiveImageEncoder.ENCODER_IMAGEIO)
+                }
+        )
+        String jpegEncoder() default AdaptiveImageEncoder.ENCODER_LAYER;
+
+        @AttributeDefinition(
+                name = "Progressive JPEG",
+                description = "Write progressive JPEG images, which are usually smaller and render a preview while loading. Only " +
+                        "used by the ImageIO encoder."
+        )
+        boolean progressiveJpeg() default true;
+
+        @AttributeDefinition(
+                name = "Optimize Huffman tables",
+                description = "Compute optimal Huffman tables for each JPEG image instead of using the standard ones, which makes " +
+                        "the images smaller at the cost of a slightly slower encoding. Only used by the ImageIO encoder."
+        )
+        boolean optimizeHuffmanTables() default true;
+
+        @AttributeDefinition(
+                name = "Chroma subsampling",
+                description = "The chroma subsampling of the JPEG images. 4:2:0 gives the smallest images; 4:4:4 keeps the colors " +
+                        "of sharp edges and small text. Only used by the ImageIO encoder.",
+                options = {
+                        @Option(label = "4:2:0", value = AdaptiveImageEncoder.CHROMA_SUBSAMPLING_420),
+                        @Option(label = "4:2:2", value = AdaptiveImageEncoder.CHROMA_SUBSAMPLING_422),
+                        @Option(label = "4:4:4", value = AdaptiveImageEncoder.CHROMA_SUBSAMPLING_444)
+                }
+        )
+        String chromaSubsampling() default AdaptiveImageEncoder.CHROMA_SUBSAMPLING_420;
+
+        @AttributeDefinition(
+                name = "Strip metadata",
+                description = "Remove the EXIF, XMP, IPTC and comment segments from the JPEG renditions that are sent without being " +
+                        "re-encoded. EXIF orientation and non-sRGB color profiles are kept."
+        )
+        boolean stripMetadata() default false;
+
+        @AttributeDefinition(
+                name = "JPEG target SSIM",
+                description = "When set to a value between 0 and 1, JPEG images are encoded with the lowest quality between the " +
+                        "minimum and the maximum quality whose structural similarity (SSIM) to the resized image reaches this " +
+                        "target, instead of with the requested quality. Around 0.98, images are hard to tell apart from the " +
+                        "source; lower values save more bytes. The chosen quality is remembered per image. Set to 0 to disable."
+        )
+        double jpegTargetSsim() default 0;
+
+        @AttributeDefinition(
+                name = "JPEG minimum quality",
+                description = "The lowest quality, in percent, that the SSIM target can choose."
+        )
+        int jpegMinQuality() default AdaptiveImageQualitySearch.DEFAULT_MIN_QUALITY;
+
+        @AttributeDefinition(
+                name = "JPEG maximum quality",
+                description = "The highest quality, in percent, that the SSIM target can choose; also used for the images that " +
+                        "don't reach the target with a lower quality."
+        )
+        int jpegMaxQuality() default AdaptiveImageQualitySearch.DEFAULT_MAX_QUALITY;
+
+        @AttributeDefinition(
+                name = "Palette quantization",
+                description = "Encode PNG images with an indexed palette when they have few enough colours or when their " +
+                        "colours can be quantized within the error budget, and when that makes them smaller."
+        )
+        boolean paletteQuantization() default false;
+
+        @AttributeDefinition(
+                name = "Palette maximum colours",
+                description = "The maximum number of colours of the palette, between 2 and 256."
+        )
+        int paletteMaxColors() default AdaptiveImagePaletteQuantizer.DEFAULT_MAX_COLORS;
+
+        @AttributeDefinition(
+                name = "Palette maximum error",
+                description = "The maximum root mean square error, per colour channel (0-255), of images whose colours are " +
+                        "quantized to the palette. Images with partial transparency are never quantized. Set to 0 to only use " +
+                        "palettes that hold all the colours of the image."
+        )
+        double paletteMaxError() default AdaptiveImagePaletteQuantizer.DEFAULT_MAX_ERROR;
+
     }
 
     private List<String> resourceTypes;
@@ -93,6 +264,48 @@ public class AdaptiveImageServletMappingConfigurationFactory {
 
     private int maxSize;
 
+    private int maxConcurrentTransformations;
+
+    private int maxQueuedTransformations;
+
+    private long maxQueueWaitTime;
+
+    private int retryAfter;
+
+    private int fingerprintedMaxAge;
+
+    private int maxAge;
+
+    private int staleWhileRevalidate;
+
+    private String surrogateKeyHeader;
+
+    private boolean pyramidRendering;
+
+    private boolean clientHints;
+
+    private String jpegEncoder;
+
+    private boolean progressiveJpeg;
+
+    private boolean optimizeHuffmanTables;
+
+    private String chromaSubsampling;
+
+    private boolean stripMetadata;
+
+    private double jpegTargetSsim;
+
+    private int jpegMinQuality;
+
+    private int jpegMaxQuality;
+
+    private boolean paletteQuantization;
+
+    private int paletteMaxColors;
+
+    private double paletteMaxError;
+
     /**
      * Invoked when a configuration is created or modified.
      *
@@ -106,6 +319,27 @@ public class AdaptiveImageServletMappingConfigurationFactory {
         extensions = getValues(config.extensions());
         defaultResizeWidth = config.defaultResizeWidth();
         maxSize = config.maxSize();
+        maxConcurrentTransformations = config.maxConcurrentTransformations();
+        maxQueuedTransformations = config.maxQueuedTransformations();
+        maxQueueWaitTime = config.maxQueueWaitTime();
+        retryAfter = config.retryAfter();
+        fingerprintedMaxAge = config.fingerprintedMaxAge();
+        maxAge = config.maxAge();
+        staleWhileRevalidate = config.staleWhileRevalidate();
+        surrogateKeyHeader = StringUtils.trimToNull(config.surrogateKeyHeader());
+        pyramidRendering = config.pyramidRendering();
+        clientHints = config.clientHints();
+        jpegEncoder = config.jpegEncoder();
+        progressiveJpeg = config.progressiveJpeg();
+        optimizeHuffmanTables = config.optimizeHuffmanTables();
+        chromaSubsampling = config.chromaSubsampling();
+        stripMetadata = config.stripMetadata();
+        jpegTargetSsim = config.jpegTargetSsim();
+        jpegMinQuality = config.jpegMinQuality();
+        jpegMaxQuality = config.jpegMaxQuality();
+        paletteQuantization = config.paletteQuantization();
+        paletteMaxColors = config.paletteMaxColors();
+        paletteMaxError = config.paletteMaxError();
     }
 
     /**
@@ -155,6 +389,180 @@ public class AdaptiveImageServletMappingConfigurationFactory {
         return maxSize;
     }
 
+    /**
+     * Returns the maximum number of images that the {@link AdaptiveImageServlet} will transform concurrently; values lower than 1
+     * stand for the number of available processors.
+     * @return the maximum number of concurrent transformations
+     */
+    public int getMaxConcurrentTransformations() {
+        return maxConcurrentTransformations;
+    }
+
+    /**
+     * Returns the maximum number of requests that will wait for a transformation slot.
+     * @return the maximum number of queued transformations
+     */
+    public int getMaxQueuedTransformations() {
+        return maxQueuedTransformations;
+    }
+
+    /**
+     * Returns the maximum time, in milliseconds, that a request will wait for a transformation slot.
+     * @return the maximum queue wait time
+     */
+    public long getMaxQueueWaitTime() {
+        return maxQueueWaitTime;
+    }
+
+    /**
+     * Returns the delay, in seconds, after which clients of rejected requests should retry.
+     * @return the Retry-After value
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Returns the max-age, in seconds, of images requested with a last modified timestamp in the suffix; negative values disable the
+     * Cache-Control header.
+     * @return the fingerprinted max-age
+     */
+    public int getFingerprintedMaxAge() {
+        return fingerprintedMaxAge;
+    }
+
+    /**
+     * Returns the max-age, in seconds, of images requested without a last modified timestamp in the suffix; negative values disable
+     * the Cache-Control header.
+     * @return the max-age
+     */
+    public int getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Returns the stale-while-revalidate time, in seconds, of images requested without a last modified timestamp in the suffix.
+     * @return the stale-while-revalidate time
+     */
+    public int getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    /**
+     * Returns the name of the surrogate key header.
+     * @return the header name or {@code null} if no surrogate keys should be sent
+     */
+    @Nullable
+    public String getSurrogateKeyHeader() {
+        return surrogateKeyHeader;
+    }
+
+    /**
+     * Returns whether the other allowed widths of an image are rendered together with the requested one.
+     * @return {@code true} if pyramid rendering is enabled
+     */
+    public boolean isPyramidRendering() {
+        return pyramidRendering;
+    }
+
+    /**
+     * Returns whether the width of images requested without a width selector is selected from the client hints.
+     * @return {@code true} if client hints are enabled
+     */
+    public boolean isClientHints() {
+        return clientHints;
+    }
+
+    /**
+     * Returns the JPEG encoder.
+     * @return {@code layer} or {@code imageio}
+     */
+    @NotNull
+    public String getJpegEncoder() {
+        return jpegEncoder;
+    }
+
+    /**
+     * Returns whether JPEG images are written in progressive mode.
+     * @return {@code true} for progressive JPEG images
+     */
+    public boolean isProgressiveJpeg() {
+        return progressiveJpeg;
+    }
+
+    /**
+     * Returns whether optimal Huffman tables are computed for each JPEG image.
+     * @return {@code true} if the Huffman tables are optimized
+     */
+    public boolean isOptimizeHuffmanTables() {
+        return optimizeHuffmanTables;
+    }
+
+    /**
+     * Returns the chroma subsampling of the JPEG images.
+     * @return {@code 4:2:0}, {@code 4:2:2} or {@code 4:4:4}
+     */
+    @NotNull
+    public String getChromaSubsampling() {
+        return chromaSubsampling;
+    }
+
+    /**
+     * Returns whether the metadata of the JPEG renditions sent without being re-encoded is stripped.
+     * @return {@code true} if the metadata is stripped
+     */
+    public boolean isStripMetadata() {
+        return stripMetadata;
+    }
+
+    /**
+     * Returns the structural similarity that JPEG images have to reach with the searched quality.
+     * @return the target, or {@code 0} if the quality is not searched
+     */
+    public double getJpegTargetSsim() {
+        return jpegTargetSsim;
+    }
+
+    /**
+     * Returns the lowest JPEG quality that the SSIM target can choose.
+     * @return the quality, in percent
+     */
+    public int getJpegMinQuality() {
+        return jpegMinQuality;
+    }
+
+    /**
+     * Returns the highest JPEG quality that the SSIM target can choose.
+     * @return the quality, in percent
+     */
+    public int getJpegMaxQuality() {
+        return jpegMaxQuality;
+    }
+
+    /**
+     * Returns whether PNG images are encoded with an indexed palette when possible.
+     * @return {@code true} if palette quantization is enabled
+     */
+    public boolean isPaletteQuantization() {
+        return paletteQuantization;
+    }
+
+    /**
+     * Returns the maximum number of colours of the palette.
+     * @return the number of colours
+     */
+    public int getPaletteMaxColors() {
+        return paletteMaxColors;
+    }
+
+    /**
+     * Returns the maximum root mean square error of images whose colours are quantized to the palette.
+     * @return the error, per colour channel
+     */
+    public double getPaletteMaxError() {
+        return paletteMaxError;
+    }
+
     /**
      * Internal helper for filtering out null and empty values from the configuration options.
      *
@@ -176,6 +584,15 @@ public class AdaptiveImageServletMappingConfigurationFactory {
     @Override
     public String toString() {
         return "{resourceTypes: " + resourceTypes.toString() + ", selectors: " + selectors.toString() + ", extensions: " + extensions
-                .toString() + ", defaultResizeWidth: " + defaultResizeWidth + "}";
+                .toString() + ", defaultResizeWidth: " + defaultResizeWidth + ", maxSize: " + maxSize +
+                ", maxConcurrentTransformations: " + maxConcurrentTransformations + ", maxQueuedTransformations: " +
+                maxQueuedTransformations + ", maxQueueWaitTime: " + maxQueueWaitTime + ", retryAfter: " + retryAfter +
+                ", fingerprintedMaxAge: " + fingerprintedMaxAge + ", maxAge: " + maxAge + ", staleWhileRevalidate: " +
+                staleWhileRevalidate + ", surrogateKeyHeader: " + surrogateKeyHeader + ", pyramidRendering: " + pyramidRendering +
+                ", clientHints: " + clientHints + ", jpegEncoder: " + jpegEncoder + ", progressiveJpeg: " + progressiveJpeg +
+                ", optimizeHuffmanTables: " + optimizeHuffmanTables + ", chromaSubsampling: " + chromaSubsampling +
+                ", stripMetadata: " + stripMetadata + ", jpegTargetSsim: " + jpegTargetSsim + ", jpegMinQuality: " + jpegMinQuality +
+                ", jpegMaxQuality: " + jpegMaxQuality + ", paletteQuantization: " + paletteQuantization + ", paletteMaxColors: " +
+                paletteMaxColors + ", paletteMaxError: " + paletteMaxError + "}";
     }
 }
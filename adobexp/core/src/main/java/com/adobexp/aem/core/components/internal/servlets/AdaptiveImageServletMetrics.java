@@ -15,7 +15,12 @@
  ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
 package com.adobexp.aem.core.components.internal.servlets;
 
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.apache.sling.commons.metrics.Counter;
+import org.apache.sling.commons.metrics.Histogram;
 import org.apache.sling.commons.metrics.MetricsService;
 import org.apache.sling.commons.metrics.Timer;
 import org.osgi.service.component.annotations.Activate;
@@ -26,6 +31,8 @@ import org.osgi.service.component.annotations.Reference;
 public class AdaptiveImageServletMetrics {
     
     private static final String BASENAME = "com.adobexp.aem.core.components.internal.servlets.AdaptiveImageServlet:";
+    // the upper bounds of the requested width buckets
+    private static final int[] WIDTH_BUCKETS = {160, 320, 480, 640, 800, 1024, 1280, 1600, 1920, 2560, 3840};
     
     @Reference
     MetricsService metricsService;
@@ -42,6 +49,78 @@ public class AdaptiveImageServletMetrics {
     private Timer requestDuration;
     // how often the image couldn't served
     private Counter imageErrors;
+    // how often a rendition was served from the rendition cache
+    private Counter renditionCacheHits;
+    // how often a rendition had to be rendered because it was not found in the rendition cache
+    private Counter renditionCacheMisses;
+    // how often a request was served with the rendition rendered by a concurrent identical request
+    private Counter coalescedRenderings;
+    // record how long requests waited for the rendition rendered by a concurrent identical request
+    private Timer coalescedWaitDuration;
+    // the number of requests currently waiting for a transformation slot
+    private Counter transformationQueueDepth;
+    // record how long requests waited for a transformation slot
+    private Timer transformationWaitDuration;
+    // how often a request was rejected because no transformation slot was available
+    private Counter transformationRejections;
+    // how often pixel memory was reserved for decoding an image
+    private Counter pixelMemoryReservations;
+    // the number of bytes currently reserved for decoded images
+    private Counter pixelMemoryReserved;
+    // how often a pixel memory reservation was denied
+    private Counter pixelMemoryDenials;
+    // how often a smaller rendition was rendered because the pixel memory budget was exhausted
+    private Counter pixelMemoryDegradations;
+    // how often a conditional request found the validators of the image in the conditional request index
+    private Counter conditionalRequestIndexHits;
+    // how often a conditional request had to resolve the image component to compute its validators
+    private Counter conditionalRequestIndexMisses;
+    // record how long it took to resolve the image component, its source and its transformation parameters
+    private Timer resolutionDuration;
+    // record how long it took to select the rendition to transform
+    private Timer renditionSelectionDuration;
+    // record how long it took to decode images
+    private Timer decodeDuration;
+    // record how long it took to resize images
+    private Timer resizeDuration;
+    // record how long it took to encode images
+    private Timer encodeDuration;
+    // record how long it took to write images to the response
+    private Timer writeDuration;
+    // the size of the binaries read for serving images
+    private Histogram inputBytes;
+    // the size of the images written to the responses
+    private Histogram outputBytes;
+    // the number of decoded pixels
+    private Histogram decodedPixels;
+    // how many images were served per output mime type
+    private final ConcurrentMap<String, Counter> outputMimeTypes = new ConcurrentHashMap<>();
+    // how many images were served per requested width bucket
+    private final ConcurrentMap<String, Counter> requestedWidths = new ConcurrentHashMap<>();
+    // how many image widths were selected from client hints, per width bucket
+    private final ConcurrentMap<String, Counter> clientHintsWidths = new ConcurrentHashMap<>();
+    // how many renditions were rendered and cached as part of the pyramid of another requested width
+    private Counter pyramidRenditions;
+    // how many assets were queued for rendition pre-generation
+    private Counter renditionPregenerationsQueued;
+    // how many assets had their renditions pre-generated
+    private Counter renditionPregenerationsCompleted;
+    // how many renditions were pre-generated
+    private Counter renditionsPregenerated;
+    // how often the rendition pre-generation of an asset failed
+    private Counter renditionPregenerationFailures;
+    // record the duration (and throughput) of the rendition pre-generation of an asset
+    private Timer renditionPregenerationDuration;
+    // the JPEG qualities chosen by the perceptual quality search
+    private Histogram searchedQualities;
+    // how many candidate images the perceptual quality search encoded
+    private Counter qualitySearchEncodings;
+    // how often the quality chosen for an identical image was reused
+    private Counter qualitySearchCacheHits;
+    // the bytes saved by encoding PNG images with an indexed palette
+    private Histogram paletteBytesSaved;
+    // how often a PNG image could not be encoded with a smaller indexed palette
+    private Counter paletteQuantizationRejections;
     
     @Activate
     public void activate() {
@@ -51,6 +130,39 @@ public class AdaptiveImageServletMetrics {
         imageStreamed = metricsService.counter(BASENAME + "rendition-rendered");
         requestDuration = metricsService.timer(BASENAME + "request-duration");
         imageErrors = metricsService.counter(BASENAME + "image-errors");
+        renditionCacheHits = metricsService.counter(BASENAME + "rendition-cache-hits");
+        renditionCacheMisses = metricsService.counter(BASENAME + "rendition-cache-misses");
+        coalescedRenderings = metricsService.counter(BASENAME + "coalesced-renderings");
+        coalescedWaitDuration = metricsService.timer(BASENAME + "coalesced-wait-duration");
+        transformationQueueDepth = metricsService.counter(BASENAME + "transformation-queue-depth");
+        transformationWaitDuration = metricsService.timer(BASENAME + "transformation-wait-duration");
+        transformationRejections = metricsService.counter(BASENAME + "transformation-rejections");
+        pixelMemoryReservations = metricsService.counter(BASENAME + "pixel-memory-reservations");
+        pixelMemoryReserved = metricsService.counter(BASENAME + "pixel-memory-reserved-bytes");
+        pixelMemoryDenials = metricsService.counter(BASENAME + "pixel-memory-denials");
+        pixelMemoryDegradations = metricsService.counter(BASENAME + "pixel-memory-degradations");
+        conditionalRequestIndexHits = metricsService.counter(BASENAME + "conditional-request-index-hits");
+        conditionalRequestIndexMisses = metricsService.counter(BASENAME + "conditional-request-index-misses");
+        resolutionDuration = metricsService.timer(BASENAME + "resolution-duration");
+        renditionSelectionDuration = metricsService.timer(BASENAME + "rendition-selection-duration");
+        decodeDuration = metricsService.timer(BASENAME + "decode-duration");
+        resizeDuration = metricsService.timer(BASENAME + "resize-duration");
+        encodeDuration = metricsService.timer(BASENAME + "encode-duration");
+        writeDuration = metricsService.timer(BASENAME + "write-duration");
+        inputBytes = metricsService.histogram(BASENAME + "input-bytes");
+        outputBytes = metricsService.histogram(BASENAME + "output-bytes");
+        decodedPixels = metricsService.histogram(BASENAME + "decoded-pixels");
+        pyramidRenditions = metricsService.counter(BASENAME + "pyramid-renditions");
+        renditionPregenerationsQueued = metricsService.counter(BASENAME + "rendition-pregenerations-queued");
+        renditionPregenerationsCompleted = metricsService.counter(BASENAME + "rendition-pregenerations-completed");
+        renditionsPregenerated = metricsService.counter(BASENAME + "renditions-pregenerated");
+        renditionPregenerationFailures = metricsService.counter(BASENAME + "rendition-pregeneration-failures");
+        renditionPregenerationDuration = metricsService.timer(BASENAME + "rendition-pregeneration-duration");
+        searchedQualities = metricsService.histogram(BASENAME + "searched-jpeg-quality");
+        qualitySearchEncodings = metricsService.counter(BASENAME + "quality-search-encodings");
+        qualitySearchCacheHits = metricsService.counter(BASENAME + "quality-search-cache-hits");
+        paletteBytesSaved = metricsService.histogram(BASENAME + "palette-bytes-saved");
+        paletteQuantizationRejections = metricsService.counter(BASENAME + "palette-quantization-rejections");
     }
     
     public void markServletInvocation() {
@@ -72,10 +184,178 @@ public class AdaptiveImageServletMetrics {
     public void markImageErrors() {
         imageErrors.increment();
     }
+
+    public void markRenditionCacheHit() {
+        renditionCacheHits.increment();
+    }
+
+    public void markRenditionCacheMiss() {
+        renditionCacheMisses.increment();
+    }
+
+    public void markCoalescedRendering() {
+        coalescedRenderings.increment();
+    }
+
+    public Timer.Context startCoalescedWaitRecording() {
+        return coalescedWaitDuration.time();
+    }
     
+    public void markTransformationQueued() {
+        transformationQueueDepth.increment();
+    }
+
+    public void markTransformationDequeued() {
+        transformationQueueDepth.decrement();
+    }
+
+    public void markTransformationRejected() {
+        transformationRejections.increment();
+    }
+
+    public Timer.Context startTransformationWaitRecording() {
+        return transformationWaitDuration.time();
+    }
+
+    public void markPixelMemoryReserved(long bytes) {
+        pixelMemoryReservations.increment();
+        pixelMemoryReserved.increment(bytes);
+    }
+
+    public void markPixelMemoryReleased(long bytes) {
+        pixelMemoryReserved.decrement(bytes);
+    }
+
+    public void markPixelMemoryDenied() {
+        pixelMemoryDenials.increment();
+    }
+
+    public void markPixelMemoryDegraded() {
+        pixelMemoryDegradations.increment();
+    }
+
+    public void markConditionalRequestIndexHit() {
+        conditionalRequestIndexHits.increment();
+    }
+
+    public void markConditionalRequestIndexMiss() {
+        conditionalRequestIndexMisses.increment();
+    }
+
+    public Timer.Context startResolutionRecording() {
+        return resolutionDuration.time();
+    }
+
+    public Timer.Context startRenditionSelectionRecording() {
+        return renditionSelectionDuration.time();
+    }
+
+    public Timer.Context startDecodeRecording() {
+        return decodeDuration.time();
+    }
+
+    public Timer.Context startResizeRecording() {
+        return resizeDuration.time();
+    }
+
+    public Timer.Context startEncodeRecording() {
+        return encodeDuration.time();
+    }
+
+    public Timer.Context startWriteRecording() {
+        return writeDuration.time();
+    }
+
+    public void markInputBytes(long bytes) {
+        if (bytes >= 0) {
+            inputBytes.update(bytes);
+        }
+    }
+
+    public void markOutputBytes(long bytes) {
+        if (bytes >= 0) {
+            outputBytes.update(bytes);
+        }
+    }
+
+    public void markDecodedPixels(long pixels) {
+        decodedPixels.update(pixels);
+    }
+
+    public void markOutputMimeType(String mimeType) {
+        String name = mimeType != null ? mimeType.toLowerCase(Locale.ENGLISH) : "unknown";
+        outputMimeTypes.computeIfAbsent(name, key -> metricsService.counter(BASENAME + "output-mime-type:" + key)).increment();
+    }
+
+    public void markRequestedWidth(int width) {
+        String bucket = getWidthBucket(width);
+        requestedWidths.computeIfAbsent(bucket, key -> metricsService.counter(BASENAME + "requested-width:" + key)).increment();
+    }
+
+    public void markClientHintsWidth(int width) {
+        String bucket = getWidthBucket(width);
+        clientHintsWidths.computeIfAbsent(bucket, key -> metricsService.counter(BASENAME + "client-hints-width:" + key)).increment();
+    }
+
+    public void markPyramidRendition() {
+        pyramidRenditions.increment();
+    }
+
+    public void markRenditionPregenerationQueued() {
+        renditionPregenerationsQueued.increment();
+    }
+
+    public void markRenditionPregenerationCompleted() {
+        renditionPregenerationsCompleted.increment();
+    }
+
+    public void markRenditionPregenerated() {
+        renditionsPregenerated.increment();
+    }
+
+    public void markRenditionPregenerationFailed() {
+        renditionPregenerationFailures.increment();
+    }
+
+    public Timer.Context startRenditionPregenerationRecording() {
+        return renditionPregenerationDuration.time();
+    }
+
+    public void markSearchedQuality(int quality) {
+        searchedQualities.update(quality);
+    }
+
+    public void markQualitySearchEncoding() {
+        qualitySearchEncodings.increment();
+    }
+
+    public void markQualitySearchCacheHit() {
+        qualitySearchCacheHits.increment();
+    }
+
+    public void markPaletteBytesSaved(long bytes) {
+        paletteBytesSaved.update(bytes);
+    }
+
+    public void markPaletteQuantizationRejected() {
+        paletteQuantizationRejections.increment();
+    }
+
     public Timer.Context startDurationRecording() {
         return requestDuration.time();
     }
+
+    private static String getWidthBucket(int width) {
+        if (width <= 0) {
+            return "original";
+        }
+        for (int bucket : WIDTH_BUCKETS) {
+            if (width <= bucket) {
+                return "le-" + bucket;
+            }
+        }
+        return "gt-" + WIDTH_BUCKETS[WIDTH_BUCKETS.length - 1];
+    }
     
 
 }
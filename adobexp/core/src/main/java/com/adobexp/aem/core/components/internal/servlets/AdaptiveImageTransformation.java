@@ -0,0 +1,203 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Immutable description of an image rendered by the {@link AdaptiveImageServlet}: the source binary, the effective last modified
+ * date computed by the servlet and all the parameters that influence the rendered bytes. Two requests with equal transformations
+ * render the same image.
+ */
+final class AdaptiveImageTransformation {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String sourcePath;
+    private final String componentPath;
+    private final long lastModified;
+    private final String mimeType;
+    private final int width;
+    private final int quality;
+    private final String crop;
+    private final int rotation;
+    private final boolean flipHorizontally;
+    private final boolean flipVertically;
+    private final String encoding;
+    private final String key;
+    private String hash;
+
+    AdaptiveImageTransformation(@NotNull String sourcePath, @NotNull String componentPath, long lastModified, @NotNull String mimeType,
+                                int width, int quality, @Nullable String crop, int rotation, boolean flipHorizontally,
+                                boolean flipVertically, @NotNull String encoding) {
+        this.sourcePath = sourcePath;
+        this.componentPath = componentPath;
+        this.lastModified = lastModified;
+        this.mimeType = mimeType;
+        this.width = width;
+        this.quality = quality;
+        this.crop = StringUtils.defaultString(crop);
+        this.rotation = rotation;
+        this.flipHorizontally = flipHorizontally;
+        this.flipVertically = flipVertically;
+        this.encoding = encoding;
+        this.key = sourcePath + '|' + lastModified + '|' + mimeType + '|' + width + '|' + quality + '|' + this.crop + '|' + rotation +
+                '|' + (flipHorizontally ? 'h' : '-') + (flipVertically ? 'v' : '-') + '|' + encoding;
+    }
+
+    /**
+     * Returns a string that uniquely identifies the rendered image. The component path is not part of the key, as components that
+     * reference the same asset with the same parameters render the same image.
+     *
+     * @return the transformation key
+     */
+    @NotNull
+    String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the hex encoded SHA-1 digest of the {@link #getKey() transformation key}.
+     *
+     * @return the key digest
+     */
+    @NotNull
+    String getHash() {
+        if (hash == null) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+                char[] chars = new char[digest.length * 2];
+                for (int i = 0; i < digest.length; i++) {
+                    chars[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+                    chars[i * 2 + 1] = HEX[digest[i] & 0xF];
+                }
+                hash = new String(chars);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-1 is not supported by this JVM.", e);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the same transformation, for another width.
+     *
+     * @param width the width
+     * @return the transformation
+     */
+    @NotNull
+    AdaptiveImageTransformation withWidth(int width) {
+        return new AdaptiveImageTransformation(sourcePath, componentPath, lastModified, mimeType, width, quality, crop, rotation,
+                flipHorizontally, flipVertically, encoding);
+    }
+
+    /**
+     * Returns the strong entity tag of the rendered image, derived from the {@link #getKey() transformation key}.
+     *
+     * @return the entity tag
+     */
+    @NotNull
+    String getETag() {
+        return '"' + getHash() + '"';
+    }
+
+    /**
+     * Returns the paths whose modification makes the rendered image stale: the source binary (DAM asset or inline file) and the image
+     * component.
+     *
+     * @return the dependency paths
+     */
+    @NotNull
+    String[] getDependencies() {
+        return sourcePath.equals(componentPath) ? new String[]{sourcePath} : new String[]{sourcePath, componentPath};
+    }
+
+    @NotNull
+    String getSourcePath() {
+        return sourcePath;
+    }
+
+    @NotNull
+    String getComponentPath() {
+        return componentPath;
+    }
+
+    long getLastModified() {
+        return lastModified;
+    }
+
+    @NotNull
+    String getMimeType() {
+        return mimeType;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getQuality() {
+        return quality;
+    }
+
+    @NotNull
+    String getCrop() {
+        return crop;
+    }
+
+    int getRotation() {
+        return rotation;
+    }
+
+    boolean isFlipHorizontally() {
+        return flipHorizontally;
+    }
+
+    boolean isFlipVertically() {
+        return flipVertically;
+    }
+
+    @NotNull
+    String getEncoding() {
+        return encoding;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        return key.equals(((AdaptiveImageTransformation) o).key);
+    }
+
+    @Override
+    public int hashCode() {
+        return key.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return key;
+    }
+}
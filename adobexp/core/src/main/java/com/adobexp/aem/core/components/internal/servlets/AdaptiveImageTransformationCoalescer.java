@@ -0,0 +1,98 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.sling.commons.metrics.Timer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Coalesces concurrent renderings of the same {@link AdaptiveImageTransformation}: the first request renders the image, while
+ * identical requests that arrive before it finishes wait for its result instead of rendering the image again.
+ */
+class AdaptiveImageTransformationCoalescer {
+
+    private final ConcurrentMap<String, CompletableFuture<CachedRendition>> inFlight = new ConcurrentHashMap<>();
+    private final AdaptiveImageServletMetrics metrics;
+
+    AdaptiveImageTransformationCoalescer(@NotNull AdaptiveImageServletMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Renders the image described by {@code transformation}, or waits for the rendering already in progress for an equal
+     * transformation. Waiting requests are bound by the maximum wait time of the given limiter; if the rendering they wait for is
+     * rejected by its own limiter, they try to render the image themselves.
+     *
+     * @param transformation the transformation
+     * @param limiter        the limiter of the servlet registration
+     * @param renderer       renders the image, if no rendering is in progress
+     * @return the rendered image, or {@code null} if nothing was rendered
+     * @throws IOException if the image cannot be rendered or the request waited for too long
+     */
+    @Nullable
+    CachedRendition render(@NotNull AdaptiveImageTransformation transformation, @NotNull AdaptiveImageTransformationLimiter limiter,
+                           @NotNull Renderer renderer) throws IOException {
+        CompletableFuture<CachedRendition> rendering = new CompletableFuture<>();
+        CompletableFuture<CachedRendition> inProgress;
+        while ((inProgress = inFlight.putIfAbsent(transformation.getKey(), rendering)) != null) {
+            metrics.markCoalescedRendering();
+            Timer.Context waitDuration = metrics.startCoalescedWaitRecording();
+            try {
+                return limiter.await(inProgress);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof AdaptiveImageTransformationLimiter.RejectedException) {
+                    // the rendering request was saturated, not the image broken: compete for the rendering again
+                    continue;
+                }
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException("Unable to render " + transformation, cause);
+            } finally {
+                waitDuration.stop();
+            }
+        }
+        CachedRendition rendition;
+        try {
+            rendition = renderer.render();
+        } catch (IOException | RuntimeException | Error e) {
+            // unregister first, so that the waiting requests that compete for the rendering again do not find the failed one
+            inFlight.remove(transformation.getKey(), rendering);
+            rendering.completeExceptionally(e);
+            throw e;
+        }
+        rendering.complete(rendition);
+        inFlight.remove(transformation.getKey(), rendering);
+        return rendition;
+    }
+
+    @FunctionalInterface
+    interface Renderer {
+        @Nullable
+        CachedRendition render() throws IOException;
+    }
+}
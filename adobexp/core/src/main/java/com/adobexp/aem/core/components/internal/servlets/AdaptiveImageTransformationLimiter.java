@@ -0,0 +1,168 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sling.commons.metrics.Timer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Limits the number of images that an {@link AdaptiveImageServlet} registration transforms concurrently. Requests that cannot start
+ * a transformation right away wait in a bounded queue; they are rejected if the queue is full or if they waited for too long. Requests
+ * that wait for the result of a transformation performed by another request do not take a place in the queue, but they are bound by
+ * the same maximum wait time.
+ */
+class AdaptiveImageTransformationLimiter {
+
+    private final Semaphore permits;
+    private final int maxQueued;
+    private final long maxWait;
+    private final int retryAfter;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AdaptiveImageServletMetrics metrics;
+
+    /**
+     * @param maxConcurrent the maximum number of concurrent transformations; the number of available processors if {@code <= 0}
+     * @param maxQueued     the maximum number of requests waiting for a transformation slot
+     * @param maxWait       the maximum time, in milliseconds, a request waits for a transformation slot
+     * @param retryAfter    the delay, in seconds, after which rejected clients should retry
+     * @param metrics       the servlet metrics
+     */
+    AdaptiveImageTransformationLimiter(int maxConcurrent, int maxQueued, long maxWait, int retryAfter,
+                                       @NotNull AdaptiveImageServletMetrics metrics) {
+        this.permits = new Semaphore(maxConcurrent > 0 ? maxConcurrent : Runtime.getRuntime().availableProcessors(), true);
+        this.maxQueued = Math.max(0, maxQueued);
+        this.maxWait = Math.max(0, maxWait);
+        this.retryAfter = Math.max(1, retryAfter);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Acquires a transformation slot. The slot has to be released by closing the returned {@link Permit}.
+     *
+     * @return the permit
+     * @throws RejectedException if no slot became available
+     * @throws IOException       if the thread was interrupted while waiting
+     */
+    @NotNull
+    Permit acquire() throws IOException {
+        if (!permits.tryAcquire()) {
+            if (queued.incrementAndGet() > maxQueued) {
+                queued.decrementAndGet();
+                metrics.markTransformationRejected();
+                throw new RejectedException("The transformation queue is full.", retryAfter);
+            }
+            metrics.markTransformationQueued();
+            Timer.Context waitDuration = metrics.startTransformationWaitRecording();
+            boolean acquired;
+            try {
+                acquired = permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a transformation slot.", e);
+            } finally {
+                waitDuration.stop();
+                queued.decrementAndGet();
+                metrics.markTransformationDequeued();
+            }
+            if (!acquired) {
+                metrics.markTransformationRejected();
+                throw new RejectedException("No transformation slot became available within " + maxWait + "ms.", retryAfter);
+            }
+        }
+        return new Permit();
+    }
+
+    /**
+     * Waits for the result of a transformation performed by another request, without taking a transformation slot or a place in the
+     * queue.
+     *
+     * @param transformation the transformation in progress
+     * @param <T>            the type of the result
+     * @return the result of the transformation
+     * @throws RejectedException  if the transformation did not finish in time
+     * @throws ExecutionException if the transformation failed
+     * @throws IOException        if the thread was interrupted while waiting
+     */
+    @Nullable
+    <T> T await(@NotNull Future<T> transformation) throws IOException, ExecutionException {
+        try {
+            return transformation.get(maxWait, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            metrics.markTransformationRejected();
+            throw new RejectedException("The transformation did not finish within " + maxWait + "ms.", retryAfter);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a transformation.", e);
+        }
+    }
+
+    /**
+     * @return the delay, in seconds, after which clients of rejected requests should retry
+     */
+    int getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * A transformation slot; closing it releases the slot.
+     */
+    final class Permit implements AutoCloseable {
+
+        private boolean released;
+
+        private Permit() {
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Thrown when a transformation is rejected because the registration is saturated.
+     */
+    static final class RejectedException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int retryAfter;
+
+        RejectedException(String message, int retryAfter) {
+            super(message);
+            this.retryAfter = retryAfter;
+        }
+
+        /**
+         * @return the delay, in seconds, after which the client should retry
+         */
+        int getRetryAfter() {
+            return retryAfter;
+        }
+    }
+}
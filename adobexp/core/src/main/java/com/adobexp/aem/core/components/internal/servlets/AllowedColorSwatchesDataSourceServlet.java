@@ -34,11 +34,13 @@ import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
 import org.apache.sling.api.wrappers.ValueMapDecorator;
 import org.jetbrains.annotations.NotNull;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
 
 import com.adobe.granite.ui.components.Value;
 import com.adobe.granite.ui.components.ds.DataSource;
 import com.adobe.granite.ui.components.ds.SimpleDataSource;
 import com.adobe.granite.ui.components.ds.ValueMapResource;
+import com.adobexp.aem.core.components.internal.services.ContentPolicyCache;
 import com.day.cq.commons.jcr.JcrConstants;
 import com.day.cq.wcm.api.policies.ContentPolicy;
 import com.day.cq.wcm.api.policies.ContentPolicyManager;
@@ -56,6 +58,10 @@ public class AllowedColorSwatchesDataSourceServlet extends SlingSafeMethodsServl
     protected static final String RESOURCE_TYPE = "adobexp/components/commons/datasources/allowedcolorswatches/v1";
     protected static final String PN_ALLOWED_COLOR_SWATCHES = "allowedColorSwatches";
     protected static final String PN_COLOR_VALUE = "value";
+    private static final String DERIVED_COLOR_SWATCHES = AllowedColorSwatchesDataSourceServlet.class.getName() + ".colorSwatches";
+
+    @Reference
+    private transient ContentPolicyCache policyCache;
 
     @Override
     protected void doGet(@NotNull SlingHttpServletRequest request, @NotNull SlingHttpServletResponse response)
@@ -81,8 +87,9 @@ public class AllowedColorSwatchesDataSourceServlet extends SlingSafeMethodsServl
             }
         }
 
-        if (policy != null) {
-            colors = populateColors(policy, resolver);
+        ContentPolicyCache.PolicyData policyData = policyCache.get(policy);
+        if (policyData != null) {
+            colors = populateColors(policyData, resolver);
         }
 
         return colors;
@@ -98,21 +105,16 @@ public class AllowedColorSwatchesDataSourceServlet extends SlingSafeMethodsServl
         return policy;
     }
 
-    private List<Resource> populateColors(@NotNull ContentPolicy policy, @NotNull ResourceResolver resolver) {
+    private List<Resource> populateColors(@NotNull ContentPolicyCache.PolicyData policyData, @NotNull ResourceResolver resolver) {
         List<Resource> colors = new ArrayList<>();
-            ValueMap color = null;
-            ValueMap properties = policy.getProperties();
-            if (properties != null) {
-                String[] allowedColorSwatches = properties.get(PN_ALLOWED_COLOR_SWATCHES, String[].class);
-                if (allowedColorSwatches != null && allowedColorSwatches.length > 0) {
-                    for (String allowedColorSwatch : allowedColorSwatches) {
-                        color = new ValueMapDecorator(new HashMap<>());
-                        color.put(PN_COLOR_VALUE, allowedColorSwatch);
-                        colors.add(new ValueMapResource(resolver, new ResourceMetadata(), JcrConstants.NT_UNSTRUCTURED,
-                                color));
-                    }
-                }
-            }
-            return colors;
+        String[] allowedColorSwatches = policyData.get(DERIVED_COLOR_SWATCHES,
+                properties -> properties.get(PN_ALLOWED_COLOR_SWATCHES, new String[0]));
+        for (String allowedColorSwatch : allowedColorSwatches) {
+            ValueMap color = new ValueMapDecorator(new HashMap<>());
+            color.put(PN_COLOR_VALUE, allowedColorSwatch);
+            colors.add(new ValueMapResource(resolver, new ResourceMetadata(), JcrConstants.NT_UNSTRUCTURED,
+                    color));
+        }
+        return colors;
     }
 }
@@ -30,11 +30,12 @@ import org.apache.sling.api.resource.ValueMap;
 import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
 import org.jetbrains.annotations.NotNull;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
 
 import com.adobe.granite.ui.components.Value;
 import com.adobe.granite.ui.components.ds.DataSource;
 import com.adobe.granite.ui.components.ds.SimpleDataSource;
-import com.day.cq.wcm.api.policies.ContentPolicy;
+import com.adobexp.aem.core.components.internal.services.ContentPolicyCache;
 import com.day.cq.wcm.api.policies.ContentPolicyManager;
 
 @Component(
@@ -55,6 +56,10 @@ public class AllowedHeadingElementsDataSourceServlet extends SlingSafeMethodsSer
     public final static String PN_ALLOWED_TYPES = "allowedTypes";
     public final static String PN_DEFAULT_TYPE = "type";
     public final static String PN_DEFAULT_TITLE_TYPE = "titleType";
+    private static final String DERIVED_HEADING_ELEMENTS = AllowedHeadingElementsDataSourceServlet.class.getName() + ".headingElements";
+
+    @Reference
+    private transient ContentPolicyCache policyCache;
 
     @Override
     protected void doGet(@NotNull SlingHttpServletRequest request, @NotNull SlingHttpServletResponse response)
@@ -70,31 +75,41 @@ public class AllowedHeadingElementsDataSourceServlet extends SlingSafeMethodsSer
         Resource contentResource = resolver.getResource((String) request.getAttribute(Value.CONTENTPATH_ATTRIBUTE));
         ContentPolicyManager policyManager = resolver.adaptTo(ContentPolicyManager.class);
         if (contentResource != null && policyManager != null) {
-            ContentPolicy policy = policyManager.getPolicy(contentResource);
-            if (policy != null) {
-                ValueMap props = policy.getProperties();
-                if (props != null) {
-                    String[] headingElements = props.get(PN_ALLOWED_HEADING_ELEMENTS, String[].class);
-                    String[] allowedTypes = props.get(PN_ALLOWED_TYPES, String[].class);
-                    String defaultHeadingElement = props.get(PN_DEFAULT_HEADING_ELEMENT, props.get(PN_DEFAULT_TYPE, StringUtils.EMPTY));
-                    if (defaultHeadingElement.isEmpty() ) {
-                        defaultHeadingElement = props.get(PN_DEFAULT_TITLE_TYPE, StringUtils.EMPTY);
-                    }
-                    if (headingElements == null || headingElements.length == 0) {
-                        headingElements = allowedTypes;
-                    }
-                    if (headingElements != null && headingElements.length > 0) {
-                        for (String headingElement : headingElements) {
-                            allowedHeadingElements.add(new HeadingElementResource(headingElement,
-                                    StringUtils.equals(headingElement, defaultHeadingElement), resolver));
-                        }
-                    }
+            ContentPolicyCache.PolicyData policyData = policyCache.get(policyManager.getPolicy(contentResource));
+            if (policyData != null) {
+                HeadingElements headingElements = policyData.get(DERIVED_HEADING_ELEMENTS, HeadingElements::new);
+                for (String headingElement : headingElements.elements) {
+                    allowedHeadingElements.add(new HeadingElementResource(headingElement,
+                            StringUtils.equals(headingElement, headingElements.defaultElement), resolver));
                 }
             }
         }
         return allowedHeadingElements;
     }
 
+    /**
+     * The allowed heading elements of a content policy, and the default one.
+     */
+    private static final class HeadingElements {
+
+        private final String[] elements;
+        private final String defaultElement;
+
+        private HeadingElements(@NotNull ValueMap props) {
+            String[] headingElements = props.get(PN_ALLOWED_HEADING_ELEMENTS, String[].class);
+            String[] allowedTypes = props.get(PN_ALLOWED_TYPES, String[].class);
+            String defaultHeadingElement = props.get(PN_DEFAULT_HEADING_ELEMENT, props.get(PN_DEFAULT_TYPE, StringUtils.EMPTY));
+            if (defaultHeadingElement.isEmpty()) {
+                defaultHeadingElement = props.get(PN_DEFAULT_TITLE_TYPE, StringUtils.EMPTY);
+            }
+            if (headingElements == null || headingElements.length == 0) {
+                headingElements = allowedTypes;
+            }
+            this.elements = headingElements != null ? headingElements : new String[0];
+            this.defaultElement = defaultHeadingElement;
+        }
+    }
+
     private static class HeadingElementResource extends TextValueDataResourceSource {
 
         private final String elementName;
@@ -0,0 +1,532 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adobexp.aem.core.components.models.Image;
+import com.day.cq.commons.ImageResource;
+import com.day.cq.dam.api.Asset;
+import com.day.cq.dam.api.DamConstants;
+import com.day.cq.dam.api.Rendition;
+import com.day.cq.wcm.foundation.WCMRenditionPicker;
+
+/**
+ * Index of the renditions of DAM assets (name, mime type, width, height and size). The dimensions of an asset's renditions are
+ * determined once, kept in memory and persisted under {@value #INDEX_ROOT}, so that selecting a rendition doesn't require reading
+ * rendition binaries. The {@link AdaptiveImagePlaceholder placeholders} of an asset, transformed as the image components that reference
+ * it require, are kept along with its renditions. Entries are dropped when the asset changes, and are checked against the asset's last
+ * modified date and the names and sizes of its renditions before being used, since adding a rendition does not necessarily update
+ * the former.
+ */
+@Designate(ocd = AssetRenditionIndex.Config.class)
+@Component(
+        service = {AssetRenditionIndex.class, ResourceChangeListener.class},
+        property = {
+                ResourceChangeListener.PATHS + "=/content/dam"
+        }
+)
+public class AssetRenditionIndex implements ResourceChangeListener {
+
+    @ObjectClassDefinition(
+            name = "AEM Core WCM Components Asset Rendition Index",
+            description = "Indexes the dimensions of the renditions of DAM assets."
+    )
+    @interface Config {
+
+        @AttributeDefinition(
+                name = "Maximum entries",
+                description = "Maximum number of assets kept in memory. The least recently used assets are removed when the limit is " +
+                        "reached."
+        )
+        int maxEntries() default 5000;
+
+        @AttributeDefinition(
+                name = "Persist",
+                description = "Persist the index in the repository, so that it survives restarts."
+        )
+        boolean persist() default true;
+    }
+
+    static final String INDEX_ROOT = "/var/adobexp/renditionindex";
+    private static final String SERVICE_NAME = "rendition-index";
+    private static final String PN_LAST_MODIFIED = "lastModified";
+    private static final String PN_RENDITIONS = "renditions";
+    private static final String SEPARATOR = "\t";
+    private static final Logger LOG = LoggerFactory.getLogger(AssetRenditionIndex.class);
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    private final Object lock = new Object();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    // incremented on every invalidation, so that renditions indexed before a change are not cached after it
+    private long generation;
+
+    private volatile int maxEntries;
+    private volatile boolean persist;
+    private ExecutorService persister;
+
+    @Activate
+    @Modified
+    protected void activate(Config config) {
+        synchronized (lock) {
+            generation++;
+            entries.clear();
+        }
+        maxEntries = Math.max(0, config.maxEntries());
+        persist = config.persist();
+        if (persister == null) {
+            persister = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1000),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, AssetRenditionIndex.class.getSimpleName());
+                        thread.setDaemon(true);
+                        return thread;
+                    }, new ThreadPoolExecutor.DiscardPolicy());
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        if (persister != null) {
+            persister.shutdownNow();
+            persister = null;
+        }
+        synchronized (lock) {
+            generation++;
+            entries.clear();
+        }
+    }
+
+    /**
+     * Returns the indexed renditions of the given asset, in the order returned by {@link Asset#getRenditions()}. The renditions are
+     * indexed if needed.
+     *
+     * @param asset the asset
+     * @return the renditions
+     */
+    @NotNull
+    public List<IndexedRendition> getRenditions(@NotNull Asset asset) {
+        return getEntry(asset).renditions;
+    }
+
+    /**
+     * Returns the data URI of the {@link AdaptiveImagePlaceholder placeholder} of the given asset, cropped, rotated and flipped as
+     * defined by the properties of an image component. The placeholder is read from its rendition once per asset and transformation.
+     *
+     * @param asset               the asset
+     * @param componentProperties the properties of the image component
+     * @return the data URI or {@code null} if the asset has no placeholder rendition or the transformation is not supported
+     */
+    @Nullable
+    public String getPlaceholder(@NotNull Asset asset, @NotNull ValueMap componentProperties) {
+        String crop = componentProperties.get(ImageResource.PN_IMAGE_CROP, String.class);
+        int rotation = AdaptiveImageServlet.getRotation(componentProperties);
+        boolean flipHorizontally = componentProperties.get(Image.PN_FLIP_HORIZONTAL, Boolean.FALSE);
+        boolean flipVertically = componentProperties.get(Image.PN_FLIP_VERTICAL, Boolean.FALSE);
+        Entry entry = getEntry(asset);
+        String key = StringUtils.defaultString(crop) + SEPARATOR + rotation + SEPARATOR + flipHorizontally + SEPARATOR + flipVertically;
+        String dataUri = entry.placeholders.computeIfAbsent(key, k -> createPlaceholder(asset, entry.renditions,
+                AdaptiveImageServlet.getCropRect(componentProperties), rotation, flipHorizontally, flipVertically));
+        return StringUtils.trimToNull(dataUri);
+    }
+
+    /**
+     * Returns the indexed original rendition of the given asset.
+     *
+     * @param asset the asset
+     * @return the original rendition or {@code null} if the asset has none
+     */
+    @Nullable
+    public IndexedRendition getOriginal(@NotNull Asset asset) {
+        for (IndexedRendition rendition : getRenditions(asset)) {
+            if (rendition.isOriginal()) {
+                return rendition;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void onChange(@NotNull List<ResourceChange> changes) {
+        Set<String> invalidated = new HashSet<>();
+        for (ResourceChange change : changes) {
+            String path = change.getPath();
+            int contentIndex = path.indexOf("/" + JcrConstants.JCR_CONTENT);
+            String assetPath = contentIndex > 0 ? path.substring(0, contentIndex) : path;
+            if (invalidated.add(assetPath)) {
+                invalidate(assetPath, contentIndex < 0 && change.getType() == ResourceChange.ChangeType.REMOVED);
+            }
+        }
+    }
+
+    /**
+     * Drops the index of the given asset, both from memory and from the repository.
+     *
+     * @param assetPath   the asset path
+     * @param descendants {@code true} to also drop the indexes of the assets below the given path
+     */
+    void invalidate(@NotNull String assetPath, boolean descendants) {
+        synchronized (lock) {
+            generation++;
+            entries.remove(assetPath);
+            if (descendants) {
+                entries.keySet().removeIf(path -> path.startsWith(assetPath + "/"));
+            }
+        }
+        if (persist && persister != null) {
+            persister.execute(() -> withServiceResolver(resolver -> {
+                Resource resource = resolver.getResource(INDEX_ROOT + assetPath);
+                if (resource != null) {
+                    resolver.delete(resource);
+                    resolver.commit();
+                }
+            }));
+        }
+    }
+
+    @NotNull
+    private Entry getEntry(@NotNull Asset asset) {
+        String assetPath = asset.getPath();
+        long lastModified = asset.getLastModified();
+        long renditionsVersion = getRenditionsVersion(asset);
+        Entry entry;
+        long expectedGeneration;
+        synchronized (lock) {
+            entry = entries.get(assetPath);
+            expectedGeneration = generation;
+        }
+        if (entry != null && entry.lastModified == lastModified && entry.renditionsVersion == renditionsVersion) {
+            return entry;
+        }
+        List<IndexedRendition> renditions = load(asset);
+        boolean indexed = renditions == null;
+        if (indexed) {
+            renditions = index(asset);
+        }
+        entry = new Entry(lastModified, renditionsVersion, renditions);
+        synchronized (lock) {
+            // drop renditions that were read before a change of the asset
+            if (generation == expectedGeneration) {
+                if (indexed) {
+                    store(assetPath, lastModified, renditions);
+                }
+                cache(assetPath, entry);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Computes a version of the renditions of an asset from their names and sizes, which changes when a rendition is added, removed or
+     * replaced, even if the asset's last modified date is not updated.
+     */
+    private static long getRenditionsVersion(@NotNull Asset asset) {
+        long version = 1;
+        for (Rendition rendition : asset.getRenditions()) {
+            version = 31 * version + rendition.getName().hashCode();
+            version = 31 * version + rendition.getSize();
+        }
+        return version;
+    }
+
+    /**
+     * Reads and transforms the placeholder of an asset.
+     *
+     * @return the data URI or an empty string if there is none
+     */
+    @NotNull
+    private String createPlaceholder(@NotNull Asset asset, @NotNull List<IndexedRendition> renditions, @Nullable Rectangle crop,
+                                     int rotation, boolean flipHorizontally, boolean flipVertically) {
+        if (renditions.stream().noneMatch(rendition -> AdaptiveImagePlaceholder.RENDITION_NAME.equals(rendition.getName()))) {
+            return StringUtils.EMPTY;
+        }
+        Rectangle2D relativeCrop = null;
+        if (crop != null) {
+            // the cropping rectangle is relative to the web rendition, the one shown by the image editor
+            Rendition webRendition = asset.getRendition(new WCMRenditionPicker());
+            Dimension dimension = null;
+            for (IndexedRendition rendition : renditions) {
+                if (webRendition != null && rendition.getName().equals(webRendition.getName())) {
+                    dimension = rendition.getDimension();
+                }
+            }
+            if (dimension == null) {
+                return StringUtils.EMPTY;
+            }
+            relativeCrop = new Rectangle2D.Double(crop.getX() / dimension.width, crop.getY() / dimension.height,
+                    crop.getWidth() / dimension.width, crop.getHeight() / dimension.height);
+        }
+        Rendition rendition = asset.getRendition(AdaptiveImagePlaceholder.RENDITION_NAME);
+        if (rendition == null) {
+            return StringUtils.EMPTY;
+        }
+        try (InputStream is = rendition.getStream()) {
+            byte[] placeholder = is != null ? AdaptiveImagePlaceholder.transform(IOUtils.toByteArray(is), relativeCrop, rotation,
+                    flipHorizontally, flipVertically) : null;
+            return placeholder != null ? AdaptiveImagePlaceholder.toDataUri(placeholder) : StringUtils.EMPTY;
+        } catch (IOException | RuntimeException e) {
+            LOG.debug("Unable to read the placeholder of asset {}.", asset.getPath(), e);
+            return StringUtils.EMPTY;
+        }
+    }
+
+    @NotNull
+    private List<IndexedRendition> index(@NotNull Asset asset) {
+        List<IndexedRendition> renditions = new ArrayList<>();
+        for (Rendition rendition : asset.getRenditions()) {
+            Dimension dimension = new EnhancedRendition(rendition).getDimension();
+            renditions.add(new IndexedRendition(rendition.getName(), rendition.getMimeType(),
+                    dimension != null ? dimension.width : 0, dimension != null ? dimension.height : 0, rendition.getSize()));
+        }
+        LOG.debug("Indexed {} renditions of asset {}.", renditions.size(), asset.getPath());
+        return Collections.unmodifiableList(renditions);
+    }
+
+    @Nullable
+    private List<IndexedRendition> load(@NotNull Asset asset) {
+        if (!persist) {
+            return null;
+        }
+        List<IndexedRendition> renditions = new ArrayList<>();
+        withServiceResolver(resolver -> {
+            Resource resource = resolver.getResource(INDEX_ROOT + asset.getPath());
+            if (resource != null) {
+                ValueMap properties = resource.getValueMap();
+                if (properties.get(PN_LAST_MODIFIED, 0L) == asset.getLastModified()) {
+                    for (String value : properties.get(PN_RENDITIONS, new String[0])) {
+                        IndexedRendition rendition = IndexedRendition.parse(value);
+                        if (rendition != null) {
+                            renditions.add(rendition);
+                        }
+                    }
+                }
+            }
+        });
+        if (renditions.isEmpty()) {
+            return null;
+        }
+        // make sure the persisted index still lists the asset's renditions
+        List<String> names = new ArrayList<>();
+        for (Rendition rendition : asset.getRenditions()) {
+            names.add(rendition.getName());
+        }
+        if (renditions.size() != names.size()) {
+            return null;
+        }
+        for (int i = 0; i < names.size(); i++) {
+            if (!names.get(i).equals(renditions.get(i).getName())) {
+                return null;
+            }
+        }
+        return Collections.unmodifiableList(renditions);
+    }
+
+    private void store(@NotNull String assetPath, long lastModified, @NotNull List<IndexedRendition> renditions) {
+        if (!persist || persister == null) {
+            return;
+        }
+        String[] values = new String[renditions.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = renditions.get(i).format();
+        }
+        persister.execute(() -> withServiceResolver(resolver -> {
+            Resource resource = getOrCreate(resolver, INDEX_ROOT + assetPath);
+            ModifiableValueMap properties = resource.adaptTo(ModifiableValueMap.class);
+            if (properties != null) {
+                properties.put(PN_LAST_MODIFIED, lastModified);
+                properties.put(PN_RENDITIONS, values);
+                resolver.commit();
+            }
+        }));
+    }
+
+    /**
+     * Caches the entry of an asset. Must be called while holding the lock.
+     */
+    private void cache(@NotNull String assetPath, @NotNull Entry entry) {
+        entries.put(assetPath, entry);
+        Iterator<String> iterator = entries.keySet().iterator();
+        while (entries.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    @NotNull
+    private static Resource getOrCreate(@NotNull ResourceResolver resolver, @NotNull String path) throws PersistenceException {
+        Resource resource = resolver.getResource(path);
+        if (resource != null) {
+            return resource;
+        }
+        Resource parent = getOrCreate(resolver, ResourceUtil.getParent(path));
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(JcrConstants.JCR_PRIMARYTYPE, JcrConstants.NT_UNSTRUCTURED);
+        return resolver.create(parent, ResourceUtil.getName(path), properties);
+    }
+
+    private void withServiceResolver(@NotNull ResolverCallback callback) {
+        try (ResourceResolver resolver = resourceResolverFactory.getServiceResourceResolver(
+                Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, SERVICE_NAME))) {
+            callback.call(resolver);
+        } catch (LoginException e) {
+            LOG.debug("Unable to open a service resource resolver for the {} sub-service; the index is not persisted.", SERVICE_NAME, e);
+        } catch (PersistenceException | RuntimeException e) {
+            LOG.warn("Unable to access the persisted rendition index.", e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ResolverCallback {
+        void call(@NotNull ResourceResolver resolver) throws PersistenceException;
+    }
+
+    private static final class Entry {
+        private final long lastModified;
+        private final long renditionsVersion;
+        private final List<IndexedRendition> renditions;
+        // placeholder data URIs by transformation; empty if there is none
+        private final ConcurrentMap<String, String> placeholders = new ConcurrentHashMap<>();
+
+        private Entry(long lastModified, long renditionsVersion, List<IndexedRendition> renditions) {
+            this.lastModified = lastModified;
+            this.renditionsVersion = renditionsVersion;
+            this.renditions = renditions;
+        }
+    }
+
+    /**
+     * The indexed properties of a rendition.
+     */
+    public static final class IndexedRendition {
+
+        private final String name;
+        private final String mimeType;
+        private final int width;
+        private final int height;
+        private final long size;
+
+        IndexedRendition(@NotNull String name, @Nullable String mimeType, int width, int height, long size) {
+            this.name = name;
+            this.mimeType = StringUtils.defaultString(mimeType);
+            this.width = width;
+            this.height = height;
+            this.size = size;
+        }
+
+        @NotNull
+        public String getName() {
+            return name;
+        }
+
+        @NotNull
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return the rendition's dimension or {@code null} if it could not be determined
+         */
+        @Nullable
+        public Dimension getDimension() {
+            return width > 0 && height > 0 ? new Dimension(width, height) : null;
+        }
+
+        /**
+         * @return {@code true} if this is the asset's original rendition
+         */
+        public boolean isOriginal() {
+            return DamConstants.ORIGINAL_FILE.equals(name);
+        }
+
+        @NotNull
+        String format() {
+            return StringUtils.join(new Object[]{name, mimeType, width, height, size}, SEPARATOR);
+        }
+
+        @Nullable
+        static IndexedRendition parse(@NotNull String value) {
+            String[] fields = StringUtils.splitPreserveAllTokens(value, SEPARATOR);
+            if (fields.length != 5) {
+                return null;
+            }
+            try {
+                return new IndexedRendition(fields[0], fields[1], Integer.parseInt(fields[2]), Integer.parseInt(fields[3]),
+                        Long.parseLong(fields[4]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
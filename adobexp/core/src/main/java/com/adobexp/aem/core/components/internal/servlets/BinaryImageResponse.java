@@ -0,0 +1,36 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A response of the {@link AdaptiveImageServlet} that knows how to write an already encoded image binary.
+ */
+interface BinaryImageResponse {
+
+    /**
+     * Writes the binary read from the given stream.
+     *
+     * @param inputStream the binary; the stream is not closed
+     * @param size        the size of the binary, in bytes, or {@code -1} if unknown
+     * @throws IOException if the binary cannot be written
+     */
+    void writeBinary(@NotNull InputStream inputStream, long size) throws IOException;
+}
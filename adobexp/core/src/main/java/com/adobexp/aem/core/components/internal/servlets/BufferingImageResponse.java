@@ -0,0 +1,162 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.wrappers.SlingHttpServletResponseWrapper;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Response wrapper that keeps the image written by the {@link AdaptiveImageServlet} in memory instead of committing it, so that it
+ * can be stored in the {@link AdaptiveImageRenditionCache} before being sent to the client. Images that are too large to be cached
+ * are not copied off-heap.
+ */
+class BufferingImageResponse extends SlingHttpServletResponseWrapper implements BinaryImageResponse {
+
+    private static final String CONTENT_DISPOSITION = "Content-Disposition";
+
+    private final ExposedByteArrayOutputStream buffer = new ExposedByteArrayOutputStream();
+    private final ServletOutputStream outputStream = new ServletOutputStream() {
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            // writing to the buffer never blocks
+            try {
+                writeListener.onWritePossible();
+            } catch (IOException e) {
+                writeListener.onError(e);
+            }
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.write(b);
+        }
+
+        @Override
+        public void write(@NotNull byte[] b, int off, int len) {
+            buffer.write(b, off, len);
+        }
+    };
+    private final long maxOffHeapSize;
+    private String contentType;
+    private PrintWriter writer;
+
+    BufferingImageResponse(@NotNull SlingHttpServletResponse response) {
+        this(response, Long.MAX_VALUE);
+    }
+
+    BufferingImageResponse(@NotNull SlingHttpServletResponse response, long maxOffHeapSize) {
+        super(response);
+        this.maxOffHeapSize = maxOffHeapSize;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws UnsupportedEncodingException {
+        if (writer == null) {
+            String characterEncoding = getCharacterEncoding();
+            writer = new PrintWriter(new OutputStreamWriter(outputStream,
+                    characterEncoding != null ? characterEncoding : StandardCharsets.ISO_8859_1.name()));
+        }
+        return writer;
+    }
+
+    @Override
+    public void setContentType(String type) {
+        contentType = type;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        // the Content-Disposition header depends on the requested image name and is set when the rendition is streamed
+        if (!CONTENT_DISPOSITION.equalsIgnoreCase(name)) {
+            super.setHeader(name, value);
+        }
+    }
+
+    @Override
+    public void writeBinary(@NotNull InputStream inputStream, long size) throws IOException {
+        if (size > 0 && size < Integer.MAX_VALUE) {
+            buffer.ensureCapacity((int) size);
+        }
+        IOUtils.copy(inputStream, outputStream);
+    }
+
+    /**
+     * Returns the buffered image as a {@link CachedRendition}. The image is copied off-heap only if it is not larger than the
+     * maximum off-heap size; larger images are wrapped as they are, since they will not be cached.
+     *
+     * @return the rendition or {@code null} if nothing was written to the response
+     */
+    @Nullable
+    CachedRendition toCachedRendition() {
+        if (writer != null) {
+            writer.flush();
+        }
+        if (contentType == null || buffer.size() == 0) {
+            return null;
+        }
+        if (buffer.size() > maxOffHeapSize) {
+            return new CachedRendition(contentType, ByteBuffer.wrap(buffer.getBuffer(), 0, buffer.size()));
+        }
+        return CachedRendition.offHeap(contentType, buffer.getBuffer(), buffer.size());
+    }
+
+    private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        ExposedByteArrayOutputStream() {
+            super(64 * 1024);
+        }
+
+        byte[] getBuffer() {
+            return buf;
+        }
+
+        void ensureCapacity(int capacity) {
+            if (capacity > buf.length) {
+                buf = Arrays.copyOf(buf, capacity);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.nio.ByteBuffer;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * An image rendered by the {@link AdaptiveImageServlet}, held in a read-only (usually direct, off-heap) {@link ByteBuffer}.
+ */
+final class CachedRendition {
+
+    private final String mimeType;
+    private final ByteBuffer data;
+
+    CachedRendition(@NotNull String mimeType, @NotNull ByteBuffer data) {
+        this.mimeType = mimeType;
+        this.data = data.asReadOnlyBuffer();
+    }
+
+    /**
+     * Copies the given bytes into a new off-heap buffer.
+     *
+     * @param mimeType           the mime type of the image
+     * @param bytes              the buffer holding the image
+     * @param length             the number of valid bytes in {@code bytes}
+     * @return the rendition
+     */
+    @NotNull
+    static CachedRendition offHeap(@NotNull String mimeType, @NotNull byte[] bytes, int length) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+        buffer.put(bytes, 0, length);
+        buffer.flip();
+        return new CachedRendition(mimeType, buffer);
+    }
+
+    @NotNull
+    String getMimeType() {
+        return mimeType;
+    }
+
+    int getSize() {
+        return data.limit();
+    }
+
+    /**
+     * Returns an independent view on the image bytes; the returned buffer's position and limit can be changed freely.
+     *
+     * @return the image bytes
+     */
+    @NotNull
+    ByteBuffer getData() {
+        return data.duplicate();
+    }
+}
@@ -0,0 +1,230 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.wrappers.SlingHttpServletResponseWrapper;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Response wrapper used by the {@link AdaptiveImageServlet} to send image binaries that are already encoded. The binaries are sent with
+ * a {@code Content-Length} header, in large chunks (or through a channel transfer when they are backed by a file) and single byte
+ * range requests are answered with partial content.
+ */
+class StreamingImageResponse extends SlingHttpServletResponseWrapper implements BinaryImageResponse {
+
+    static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
+    static final String HEADER_CONTENT_RANGE = "Content-Range";
+    static final String HEADER_RANGE = "Range";
+    static final String HEADER_IF_RANGE = "If-Range";
+
+    private static final String BYTES_UNIT = "bytes";
+    private static final int BUFFER_SIZE = 128 * 1024;
+
+    private final SlingHttpServletRequest request;
+    private final Runnable cachingHeaders;
+
+    StreamingImageResponse(@NotNull SlingHttpServletRequest request, @NotNull SlingHttpServletResponse response) {
+        this(request, response, null);
+    }
+
+    /**
+     * @param request        the request
+     * @param response       the response
+     * @param cachingHeaders sets the caching headers of the response; run only once the binary is about to be sent with a
+     *                       {@code 200} or {@code 206} status code
+     */
+    StreamingImageResponse(@NotNull SlingHttpServletRequest request, @NotNull SlingHttpServletResponse response,
+                           @Nullable Runnable cachingHeaders) {
+        super(response);
+        this.request = request;
+        this.cachingHeaders = cachingHeaders;
+    }
+
+    @Override
+    public void writeBinary(@NotNull InputStream inputStream, long size) throws IOException {
+        if (size < 0) {
+            applyCachingHeaders();
+            copy(inputStream, getOutputStream(), 0, -1);
+            return;
+        }
+        long[] range = getRange(size);
+        if (range != null) {
+            copy(inputStream, getOutputStream(), range[0], range[1] - range[0] + 1);
+        }
+    }
+
+    /**
+     * Writes a binary that is held in memory.
+     *
+     * @param data the binary
+     * @throws IOException if the binary cannot be written
+     */
+    void writeBinary(@NotNull ByteBuffer data) throws IOException {
+        long[] range = getRange(data.remaining());
+        if (range != null) {
+            ByteBuffer slice = data.duplicate();
+            slice.position(data.position() + (int) range[0]);
+            slice.limit(data.position() + (int) range[1] + 1);
+            WritableByteChannel channel = Channels.newChannel(getOutputStream());
+            while (slice.hasRemaining()) {
+                channel.write(slice);
+            }
+        }
+    }
+
+    /**
+     * Copies {@code length} bytes, starting at {@code offset}, from the input stream to the output stream. Streams that read from a
+     * file are transferred through their channel.
+     *
+     * @param inputStream  the input stream
+     * @param outputStream the output stream
+     * @param offset       the number of bytes to skip
+     * @param length       the number of bytes to copy; {@code -1} to copy everything after the offset
+     * @throws IOException if the bytes cannot be copied
+     */
+    static void copy(@NotNull InputStream inputStream, @NotNull OutputStream outputStream, long offset, long length) throws IOException {
+        if (inputStream instanceof FileInputStream) {
+            FileChannel channel = ((FileInputStream) inputStream).getChannel();
+            WritableByteChannel target = Channels.newChannel(outputStream);
+            long position = channel.position() + offset;
+            long remaining = length < 0 ? channel.size() - position : length;
+            while (remaining > 0) {
+                long transferred = channel.transferTo(position, remaining, target);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+                remaining -= transferred;
+            }
+        } else {
+            IOUtils.copyLarge(inputStream, outputStream, offset, length, new byte[BUFFER_SIZE]);
+        }
+    }
+
+    /**
+     * Sets the length headers of a binary of the given size and, for range requests, the status and the range headers.
+     *
+     * @param size the size of the binary
+     * @return the first and last byte positions to send, or {@code null} if the requested range cannot be satisfied
+     */
+    @Nullable
+    private long[] getRange(long size) {
+        setHeader(HEADER_ACCEPT_RANGES, BYTES_UNIT);
+        long[] range = parseRange(request.getHeader(HEADER_RANGE), size);
+        if (range == null || !isRangeValid()) {
+            applyCachingHeaders();
+            setContentLengthLong(size);
+            return new long[] {0, size - 1};
+        }
+        if (range.length == 0) {
+            setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            setHeader(HEADER_CONTENT_RANGE, BYTES_UNIT + " */" + size);
+            setContentLength(0);
+            return null;
+        }
+        applyCachingHeaders();
+        setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        setHeader(HEADER_CONTENT_RANGE, BYTES_UNIT + " " + range[0] + "-" + range[1] + "/" + size);
+        setContentLengthLong(range[1] - range[0] + 1);
+        return range;
+    }
+
+    private void applyCachingHeaders() {
+        if (cachingHeaders != null) {
+            cachingHeaders.run();
+        }
+    }
+
+    /**
+     * Checks the {@code If-Range} precondition against the validators already set on the response. Weak entity tags never match.
+     *
+     * @return {@code true} if the range can be served
+     */
+    private boolean isRangeValid() {
+        String ifRange = request.getHeader(HEADER_IF_RANGE);
+        if (StringUtils.isEmpty(ifRange)) {
+            return true;
+        }
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(getHeader(AdaptiveImageServlet.HEADER_ETAG));
+        }
+        if (ifRange.startsWith("W/")) {
+            return false;
+        }
+        return ifRange.equals(getHeader("Last-Modified"));
+    }
+
+    /**
+     * Parses a {@code Range} header. Only single byte ranges are supported; other ranges are ignored, so that the whole binary is sent.
+     *
+     * @param header the header value
+     * @param size   the size of the binary
+     * @return the first and last byte positions, an empty array if the range cannot be satisfied or {@code null} if the header is
+     * missing, malformed or not supported
+     */
+    @Nullable
+    static long[] parseRange(@Nullable String header, long size) {
+        if (header == null || !header.startsWith(BYTES_UNIT + "=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring(BYTES_UNIT.length() + 1).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                if (last.isEmpty()) {
+                    return null;
+                }
+                long suffixLength = Long.parseLong(last);
+                if (suffixLength <= 0 || size == 0) {
+                    return new long[0];
+                }
+                return new long[] {Math.max(0, size - suffixLength), size - 1};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? size - 1 : Long.parseLong(last);
+            if (start < 0 || end < start) {
+                return null;
+            }
+            if (start >= size) {
+                return new long[0];
+            }
+            return new long[] {start, Math.min(end, size - 1)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
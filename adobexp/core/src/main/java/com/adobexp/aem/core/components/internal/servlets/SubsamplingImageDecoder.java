@@ -0,0 +1,153 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2024 Adobe
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package com.adobexp.aem.core.components.internal.servlets;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Decodes JPEG and PNG images with {@link ImageIO}, skipping source pixels at read time so that the decoded image is the smallest
+ * one that is still at least as wide as the requested width. The caller is expected to do the final, high-quality resample.
+ * Optionally, only a region of the image is decoded. The streams are cached in memory, never in temporary files.
+ */
+final class SubsamplingImageDecoder {
+
+    private static final Set<String> SUPPORTED_FORMATS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("jpeg", "png")));
+
+    private SubsamplingImageDecoder() {
+    }
+
+    /**
+     * Decodes the image from the given stream.
+     *
+     * @param inputStream the image stream; the stream is not closed
+     * @param region      the region of the image to decode, in source image pixels; {@code null} to decode the whole image
+     * @param targetWidth the width of the image that will be rendered, in pixels
+     * @param rotation    the rotation, in degrees, that will be applied to the decoded image
+     * @return the decoded image or {@code null} if the image format is not supported or if the region is outside of the image
+     * @throws IOException if the image cannot be decoded
+     */
+    @Nullable
+    static BufferedImage decode(@NotNull InputStream inputStream, @Nullable Rectangle region, int targetWidth, int rotation)
+            throws IOException {
+        try (ImageInputStream imageInputStream = new MemoryCacheImageInputStream(inputStream)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInputStream);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                if (!SUPPORTED_FORMATS.contains(reader.getFormatName().toLowerCase(Locale.ENGLISH))) {
+                    return null;
+                }
+                reader.setInput(imageInputStream, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                Rectangle sourceRegion = new Rectangle(0, 0, reader.getWidth(0), reader.getHeight(0));
+                if (region != null) {
+                    sourceRegion = sourceRegion.intersection(region);
+                    if (sourceRegion.isEmpty()) {
+                        return null;
+                    }
+                    param.setSourceRegion(sourceRegion);
+                }
+                int subsampling = getSubsampling(sourceRegion.width, sourceRegion.height, targetWidth, rotation);
+                if (subsampling > 1) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Reads the dimension of an image from its header, without decoding it.
+     *
+     * @param inputStream the image stream; the stream is not closed
+     * @return the dimension or {@code null} if no reader supports the image format
+     * @throws IOException if the image header cannot be read
+     */
+    @Nullable
+    static Dimension readDimension(@NotNull InputStream inputStream) throws IOException {
+        try (ImageInputStream imageInputStream = new MemoryCacheImageInputStream(inputStream)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInputStream);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageInputStream, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Calculates the largest subsampling factor that keeps the image at least as wide as {@code targetWidth} once rotated.
+     *
+     * @param width       the width of the source image, in pixels
+     * @param height      the height of the source image, in pixels
+     * @param targetWidth the width of the rendered image, in pixels
+     * @param rotation    the rotation, in degrees, applied after decoding
+     * @return the subsampling factor; {@code 1} means that every source pixel is decoded
+     */
+    static int getSubsampling(int width, int height, int targetWidth, int rotation) {
+        if (targetWidth <= 0 || width <= 0 || height <= 0) {
+            return 1;
+        }
+        return Math.max(1, getRotatedWidth(width, height, rotation) / targetWidth);
+    }
+
+    /**
+     * Returns the number of source pixels that end up on the horizontal axis once the image is rotated. For angles that are not a
+     * multiple of 90 degrees the smaller side is returned, which is a safe lower bound.
+     *
+     * @param width    the width of the source image, in pixels
+     * @param height   the height of the source image, in pixels
+     * @param rotation the rotation, in degrees
+     * @return the rotated width, in source pixels
+     */
+    static int getRotatedWidth(int width, int height, int rotation) {
+        int normalizedRotation = ((rotation % 360) + 360) % 360;
+        if (normalizedRotation == 0 || normalizedRotation == 180) {
+            return width;
+        } else if (normalizedRotation == 90 || normalizedRotation == 270) {
+            return height;
+        }
+        return Math.min(width, height);
+    }
+}
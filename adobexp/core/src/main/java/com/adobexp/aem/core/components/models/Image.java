@@ -360,6 +360,17 @@ public interface Image {
         return false;
     }
 
+    /**
+     * Returns a tiny, low-quality version of the image, as a data URI, that can be shown in place of a lazy loaded image until it is
+     * loaded. Browsers blur the placeholder when scaling it up.
+     *
+     * @return the data URI of the placeholder or {@code null} if the image is not lazy loaded or has no placeholder
+     * @since com.adobexp.aem.core.components.models 12.29.0
+     */
+    default String getPlaceholder() {
+        return null;
+    }
+
     /**
      * Returns the value for the {@code srcset} html attribute of the image.
      *